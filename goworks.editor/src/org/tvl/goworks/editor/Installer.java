@@ -0,0 +1,46 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.tvl.goworks.editor;
+
+import org.openide.modules.ModuleInstall;
+import org.openide.util.RequestProcessor;
+import org.openide.windows.WindowManager;
+import org.tvl.goworks.editor.go.parser.GoParserWarmup;
+
+/**
+ *
+ * @author Sam Harwell
+ */
+public class Installer extends ModuleInstall {
+
+    private static final RequestProcessor WARMUP_PROCESSOR = new RequestProcessor("Go Parser Warm-up", 1);
+
+    @Override
+    public void restored() {
+        super.restored();
+        WindowManager.getDefault().invokeWhenUIReady(new Runnable() {
+            @Override
+            public void run() {
+                WARMUP_PROCESSOR.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        GoParserWarmup.run();
+                    }
+                }, 0, Thread.MIN_PRIORITY);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        GoParserWarmup.save();
+        super.close();
+    }
+
+}
@@ -126,6 +126,12 @@ public class GoParserDataDefinitions {
             super("Go Compiled Model", CompiledModel.class, false, true, ParserTaskScheduler.CONTENT_SENSITIVE_TASK_SCHEDULER);
         }
 
+        @Override
+        public int getCacheWeight() {
+            // token array and full parse tree
+            return 48;
+        }
+
     }
 
     private static final class AnnotatedParseTreeDataDefinition extends ParserDataDefinition<GoAnnotatedParseTree> {
@@ -134,6 +140,12 @@ public class GoParserDataDefinitions {
             super("Go Annotated Parse Tree", GoAnnotatedParseTree.class, false, true, ParserTaskScheduler.CONTENT_SENSITIVE_TASK_SCHEDULER);
         }
 
+        @Override
+        public int getCacheWeight() {
+            // parse tree plus per-node annotations
+            return 64;
+        }
+
     }
 
     private static final class ReferenceAnchorPointsDataDefinition extends ParserDataDefinition<List<Anchor>> {
@@ -161,6 +173,12 @@ public class GoParserDataDefinitions {
             super("Go Lexer Tokens", (Class<Tagger<TokenTag<Token>>>)(Object)Tagger.class, false, true, ParserTaskScheduler.CONTENT_SENSITIVE_TASK_SCHEDULER);
         }
 
+        @Override
+        public int getCacheWeight() {
+            // token array
+            return 24;
+        }
+
     }
 
     private static final class CurrentDeclarationContextDataDefinition extends ParserDataDefinition<CurrentDeclarationContextData> {
@@ -177,6 +195,12 @@ public class GoParserDataDefinitions {
             super("Go File Model", FileModel.class, false, true, ParserTaskScheduler.CONTENT_SENSITIVE_TASK_SCHEDULER);
         }
 
+        @Override
+        public int getCacheWeight() {
+            // declarations only
+            return 8;
+        }
+
     }
 
     private static final class NavigatorRootDataDefinition extends ParserDataDefinition<Description> {
@@ -185,6 +209,12 @@ public class GoParserDataDefinitions {
             super("Go Navigator Root", Description.class, false, true, ParserTaskScheduler.MANUAL_TASK_SCHEDULER);
         }
 
+        @Override
+        public int getCacheWeight() {
+            // declarations only
+            return 4;
+        }
+
     }
 
     private static final class NavigatorUIVisibleDataDefinition extends ParserDataDefinition<Boolean> {
@@ -28,6 +28,7 @@ import java.util.logging.Logger;
 import javax.swing.text.Document;
 import org.antlr.netbeans.editor.classification.TokenTag;
 import org.antlr.netbeans.editor.completion.Anchor;
+import org.antlr.netbeans.editor.completion.AnchorList;
 import org.antlr.netbeans.editor.tagging.Tagger;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
 import org.antlr.netbeans.editor.text.DocumentTextUtilities;
@@ -412,25 +413,23 @@ public final class GoCompletionQuery extends AbstractCompletionQuery {
             if (anchors != null) {
                 Anchor enclosing = null;
                 Anchor previous = null;
-                Anchor next = null;
+                int previousStart = 0;
 
                 /*
                  * parse the current rule
                  */
-                for (Anchor anchor : anchors) {
-                    // TODO: support more anchors
-                    if (anchor.getRule() != GoParser.RULE_topLevelDecl) {
-                        continue;
-                    }
+                AnchorList anchorList = AnchorList.forSnapshot(anchors, snapshot);
+                int previousIndex = anchorList.getPreviousIndex(getCaretOffset());
+                // TODO: support more anchors
+                while (previousIndex >= 0 && anchorList.get(previousIndex).getRule() != GoParser.RULE_topLevelDecl) {
+                    previousIndex--;
+                }
 
-                    if (anchor.getSpan().getStartPosition(snapshot).getOffset() <= getCaretOffset()) {
-                        previous = anchor;
-                        if (anchor.getSpan().getEndPosition(snapshot).getOffset() > getCaretOffset()) {
-                            enclosing = anchor;
-                        }
-                    } else {
-                        next = anchor;
-                        break;
+                if (previousIndex >= 0) {
+                    previous = anchorList.get(previousIndex);
+                    previousStart = anchorList.getStart(previousIndex);
+                    if (anchorList.getEnd(previousIndex) > getCaretOffset()) {
+                        enclosing = previous;
                     }
                 }
 
@@ -443,10 +442,8 @@ public final class GoCompletionQuery extends AbstractCompletionQuery {
                 }
 
                 int regionStart;
-                if (enclosing != null) {
-                    regionStart = enclosing.getSpan().getStartPosition(snapshot).getOffset();
-                } else if (previous != null) {
-                    regionStart = previous.getSpan().getStartPosition(snapshot).getOffset();
+                if (previous != null) {
+                    regionStart = previousStart;
                 } else {
                     regionStart = 0;
                 }
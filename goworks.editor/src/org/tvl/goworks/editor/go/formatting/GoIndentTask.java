@@ -24,6 +24,7 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.StyledDocument;
 import org.antlr.netbeans.editor.classification.TokenTag;
 import org.antlr.netbeans.editor.completion.Anchor;
+import org.antlr.netbeans.editor.completion.AnchorList;
 import org.antlr.netbeans.editor.tagging.Tagger;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
 import org.antlr.netbeans.editor.text.OffsetRegion;
@@ -116,34 +117,22 @@ public class GoIndentTask implements IndentTask {
         SnapshotPosition endPosition = contextEndPosition.getContainingLine().getEndIncludingLineBreak();
         SnapshotPosition endPositionOnLine = contextEndPosition.getContainingLine().getEnd();
 
-        Anchor enclosing = null;
-        Anchor previous = null;
-        Anchor next = null;
-
         /*
          * parse the current rule
          */
-        for (Anchor anchor : anchors) {
-            // TODO: support more anchors
-            if (anchor.getRule() != GoParser.RULE_topLevelDecl) {
-                continue;
-            }
-
-            if (anchor.getSpan().getStartPosition(snapshot).getOffset() <= endPosition.getOffset()) {
-                previous = anchor;
-                if (anchor.getSpan().getEndPosition(snapshot).getOffset() > endPosition.getOffset()) {
-                    enclosing = anchor;
-                }
-            } else {
-                next = anchor;
-                break;
-            }
+        AnchorList anchorList = AnchorList.forSnapshot(anchors, snapshot);
+        int previousIndex = anchorList.getPreviousIndex(endPosition.getOffset());
+        // TODO: support more anchors
+        while (previousIndex >= 0 && anchorList.get(previousIndex).getRule() != GoParser.RULE_topLevelDecl) {
+            previousIndex--;
         }
 
-        if (previous == null) {
+        if (previousIndex < 0) {
             return false;
         }
 
+        Anchor previous = anchorList.get(previousIndex);
+
         Future<ParserData<Tagger<TokenTag<Token>>>> futureTokensData = taskManager.getData(snapshot, GoParserDataDefinitions.LEXER_TOKENS, EnumSet.of(ParserDataOptions.SYNCHRONOUS));
         Tagger<TokenTag<Token>> tagger = null;
         try {
@@ -153,13 +142,9 @@ public class GoIndentTask implements IndentTask {
         }
 
         int regionEnd = Math.min(snapshot.length(), endPosition.getOffset() + 1);
-        OffsetRegion region;
-        if (enclosing != null) {
-            region = OffsetRegion.fromBounds(enclosing.getSpan().getStartPosition(snapshot).getOffset(), regionEnd);
-        } else {
-            // at least for now, include the previous span due to the way error handling places bounds on an anchor
-            region = OffsetRegion.fromBounds(previous.getSpan().getStartPosition(snapshot).getOffset(), regionEnd);
-        }
+        // when the position is not enclosed by an anchor, include the previous span due to the way error handling
+        // places bounds on an anchor
+        OffsetRegion region = OffsetRegion.fromBounds(anchorList.getStart(previousIndex), regionEnd);
 
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.log(Level.FINE, "Reindent from anchor region: {0}.", region);
@@ -23,7 +23,10 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 import javax.swing.text.StyledDocument;
+import org.antlr.netbeans.editor.classification.TokenTag;
+import org.antlr.netbeans.editor.tagging.Tagger;
 import org.antlr.netbeans.editor.text.OffsetRegion;
+import org.antlr.netbeans.parsing.spi.ParserDataDefinition;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.Token;
 import org.antlr.works.editor.antlr4.completion.CompletionQueryResult;
@@ -35,10 +38,13 @@ import org.netbeans.api.editor.settings.AttributesUtilities;
 import org.netbeans.api.editor.settings.EditorStyleConstants;
 import org.netbeans.api.editor.settings.FontColorSettings;
 import org.netbeans.spi.editor.highlighting.HighlightAttributeValue;
+import org.openide.text.NbDocument;
 import org.openide.util.Lookup;
 import org.tvl.goworks.editor.GoEditorKit;
+import org.tvl.goworks.editor.go.GoParserDataDefinitions;
 import org.tvl.goworks.editor.go.completion.GoCompletionItem;
 import org.tvl.goworks.editor.go.completion.GoCompletionProvider;
+import org.tvl.goworks.editor.go.parser.GoLexer;
 
 /**
  *
@@ -49,6 +55,13 @@ public class GoHighlighter extends ANTLRHighlighterBaseV4<GoHighlighterLexerStat
     private static final Logger LOGGER = Logger.getLogger(GoHighlighter.class.getName());
 
     public static final String DOCUMENT_PROPERTY = "go-highlighter";
+    /**
+     * Documents with at least this many lines are highlighted from the lexer tokens computed on a parser thread. The
+     * parser lexer does not produce tokens for escape sequences, so smaller documents are still lexed by the
+     * highlighter itself.
+     */
+    private static final int SNAPSHOT_HIGHLIGHTING_MINIMUM_LINES = 5000;
+
     private static final AttributeSet TOOLTIP =
         AttributesUtilities.createImmutable(EditorStyleConstants.Tooltip, new TooltipResolver());
 
@@ -113,6 +126,66 @@ public class GoHighlighter extends ANTLRHighlighterBaseV4<GoHighlighterLexerStat
         return lexerWrapper;
     }
 
+    @Override
+    protected ParserDataDefinition<Tagger<TokenTag<Token>>> getTokensDataDefinition() {
+        return GoParserDataDefinitions.LEXER_TOKENS;
+    }
+
+    @Override
+    protected boolean useSnapshotHighlighting() {
+        return NbDocument.findLineRootElement(getDocument()).getElementCount() >= SNAPSHOT_HIGHLIGHTING_MINIMUM_LINES;
+    }
+
+    @Override
+    protected AttributeSet highlightSnapshotToken(Token token) {
+        switch (token.getType()) {
+        case GoLexer.Break:
+        case GoLexer.Case:
+        case GoLexer.Chan:
+        case GoLexer.Const:
+        case GoLexer.Continue:
+        case GoLexer.Default:
+        case GoLexer.Defer:
+        case GoLexer.Else:
+        case GoLexer.Fallthrough:
+        case GoLexer.For:
+        case GoLexer.Func:
+        case GoLexer.Go:
+        case GoLexer.Goto:
+        case GoLexer.If:
+        case GoLexer.Import:
+        case GoLexer.Interface:
+        case GoLexer.Map:
+        case GoLexer.Package:
+        case GoLexer.Range:
+        case GoLexer.Return:
+        case GoLexer.Select:
+        case GoLexer.Struct:
+        case GoLexer.Switch:
+        case GoLexer.Type:
+        case GoLexer.Var:
+            return keywordAttributes;
+
+        case GoLexer.INT_LITERAL:
+        case GoLexer.FLOAT_LITERAL:
+            return numberLiteralAttributes;
+
+        case GoLexer.CharLiteral:
+        case GoLexer.StringLiteral:
+            return stringLiteralAttributes;
+
+        case GoLexer.COMMENT:
+        case GoLexer.ML_COMMENT:
+            return commentAttributes;
+
+        case GoLexer.IDENTIFIER:
+            return identifierAttributes;
+
+        default:
+            return null;
+        }
+    }
+
     @Override
     protected AttributeSet highlightToken(Token token) {
         switch (token.getType()) {
@@ -19,6 +19,7 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
+import org.antlr.netbeans.parsing.spi.CancellationToken;
 import org.antlr.v4.runtime.Dependents;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RuleContext;
@@ -134,6 +135,8 @@ public class CodeModelBuilderListener extends GoParserBaseListener {
                 if (ruleNode.getRuleContext() instanceof BodyContext) {
                     return;
                 }
+
+                CancellationToken.getCurrent().throwIfCancellationRequested();
             }
 
             super.walk(listener, t);
@@ -143,7 +146,7 @@ public class CodeModelBuilderListener extends GoParserBaseListener {
 
     private final GoProject _project;
     private final DocumentSnapshot _snapshot;
-    private final Token[] _tokens;
+    private final List<? extends Token> _tokens;
 
     private FileModelImpl _fileModel;
     private TypeModelImpl _unknownType;
@@ -212,7 +215,7 @@ public class CodeModelBuilderListener extends GoParserBaseListener {
 
     private final Map<ParserRuleContext, TypeModelImpl> _expressionTypes = new HashMap<>();
 
-    public CodeModelBuilderListener(DocumentSnapshot snapshot, Token[] tokens) {
+    public CodeModelBuilderListener(DocumentSnapshot snapshot, List<? extends Token> tokens) {
         Project project = FileOwnerQuery.getOwner(snapshot.getVersionedDocument().getFileObject());
         if (!(project instanceof GoProject)) {
             throw new UnsupportedOperationException("Unsupported project type.");
@@ -26,7 +26,7 @@ public class CompiledFileModel {
 
     @NonNull
     private final FileObject fileObject;
-    private final Token[] tokens;
+    private final List<? extends Token> tokens;
 
     private final SourceFileContext result;
     private final List<? extends SyntaxError> syntaxErrors;
@@ -40,7 +40,7 @@ public class CompiledFileModel {
         this.syntaxErrors = null;
     }
 
-    public CompiledFileModel(SourceFileContext result, List<? extends SyntaxError> syntaxErrors, @NonNull FileObject fileObject, @NullAllowed Token[] tokens) {
+    public CompiledFileModel(SourceFileContext result, List<? extends SyntaxError> syntaxErrors, @NonNull FileObject fileObject, @NullAllowed List<? extends Token> tokens) {
         Parameters.notNull("fileObject", fileObject);
 
         this.fileObject = fileObject;
@@ -53,7 +53,7 @@ public class CompiledFileModel {
         return fileObject;
     }
 
-    public @CheckForNull Token[] getTokens() {
+    public @CheckForNull List<? extends Token> getTokens() {
         return tokens;
     }
 
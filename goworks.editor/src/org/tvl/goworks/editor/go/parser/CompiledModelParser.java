@@ -9,8 +9,12 @@
 package org.tvl.goworks.editor.go.parser;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.antlr.netbeans.editor.classification.TokenTag;
@@ -42,11 +46,40 @@ public class CompiledModelParser {
     // -J-Dorg.tvl.goworks.editor.go.parser.CompiledModelParser.level=FINE
     private static final Logger LOGGER = Logger.getLogger(CompiledModelParser.class.getName());
 
+    /**
+     * The number of full parses which start with a slower configuration before the fastest configuration is
+     * attempted again.
+     */
+    private static final int FASTEST_RETRY_INTERVAL = 8;
+
+    /**
+     * The number of consecutive incremental parses of a document before a full parse is performed. Each incremental
+     * parse shares declarations and tokens with the previous parse, and the shared declarations keep their parent in
+     * the previous tree, so this bounds the number of earlier trees and snapshots kept alive by a parse tree.
+     */
+    private static final int MAX_INCREMENTAL_PARSES = 16;
+
+    private static final AtomicLongArray PARSE_COUNTS = new AtomicLongArray(ParserConfiguration.values().length);
+    private static final AtomicLongArray FALLBACK_COUNTS = new AtomicLongArray(ParserConfiguration.values().length);
+    private static final AtomicLong SKIPPED_FASTEST_COUNT = new AtomicLong();
+
+    /**
+     * Guards the cached result. Each document has its own {@link CompiledModelParserTask}, so parsing one document
+     * does not block parsing another.
+     */
     private final Object lock = new Object();
     private DocumentSnapshot lastSnapshot;
     private CompiledFileModel lastResult;
     private Throwable lastException;
 
+    /** The configuration the next full parse of this document starts with. Guarded by {@link #lock}. */
+    @NonNull
+    private ParserConfiguration initialConfiguration = ParserConfiguration.FASTEST;
+    /** The number of full parses of this document since the fastest configuration was attempted. */
+    private int parsesSinceFastestAttempt;
+    /** The number of incremental parses of this document since the last full parse. */
+    private int incrementalParseCount;
+
     public void parse(ParserTaskManager taskManager, ParseContext context, DocumentSnapshot snapshot, Collection<? extends ParserDataDefinition<?>> requestedData, ParserResultHandler results)
         throws InterruptedException, ExecutionException {
 
@@ -86,38 +119,37 @@ public class CompiledModelParser {
                 Tagger<TokenTag<Token>> tagger = futureTokensData != null ? futureTokensData.get().getData() : null;
                 TaggerTokenSource tokenSource = new TaggerTokenSource(tagger, snapshot);
                 CommonTokenStream tokenStream = new CommonTokenStream(tokenSource);
-                GoParser parser = GoParserFactory.DEFAULT.getParser(tokenStream, ParserConfiguration.FASTEST);
                 try {
                     SyntaxErrorListener syntaxErrorListener = new SyntaxErrorListener(snapshot);
-                    SourceFileContext sourceFileContext;
-                    try {
-                        try {
-                            sourceFileContext = parser.sourceFile();
-                        } catch (ParseCancellationException ex) {
-                            if (ex.getCause() instanceof RecognitionException) {
-                                // retry with hybrid parser
-                                tokenStream.reset();
-                                parser = GoParserFactory.DEFAULT.getParser(tokenStream, ParserConfiguration.HYBRID);
-                                sourceFileContext = parser.sourceFile();
-                            } else {
-                                throw ex;
-                            }
-                        }
-                    } catch (ParseCancellationException ex) {
-                        if (ex.getCause() instanceof RecognitionException) {
-                            // retry with precise parser and default error handler
-                            tokenStream.reset();
-                            parser = GoParserFactory.DEFAULT.getParser(tokenStream, ParserConfiguration.PRECISE);
-                            parser.removeErrorListeners();
-                            parser.addErrorListener(syntaxErrorListener);
-                            sourceFileContext = parser.sourceFile();
-                        } else {
-                            throw ex;
+                    SourceFileContext sourceFileContext = null;
+                    if (lastSnapshot != null && lastResult != null && incrementalParseCount < MAX_INCREMENTAL_PARSES) {
+                        sourceFileContext = IncrementalSourceFileParser.tryParse(lastSnapshot, lastResult, snapshot, tokenStream);
+                    }
+
+                    if (sourceFileContext != null) {
+                        incrementalParseCount++;
+                    } else {
+                        incrementalParseCount = 0;
+                    }
+
+                    if (sourceFileContext == null && getInitialConfiguration() == ParserConfiguration.FASTEST) {
+                        sourceFileContext = ParallelSourceFileParser.tryParse(snapshot, tokenStream);
+                        if (sourceFileContext != null) {
+                            // the parallel parse uses the fastest configuration for every chunk
+                            initialConfiguration = ParserConfiguration.FASTEST;
+                            parsesSinceFastestAttempt = 0;
+                            PARSE_COUNTS.incrementAndGet(ParserConfiguration.FASTEST.ordinal());
                         }
                     }
 
+                    if (sourceFileContext == null) {
+                        sourceFileContext = parseSourceFile(tokenStream, syntaxErrorListener);
+                    }
+
                     FileObject fileObject = snapshot.getVersionedDocument().getFileObject();
-                    Token[] groupTokens = tokenStream.getTokens().toArray(new Token[0]);
+                    GoParserWarmup.recordFile(fileObject);
+                    // the parse tree already references these tokens, so the stream's list is kept instead of a copy
+                    List<? extends Token> groupTokens = Collections.unmodifiableList(tokenStream.getTokens());
                     lastSnapshot = snapshot;
                     lastResult = new CompiledFileModel(sourceFileContext, syntaxErrorListener.getSyntaxErrors(), fileObject, groupTokens);
                     lastException = null;
@@ -141,4 +173,91 @@ public class CompiledModelParser {
         }
     }
 
+    /**
+     * Parses the complete source file, falling back to the more precise parser configurations when a syntax error is
+     * encountered. The parse starts with the configuration which produced the previous result for this document, and
+     * the fastest configuration is attempted again after {@link #FASTEST_RETRY_INTERVAL} parses.
+     */
+    private SourceFileContext parseSourceFile(@NonNull CommonTokenStream tokenStream, @NonNull SyntaxErrorListener syntaxErrorListener) {
+        ParserConfiguration configuration = getInitialConfiguration();
+        if (configuration == ParserConfiguration.FASTEST) {
+            parsesSinceFastestAttempt = 0;
+        } else {
+            parsesSinceFastestAttempt++;
+            SKIPPED_FASTEST_COUNT.incrementAndGet();
+        }
+
+        GoParser parser = null;
+        try {
+            while (true) {
+                tokenStream.reset();
+                GoParserFactory.DEFAULT.releaseParser(parser);
+                parser = GoParserFactory.DEFAULT.getParser(tokenStream, configuration);
+                if (configuration == ParserConfiguration.PRECISE) {
+                    // precise parser uses the default error handler and reports the syntax errors
+                    parser.removeErrorListeners();
+                    parser.addErrorListener(syntaxErrorListener);
+                }
+
+                try {
+                    SourceFileContext sourceFileContext = parser.sourceFile();
+                    PARSE_COUNTS.incrementAndGet(configuration.ordinal());
+                    if (configuration == ParserConfiguration.PRECISE && syntaxErrorListener.getSyntaxErrors().isEmpty()) {
+                        // the file is valid, but required full context prediction
+                        initialConfiguration = ParserConfiguration.HYBRID;
+                    } else {
+                        initialConfiguration = configuration;
+                    }
+
+                    return sourceFileContext;
+                } catch (ParseCancellationException ex) {
+                    if (configuration == ParserConfiguration.PRECISE || !(ex.getCause() instanceof RecognitionException)) {
+                        throw ex;
+                    }
+
+                    FALLBACK_COUNTS.incrementAndGet(configuration.ordinal());
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.log(Level.FINE, "Parsing with configuration {0} failed, falling back to a more precise configuration.", configuration);
+                    }
+
+                    configuration = configuration == ParserConfiguration.FASTEST ? ParserConfiguration.HYBRID : ParserConfiguration.PRECISE;
+                }
+            }
+        } finally {
+            GoParserFactory.DEFAULT.releaseParser(parser);
+        }
+    }
+
+    @NonNull
+    private ParserConfiguration getInitialConfiguration() {
+        if (initialConfiguration != ParserConfiguration.FASTEST && parsesSinceFastestAttempt >= FASTEST_RETRY_INTERVAL) {
+            return ParserConfiguration.FASTEST;
+        }
+
+        return initialConfiguration;
+    }
+
+    /**
+     * Gets the number of full parses, for all documents, which produced their result with {@code configuration}.
+     */
+    public static long getParseCount(@NonNull ParserConfiguration configuration) {
+        return PARSE_COUNTS.get(configuration.ordinal());
+    }
+
+    /**
+     * Gets the number of times, for all documents, a full parse with {@code configuration} failed and was retried with
+     * a more precise configuration.
+     */
+    public static long getFallbackCount(@NonNull ParserConfiguration configuration) {
+        return FALLBACK_COUNTS.get(configuration.ordinal());
+    }
+
+    /**
+     * Gets the number of full parses, for all documents, which did not attempt the {@link ParserConfiguration#FASTEST}
+     * configuration because it failed for the previous version of the document.
+     */
+    public static long getSkippedFastestCount() {
+        return SKIPPED_FASTEST_COUNT.get();
+    }
+
 }
@@ -15,9 +15,11 @@ import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import org.antlr.netbeans.editor.completion.Anchor;
+import org.antlr.netbeans.editor.completion.AnchorList;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
 import org.antlr.netbeans.editor.text.SnapshotPosition;
 import org.antlr.netbeans.parsing.spi.BaseParserData;
+import org.antlr.netbeans.parsing.spi.CancellationToken;
 import org.antlr.netbeans.parsing.spi.ParseContext;
 import org.antlr.netbeans.parsing.spi.ParserData;
 import org.antlr.netbeans.parsing.spi.ParserDataDefinition;
@@ -74,28 +76,28 @@ public final class CurrentMemberContextParserTask implements ParserTask {
                 TopLevelDeclContext context = null;
 
                 if (anchors != null) {
-                    Anchor enclosing = null;
-
                     /*
                     * parse the current rule
                     */
-                    for (Anchor anchor : anchors) {
-                        if (anchor.getSpan().getStartPosition(snapshot).getOffset() <= caretOffset && anchor.getSpan().getEndPosition(snapshot).getOffset() > caretOffset) {
-                            enclosing = anchor;
-                        } else if (anchor.getSpan().getStartPosition(snapshot).getOffset() > caretOffset) {
-                            break;
-                        }
+                    AnchorList anchorList = AnchorList.forSnapshot(anchors, snapshot);
+                    int enclosingIndex = anchorList.getPreviousIndex(caretOffset);
+                    while (enclosingIndex >= 0 && anchorList.getEnd(enclosingIndex) <= caretOffset) {
+                        enclosingIndex--;
                     }
 
-                    if (enclosing != null) {
+                    if (enclosingIndex >= 0) {
                         CharStream input = new DocumentSnapshotCharStream(snapshot);
-                        input.seek(enclosing.getSpan().getStartPosition(snapshot).getOffset());
+                        input.seek(anchorList.getStart(enclosingIndex));
                         GoLexer lexer = new GoLexer(input);
                         CommonTokenStream tokens = new TaskTokenStream(lexer);
                         final GoParser parser = GoParserFactory.DEFAULT.getParser(tokens, ParserConfiguration.PRECISE);
-                        parser.removeErrorListeners();
-                        parser.setBuildParseTree(true);
-                        context = parser.topLevelDecl();
+                        try {
+                            parser.removeErrorListeners();
+                            parser.setBuildParseTree(true);
+                            context = parser.topLevelDecl();
+                        } finally {
+                            GoParserFactory.DEFAULT.releaseParser(parser);
+                        }
                     }
                 }
 
@@ -107,6 +109,7 @@ public final class CurrentMemberContextParserTask implements ParserTask {
     }
 
     private class TaskTokenStream extends CommonTokenStream {
+        private final CancellationToken cancellationToken = CancellationToken.getCurrent();
 
         public TaskTokenStream(TokenSource tokenSource) {
             super(tokenSource);
@@ -114,10 +117,7 @@ public final class CurrentMemberContextParserTask implements ParserTask {
 
         @Override
         public int LA(int i) {
-//            if (cancelled) {
-//                throw new CancellationException();
-//            }
-
+            cancellationToken.throwIfCancellationRequested();
             return super.LA(i);
         }
 
@@ -17,8 +17,10 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.antlr.netbeans.editor.completion.AbstractAnchor;
 import org.antlr.netbeans.editor.completion.Anchor;
+import org.antlr.netbeans.editor.completion.AnchorList;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
 import org.antlr.netbeans.editor.text.TrackingPositionRegion;
+import org.antlr.netbeans.parsing.spi.CancellationToken;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RuleDependency;
 import org.antlr.v4.runtime.Token;
@@ -36,6 +38,7 @@ public class GoParserAnchorListener extends GoParserBaseListener {
     private final List<Anchor> anchors = new ArrayList<>();
     private final DocumentSnapshot snapshot;
     private final AtomicBoolean cancel;
+    private final CancellationToken cancellationToken = CancellationToken.getCurrent();
 
     public GoParserAnchorListener(DocumentSnapshot snapshot) {
         Parameters.notNull("snapshot", snapshot);
@@ -49,8 +52,8 @@ public class GoParserAnchorListener extends GoParserBaseListener {
         this.cancel = cancel;
     }
 
-    public List<Anchor> getAnchors() {
-        return anchors;
+    public AnchorList getAnchors() {
+        return new AnchorList(snapshot, anchors);
     }
 
     private void checkCancellation() {
@@ -58,7 +61,7 @@ public class GoParserAnchorListener extends GoParserBaseListener {
         if (cancel != null) {
             cancelled = cancel.get();
         } else {
-            cancelled = Thread.interrupted();
+            cancelled = Thread.interrupted() || cancellationToken.isCancellationRequested();
         }
 
         if (cancelled) {
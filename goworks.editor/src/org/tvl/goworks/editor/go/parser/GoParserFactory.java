@@ -8,6 +8,10 @@
  */
 package org.tvl.goworks.editor.go.parser;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.DefaultErrorStrategy;
 import org.antlr.v4.runtime.Parser;
@@ -25,14 +29,24 @@ import org.antlr.v4.runtime.atn.Transition;
 import org.antlr.works.editor.antlr4.completion.CaretToken;
 import org.antlr.works.editor.antlr4.parsing.DescriptiveErrorListener;
 import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
 
 /**
+ * Creates and configures {@link GoParser} instances. Parsers are taken from a pool when one is available, so a parser
+ * which is no longer needed should be returned with {@link #releaseParser}.
  *
  * @author Sam Harwell
  */
 public class GoParserFactory {
     public static final GoParserFactory DEFAULT = new GoParserFactory();
 
+    private static final int MAX_POOLED_PARSERS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static final ConcurrentMap<ATN, Integer> QID_DECISIONS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<ATN, SemanticContext.Predicate> QID_PREDICATES = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<GoParser> parserPool = new ArrayBlockingQueue<>(MAX_POOLED_PARSERS);
+
     @NonNull
     protected GoParser createParser(@NonNull TokenStream input) {
         GoParser parser = new GoParserWrapper(input);
@@ -46,11 +60,32 @@ public class GoParserFactory {
 
     @NonNull
     public GoParser getParser(@NonNull TokenStream input, @NonNull ParserConfiguration configuration) {
-        GoParser result = createParser(input);
+        GoParser result = parserPool.poll();
+        if (result != null) {
+            // setting the input stream resets the parser, including the package names
+            result.setInputStream(input);
+        } else {
+            result = createParser(input);
+        }
+
         configureParser(result, configuration);
         return result;
     }
 
+    /**
+     * Returns a parser created by {@link #getParser} to the pool. The caller must not use the parser after it is
+     * released, but the parse trees it created remain valid.
+     */
+    public void releaseParser(@NullAllowed GoParser parser) {
+        if (parser == null || parserPool.contains(parser)) {
+            return;
+        }
+
+        parser.removeErrorListeners();
+        parser.setInputStream(null);
+        parserPool.offer(parser);
+    }
+
     protected void configureParser(@NonNull Parser parser, @NonNull ParserConfiguration configuration) {
         ParserATNSimulator interpreter = parser.getInterpreter();
 
@@ -105,7 +140,35 @@ public class GoParserFactory {
         }
     }
 
+    /**
+     * Gets the decision which selects the qualified identifier alternative. The result is computed once for each
+     * {@link ATN}.
+     */
     public static int getQidDecision(@NonNull ATN atn) {
+        Integer decision = QID_DECISIONS.get(atn);
+        if (decision == null) {
+            decision = findQidDecision(atn);
+            QID_DECISIONS.putIfAbsent(atn, decision);
+        }
+
+        return decision;
+    }
+
+    /**
+     * Gets the predicate which determines whether an identifier is a package name in a qualified identifier. The
+     * predicate is located by scanning the states of {@code atn}, which is only done once for each {@link ATN}.
+     */
+    public static SemanticContext.Predicate getQidPredicate(@NonNull ATN atn) {
+        SemanticContext.Predicate predicate = QID_PREDICATES.get(atn);
+        if (predicate == null) {
+            predicate = findQidPredicate(atn);
+            QID_PREDICATES.putIfAbsent(atn, predicate);
+        }
+
+        return predicate;
+    }
+
+    private static int findQidDecision(@NonNull ATN atn) {
         ATNState decisionState = atn.ruleToStartState[GoParser.RULE_qualifiedIdentifier].transition(0).target;
         if (decisionState instanceof DecisionState) {
             return ((DecisionState)decisionState).decision;
@@ -114,7 +177,7 @@ public class GoParserFactory {
         }
     }
 
-    public static SemanticContext.Predicate getQidPredicate(@NonNull ATN atn) {
+    private static SemanticContext.Predicate findQidPredicate(@NonNull ATN atn) {
         int predicateIndex = -1;
         for (ATNState state : atn.states) {
             if (state.ruleIndex != GoParser.RULE_qualifiedIdentifier) {
@@ -0,0 +1,235 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.tvl.goworks.editor.go.parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.modules.Places;
+
+/**
+ * Fills the DFA caches of the shared Go lexer and parser {@code ATN} instances before the first file is opened or
+ * indexed. The files most recently parsed for a compiled model are saved to the user cache directory when the IDE
+ * exits, and at startup those files are lexed and parsed in the background along with a corpus bundled with the
+ * module.
+ *
+ * @author Sam Harwell
+ */
+public final class GoParserWarmup {
+    // -J-Dorg.tvl.goworks.editor.go.parser.GoParserWarmup.level=FINE
+    private static final Logger LOGGER = Logger.getLogger(GoParserWarmup.class.getName());
+
+    private static final String CACHE_FILE = "goworks/go-parser-warmup.txt";
+    private static final String BUNDLED_CORPUS = "/org/tvl/goworks/editor/go/resources/parser-warmup.go";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAX_RECORDED_FILES = 32;
+    /** Files larger than this are not used for warm-up, since a few large files would dominate the startup time. */
+    private static final long MAX_FILE_LENGTH = 256 * 1024;
+
+    /** The absolute paths of recently parsed files, in order of their last parse. Guarded by {@code RECENT_FILES}. */
+    private static final LinkedHashSet<String> RECENT_FILES = new LinkedHashSet<>();
+
+    private GoParserWarmup() {
+    }
+
+    /**
+     * Records a file which was parsed for a compiled model, so it is used to warm up the parser in the next session.
+     */
+    public static void recordFile(@NullAllowed FileObject fileObject) {
+        File file = fileObject != null ? FileUtil.toFile(fileObject) : null;
+        if (file == null) {
+            return;
+        }
+
+        String path = file.getAbsolutePath();
+        synchronized (RECENT_FILES) {
+            RECENT_FILES.remove(path);
+            RECENT_FILES.add(path);
+            if (RECENT_FILES.size() > MAX_RECORDED_FILES) {
+                Iterator<String> iterator = RECENT_FILES.iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Saves the recently parsed files to the user cache directory. This method is called when the IDE exits.
+     */
+    public static void save() {
+        List<String> paths;
+        synchronized (RECENT_FILES) {
+            paths = new ArrayList<>(RECENT_FILES);
+        }
+
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        File cacheFile = Places.getCacheSubfile(CACHE_FILE);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(cacheFile), UTF_8)) {
+            for (String path : paths) {
+                writer.write(path);
+                writer.write('\n');
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to save the parser warm-up files.", ex);
+        }
+    }
+
+    /**
+     * Lexes and parses the bundled corpus and the files saved by {@link #save} in the previous session. This method
+     * should be called on a low priority background thread.
+     */
+    public static void run() {
+        long startTime = System.nanoTime();
+        int count = 0;
+
+        String corpus = readBundledCorpus();
+        if (corpus != null && parse(corpus)) {
+            count++;
+        }
+
+        for (String path : readCacheFile()) {
+            File file = new File(path);
+            if (!file.isFile() || file.length() > MAX_FILE_LENGTH) {
+                continue;
+            }
+
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+                if (parse(readFully(reader))) {
+                    recordFile(FileUtil.toFileObject(FileUtil.normalizeFile(file)));
+                    count++;
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Unable to read a parser warm-up file.", ex);
+            }
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Warmed up the Go parser with {0} files in {1}ms.", new Object[] { count, (System.nanoTime() - startTime) / 1000000 });
+        }
+    }
+
+    /**
+     * Parses {@code text} with the same sequence of configurations used by {@link CompiledModelParser}, so the DFA
+     * states for each prediction mode are created.
+     */
+    private static boolean parse(@NonNull String text) {
+        try {
+            GoLexer lexer = new GoLexer(new ANTLRInputStream(text));
+            CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+            GoParser parser = GoParserFactory.DEFAULT.getParser(tokenStream, ParserConfiguration.FASTEST);
+            try {
+                try {
+                    try {
+                        parser.sourceFile();
+                    } catch (ParseCancellationException ex) {
+                        if (!(ex.getCause() instanceof RecognitionException)) {
+                            throw ex;
+                        }
+
+                        tokenStream.reset();
+                        GoParserFactory.DEFAULT.releaseParser(parser);
+                        parser = GoParserFactory.DEFAULT.getParser(tokenStream, ParserConfiguration.HYBRID);
+                        parser.sourceFile();
+                    }
+                } catch (ParseCancellationException ex) {
+                    if (!(ex.getCause() instanceof RecognitionException)) {
+                        throw ex;
+                    }
+
+                    tokenStream.reset();
+                    GoParserFactory.DEFAULT.releaseParser(parser);
+                    parser = GoParserFactory.DEFAULT.getParser(tokenStream, ParserConfiguration.PRECISE);
+                    parser.removeErrorListeners();
+                    parser.sourceFile();
+                }
+            } finally {
+                GoParserFactory.DEFAULT.releaseParser(parser);
+            }
+
+            return true;
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.FINE, "An exception occurred while warming up the parser.", ex);
+            return false;
+        }
+    }
+
+    @CheckForNull
+    private static String readBundledCorpus() {
+        InputStream stream = GoParserWarmup.class.getResourceAsStream(BUNDLED_CORPUS);
+        if (stream == null) {
+            return null;
+        }
+
+        try (Reader reader = new InputStreamReader(stream, UTF_8)) {
+            return readFully(reader);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to read the bundled parser warm-up corpus.", ex);
+            return null;
+        }
+    }
+
+    @NonNull
+    private static List<String> readCacheFile() {
+        List<String> paths = new ArrayList<>();
+        File cacheFile = Places.getCacheSubfile(CACHE_FILE);
+        if (!cacheFile.isFile()) {
+            return paths;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.isEmpty() && paths.size() < MAX_RECORDED_FILES) {
+                    paths.add(line);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to read the parser warm-up files.", ex);
+        }
+
+        return paths;
+    }
+
+    @NonNull
+    private static String readFully(@NonNull Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8192];
+        for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+            builder.append(buffer, 0, read);
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.tvl.goworks.editor.go.parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.antlr.netbeans.editor.text.DocumentChange;
+import org.antlr.netbeans.editor.text.DocumentSnapshot;
+import org.antlr.netbeans.editor.text.NormalizedDocumentChangeCollection;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.RuleDependencies;
+import org.antlr.v4.runtime.RuleDependency;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.ImportDeclContext;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.ImportSpecContext;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.PackageClauseContext;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.SourceFileBodyContext;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.SourceFileContext;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.TopLevelDeclContext;
+
+/**
+ * Reparses only the top level declarations of a source file which intersect the changes made since a previous parse.
+ * The package clause, the imports, and the declarations before the changed region are shared with the previous parse
+ * tree, and the tokens of the new snapshot before the changed region are replaced with the previous tokens they
+ * reference. The reparse stops at the first declaration after the changed region which starts at the corresponding new
+ * token, and the declarations from there to the end of the file are copied with each token replaced by the
+ * corresponding token of the new snapshot. When the changes do not move any token, these declarations are shared with
+ * the previous tree as well.
+ *
+ * <p>An incremental parse is only attempted when the previous tree has no syntax errors and the changes do not touch
+ * the package clause or imports. If a token outside the changed region does not match the new tokens, or no
+ * declaration after the changed region starts at the corresponding new token, {@link #tryParse} returns {@code null}
+ * and the caller performs a full parse.</p>
+ *
+ * <p>The previous tree is never modified. The shared contexts are children of the new tree, but their parent remains
+ * the context of the tree they were first parsed in.</p>
+ *
+ * @author Sam Harwell
+ */
+final class IncrementalSourceFileParser {
+    // -J-Dorg.tvl.goworks.editor.go.parser.IncrementalSourceFileParser.level=FINE
+    private static final Logger LOGGER = Logger.getLogger(IncrementalSourceFileParser.class.getName());
+
+    private IncrementalSourceFileParser() {
+    }
+
+    /**
+     * Attempts to parse {@code snapshot} by reusing the declarations of {@code previousModel} which precede or follow
+     * the changes, where {@code previousModel} was parsed from {@code previousSnapshot}.
+     *
+     * @return The parse tree for {@code snapshot}, or {@code null} if a full parse is required.
+     */
+    @CheckForNull
+    @RuleDependencies({
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_sourceFile, version=1),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_sourceFileBody, version=1),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_topLevelDecl, version=0),
+    })
+    public static SourceFileContext tryParse(@NonNull DocumentSnapshot previousSnapshot, @NonNull CompiledFileModel previousModel, @NonNull DocumentSnapshot snapshot, @NonNull CommonTokenStream tokenStream) {
+        SourceFileContext previousTree = previousModel.getResult();
+        List<? extends Token> previousTokens = previousModel.getTokens();
+        if (previousTree == null || previousTokens == null || previousModel.getSyntaxErrors() == null || !previousModel.getSyntaxErrors().isEmpty()) {
+            return null;
+        }
+
+        if (!previousSnapshot.getVersionedDocument().equals(snapshot.getVersionedDocument())
+            || previousSnapshot.getVersion().getVersionNumber() >= snapshot.getVersion().getVersionNumber()) {
+            return null;
+        }
+
+        SourceFileBodyContext previousBody = previousTree.sourceFileBody();
+        if (previousBody == null || previousBody.children == null || previousBody.children.isEmpty()
+            || previousTree.children == null || previousTree.children.size() != 2
+            || !(previousTree.getChild(1) instanceof TerminalNode)) {
+            return null;
+        }
+
+        NormalizedDocumentChangeCollection changes = previousSnapshot.getVersion().getChangesTo(snapshot.getVersion());
+        if (changes.isEmpty()) {
+            return null;
+        }
+
+        int changeStart = changes.get(0).getOldOffset();
+        int changeEnd = changes.get(changes.size() - 1).getOldEnd();
+        int charDelta = 0;
+        for (DocumentChange change : changes) {
+            charDelta += change.getDelta();
+        }
+
+        /* The children of the body are the package clause and imports (each followed by a ';'), then each top level
+         * declaration followed by a ';'.
+         */
+        List<ParseTree> children = previousBody.children;
+        int firstDecl = 0;
+        while (firstDecl < children.size() && !(children.get(firstDecl) instanceof TopLevelDeclContext)) {
+            firstDecl++;
+        }
+
+        if (firstDecl == 0 || (children.size() - firstDecl) % 2 != 0) {
+            return null;
+        }
+
+        for (int i = firstDecl; i < children.size(); i += 2) {
+            if (!(children.get(i) instanceof TopLevelDeclContext) || !isSemicolon(children.get(i + 1))) {
+                return null;
+            }
+        }
+
+        if (!endsBefore(children.get(firstDecl - 1), changeStart)) {
+            // the package clause or imports changed
+            return null;
+        }
+
+        int prefixEnd = firstDecl;
+        while (prefixEnd < children.size() && endsBefore(children.get(prefixEnd + 1), changeStart)) {
+            prefixEnd += 2;
+        }
+
+        tokenStream.fill();
+        List<Token> tokens = tokenStream.getTokens();
+        Token eof = tokens.get(tokens.size() - 1);
+        if (eof.getType() != Token.EOF) {
+            return null;
+        }
+
+        int tokenDelta = tokens.size() - previousTokens.size();
+        int reparseStart = getStopToken(children.get(prefixEnd - 1)).getTokenIndex() + 1;
+        if (reparseStart > tokens.size() - 1 || reparseStart > previousTokens.size()) {
+            return null;
+        }
+
+        for (int i = 0; i < reparseStart; i++) {
+            if (!isSameToken(previousTokens.get(i), tokens.get(i))) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Falling back to a full parse: token {0} does not match the previous tokens.", i);
+                }
+
+                return null;
+            }
+        }
+
+        int suffixStart = prefixEnd;
+        while (suffixStart < children.size() && !startsAfter(children.get(suffixStart), changeEnd)) {
+            suffixStart += 2;
+        }
+
+        int reparseEnd = eof.getTokenIndex();
+        if (suffixStart < children.size()) {
+            while (suffixStart < children.size() && !isMovedToken(previousTokens, tokens, getStartToken(children.get(suffixStart)), tokenDelta, charDelta)) {
+                suffixStart += 2;
+            }
+
+            if (suffixStart == children.size()) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Falling back to a full parse: no declaration after the changes matches the new tokens.");
+                }
+
+                return null;
+            }
+
+            reparseEnd = getStartToken(children.get(suffixStart)).getTokenIndex() + tokenDelta;
+            if (reparseEnd < reparseStart) {
+                return null;
+            }
+        }
+
+        List<Object> reparsed = parseDeclarations(tokenStream, getPackageNames(previousBody), reparseStart, reparseEnd);
+        if (reparsed == null) {
+            return null;
+        }
+
+        SourceFileContext result = new SourceFileContext(null, previousTree.invokingState);
+        SourceFileBodyContext body = new SourceFileBodyContext(result, previousBody.invokingState);
+
+        List<Object> suffix = new ArrayList<>();
+        if (tokenDelta == 0 && charDelta == 0) {
+            // no token moved, so the following declarations are shared like the declarations before the changes
+            for (int i = reparseEnd; i < eof.getTokenIndex(); i++) {
+                if (!isSameToken(previousTokens.get(i), tokens.get(i))) {
+                    return null;
+                }
+            }
+
+            for (int i = suffixStart; i < children.size(); i++) {
+                ParseTree child = children.get(i);
+                suffix.add(child instanceof TerminalNode ? ((TerminalNode)child).getSymbol() : child);
+            }
+        } else {
+            // the tokens of the previous tree are at their old offsets, so the declarations are copied
+            ParseTreeCopier copier = new ParseTreeCopier(previousTokens, tokens, tokenDelta, charDelta);
+            try {
+                for (int i = suffixStart; i < children.size(); i++) {
+                    ParseTree child = children.get(i);
+                    if (child instanceof TerminalNode) {
+                        suffix.add(copier.translate(((TerminalNode)child).getSymbol()));
+                    } else {
+                        suffix.add(copier.copy((ParserRuleContext)child, body));
+                    }
+                }
+            } catch (ParseTreeCopier.MismatchException ex) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Falling back to a full parse: {0}", ex.getMessage());
+                }
+
+                return null;
+            }
+        }
+
+        // the shared declarations reference the previous tokens, which now take the place of the identical new tokens
+        for (int i = 0; i < reparseStart; i++) {
+            tokens.set(i, previousTokens.get(i));
+        }
+
+        if (tokenDelta == 0 && charDelta == 0) {
+            for (int i = reparseEnd; i < eof.getTokenIndex(); i++) {
+                tokens.set(i, previousTokens.get(i));
+            }
+        }
+
+        for (int i = 0; i < prefixEnd; i++) {
+            ParseTree child = children.get(i);
+            addChild(body, child instanceof TerminalNode ? ((TerminalNode)child).getSymbol() : child);
+        }
+
+        for (Object element : reparsed) {
+            if (element instanceof TopLevelDeclContext) {
+                TopLevelDeclContext decl = (TopLevelDeclContext)element;
+                decl.parent = body;
+                decl.invokingState = InvokingStates.TOP_LEVEL_DECL;
+            }
+
+            addChild(body, element);
+        }
+
+        for (Object element : suffix) {
+            addChild(body, element);
+        }
+
+        body.start = getStartToken(body.getChild(0));
+        body.stop = getStopToken(body.getChild(body.getChildCount() - 1));
+        result.addChild(body);
+        result.addChild(eof);
+        result.start = body.start;
+        result.stop = previousTree.stop != null && previousTree.stop.getType() == Token.EOF ? eof : body.stop;
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Reparsed {0} of {1} declarations incrementally.", new Object[] { reparsed.size() / 2, (body.getChildCount() - firstDecl) / 2 });
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds a token or context to the children of {@code body}. A context is added without changing its parent, so a
+     * context shared with the previous tree is not removed from it.
+     */
+    private static void addChild(@NonNull SourceFileBodyContext body, @NonNull Object element) {
+        if (element instanceof Token) {
+            body.addChild((Token)element);
+        } else {
+            body.addChild((ParserRuleContext)element);
+        }
+    }
+
+    /**
+     * Parses the top level declarations (each followed by a ';') from token index {@code start} up to token index
+     * {@code end}.
+     *
+     * @return The declarations and semicolon tokens in order, or {@code null} if the tokens could not be parsed or the
+     * last declaration did not end immediately before {@code end}.
+     */
+    @CheckForNull
+    @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_topLevelDecl, version=0)
+    static List<Object> parseDeclarations(@NonNull CommonTokenStream tokenStream, @NonNull Collection<String> packageNames, int start, int end) {
+        GoParser parser = GoParserFactory.DEFAULT.getParser(tokenStream, ParserConfiguration.FASTEST);
+        parser.setPackageNames(packageNames);
+        tokenStream.seek(start);
+
+        List<Object> result = new ArrayList<>();
+        try {
+            while (tokenStream.index() < end && tokenStream.LA(1) != Token.EOF) {
+                TopLevelDeclContext decl = parser.topLevelDecl();
+                Token semicolon = tokenStream.LT(1);
+                if (semicolon.getType() != GoParser.Semi) {
+                    return null;
+                }
+
+                tokenStream.consume();
+                result.add(decl);
+                result.add(semicolon);
+            }
+        } catch (ParseCancellationException | RecognitionException ex) {
+            return null;
+        } finally {
+            GoParserFactory.DEFAULT.releaseParser(parser);
+        }
+
+        if (tokenStream.index() != end) {
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the package names which the parser collects from the package clause and imports.
+     */
+    @NonNull
+    @RuleDependencies({
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_packageClause, version=0),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_importDecl, version=0),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_importSpec, version=0),
+    })
+    private static Set<String> getPackageNames(@NonNull SourceFileBodyContext body) {
+        Set<String> packageNames = new HashSet<>();
+        PackageClauseContext packageClause = body.packageClause();
+        if (packageClause != null && packageClause.packageName() != null) {
+            addPackageName(packageNames, packageClause.packageName().start);
+        }
+
+        for (ImportDeclContext importDecl : body.importDecl()) {
+            for (ImportSpecContext importSpec : importDecl.importSpec()) {
+                if (importSpec.dot != null) {
+                    continue;
+                }
+
+                if (importSpec.packageName() != null) {
+                    addPackageName(packageNames, importSpec.packageName().start);
+                } else if (importSpec.importPath() != null) {
+                    addPackageName(packageNames, importSpec.importPath().start);
+                }
+            }
+        }
+
+        return packageNames;
+    }
+
+    private static void addPackageName(@NonNull Set<String> packageNames, Token token) {
+        String name = GoParser.getPackageName(token);
+        if (name != null && !name.isEmpty()) {
+            packageNames.add(name);
+        }
+    }
+
+    private static boolean isSameToken(@NonNull Token previous, @NonNull Token current) {
+        return previous.getType() == current.getType()
+            && previous.getChannel() == current.getChannel()
+            && previous.getStartIndex() == current.getStartIndex()
+            && previous.getStopIndex() == current.getStopIndex()
+            && previous.getTokenIndex() == current.getTokenIndex();
+    }
+
+    /**
+     * Determines whether {@code previous}, a token of the previous snapshot, appears in {@code tokens} at the position
+     * it was moved to by the changes.
+     */
+    private static boolean isMovedToken(@NonNull List<? extends Token> previousTokens, @NonNull List<? extends Token> tokens, Token previous, int tokenDelta, int charDelta) {
+        if (previous == null || previous.getTokenIndex() < 0 || previous.getTokenIndex() >= previousTokens.size() || previousTokens.get(previous.getTokenIndex()) != previous) {
+            return false;
+        }
+
+        int index = previous.getTokenIndex() + tokenDelta;
+        if (index < 0 || index >= tokens.size()) {
+            return false;
+        }
+
+        Token current = tokens.get(index);
+        return previous.getType() == current.getType()
+            && previous.getChannel() == current.getChannel()
+            && previous.getStartIndex() + charDelta == current.getStartIndex()
+            && previous.getStopIndex() + charDelta == current.getStopIndex();
+    }
+
+    private static boolean isSemicolon(@NonNull ParseTree tree) {
+        return tree instanceof TerminalNode
+            && !(tree instanceof ErrorNode)
+            && ((TerminalNode)tree).getSymbol().getType() == GoParser.Semi;
+    }
+
+    private static boolean endsBefore(@NonNull ParseTree tree, int offset) {
+        Token stop = getStopToken(tree);
+        return stop != null && stop.getStopIndex() + 1 < offset;
+    }
+
+    private static boolean startsAfter(@NonNull ParseTree tree, int offset) {
+        Token start = getStartToken(tree);
+        return start != null && start.getStartIndex() > offset;
+    }
+
+    static Token getStartToken(@NonNull ParseTree tree) {
+        if (tree instanceof TerminalNode) {
+            return ((TerminalNode)tree).getSymbol();
+        }
+
+        return ((ParserRuleContext)tree).start;
+    }
+
+    static Token getStopToken(@NonNull ParseTree tree) {
+        if (tree instanceof TerminalNode) {
+            return ((TerminalNode)tree).getSymbol();
+        }
+
+        return ((ParserRuleContext)tree).stop;
+    }
+
+    /**
+     * Holds the invoking states of the rules which are reparsed outside of their parent rule, which are computed when
+     * they are first used.
+     */
+    @RuleDependencies({
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_sourceFileBody, version=1),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_topLevelDecl, version=0),
+    })
+    private static final class InvokingStates {
+        public static final int TOP_LEVEL_DECL = ParallelSourceFileParser.getInvokingState(GoParser._ATN, GoParser.RULE_sourceFileBody, GoParser.RULE_topLevelDecl);
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.tvl.goworks.editor.go.parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.antlr.netbeans.editor.text.DocumentSnapshot;
+import org.antlr.netbeans.parsing.spi.CancellationToken;
+import org.antlr.netbeans.parsing.spi.ParallelParserPool;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.RuleDependencies;
+import org.antlr.v4.runtime.RuleDependency;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.RuleTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.works.editor.antlr4.classification.TokenBuffer;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.ImportDeclContext;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.PackageClauseContext;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.SourceFileBodyContext;
+import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.SourceFileContext;
+
+/**
+ * Parses the top level declarations of a large source file concurrently. The boundaries between declarations are
+ * located by scanning the tokens for a {@code func}, {@code var}, {@code const}, or {@code type} keyword following a
+ * {@code ';'} outside of any brackets. The package clause and imports are parsed first, and then groups of
+ * declarations are parsed on a fork-join pool, each by its own {@link GoParser} reading the shared token list through
+ * its own stream. The tokens keep their original indexes, so the resulting subtrees are attached directly to a
+ * {@link SourceFileContext} equivalent to the one produced by {@link GoParser#sourceFile}.
+ *
+ * <p>Only the {@link ParserConfiguration#FASTEST} configuration is used. If any group fails to parse,
+ * {@link #tryParse} returns {@code null} and the caller performs a sequential parse, which also reports the syntax
+ * errors.</p>
+ *
+ * @author Sam Harwell
+ */
+final class ParallelSourceFileParser {
+    // -J-Dorg.tvl.goworks.editor.go.parser.ParallelSourceFileParser.level=FINE
+    private static final Logger LOGGER = Logger.getLogger(ParallelSourceFileParser.class.getName());
+
+    /** Files with fewer tokens than this are parsed sequentially. */
+    private static final int PARALLEL_PARSING_MINIMUM_TOKENS = 40000;
+    /** The minimum number of tokens parsed by each task. Declarations are not split across tasks. */
+    private static final int PARALLEL_PARSING_CHUNK_TOKENS = 8000;
+
+    private ParallelSourceFileParser() {
+    }
+
+    /**
+     * Attempts to parse the tokens of {@code tokenStream} in parallel.
+     *
+     * @return The parse tree for {@code snapshot}, or {@code null} if the file is too small to benefit from a
+     * parallel parse or it could not be parsed with the fastest parser configuration.
+     */
+    @CheckForNull
+    @RuleDependencies({
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_sourceFile, version=1),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_sourceFileBody, version=1),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_packageClause, version=0),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_importDecl, version=0),
+        @RuleDependency(recognizer=GoParser.class, rule=GoParser.RULE_topLevelDecl, version=0),
+    })
+    public static SourceFileContext tryParse(@NonNull DocumentSnapshot snapshot, @NonNull CommonTokenStream tokenStream) throws InterruptedException {
+        tokenStream.fill();
+        final List<Token> tokens = tokenStream.getTokens();
+        if (tokens.size() < PARALLEL_PARSING_MINIMUM_TOKENS) {
+            return null;
+        }
+
+        if (!(tokens.get(0) instanceof TokenBuffer.BufferedToken)) {
+            // other tokens read their text through a character stream which cannot be shared between threads
+            return null;
+        }
+
+        long startTime = System.nanoTime();
+
+        GoParser parser = GoParserFactory.DEFAULT.getParser(tokenStream, ParserConfiguration.FASTEST);
+        ATN atn = parser.getATN();
+        List<Object> header = new ArrayList<>();
+        final Collection<String> packageNames = new ArrayList<>();
+        try {
+            tokenStream.seek(0);
+            if (tokenStream.LA(1) == GoParser.Package) {
+                PackageClauseContext packageClause = parser.packageClause();
+                if (!consumeSemicolon(tokenStream, header, packageClause)) {
+                    return null;
+                }
+            }
+
+            while (tokenStream.LA(1) == GoParser.Import) {
+                ImportDeclContext importDecl = parser.importDecl();
+                if (!consumeSemicolon(tokenStream, header, importDecl)) {
+                    return null;
+                }
+            }
+
+            packageNames.addAll(parser.getPackageNames());
+        } catch (ParseCancellationException | RecognitionException ex) {
+            return null;
+        } finally {
+            GoParserFactory.DEFAULT.releaseParser(parser);
+        }
+
+        int headerEnd = tokenStream.index();
+        int eofIndex = tokens.size() - 1;
+        List<Integer> boundaries = findChunkBoundaries(tokens, headerEnd, eofIndex);
+        if (boundaries.size() < 3) {
+            // a single chunk gains nothing over a sequential parse
+            return null;
+        }
+
+        final TokenSource tokenSource = tokenStream.getTokenSource();
+        final CancellationToken cancellationToken = CancellationToken.getCurrent();
+        List<Callable<List<Object>>> tasks = new ArrayList<>(boundaries.size() - 1);
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            final int start = boundaries.get(i);
+            final int end = boundaries.get(i + 1);
+            tasks.add(new Callable<List<Object>>() {
+                @Override
+                public List<Object> call() {
+                    return parseChunk(tokenSource, tokens, start, end, packageNames, cancellationToken);
+                }
+            });
+        }
+
+        List<List<Object>> chunks = new ArrayList<>(tasks.size());
+        try {
+            List<Future<List<Object>>> futures = ParallelParserPool.getDefault().invokeAll(tasks);
+            for (Future<List<Object>> future : futures) {
+                List<Object> chunk = future.get();
+                if (chunk == null) {
+                    return null;
+                }
+
+                chunks.add(chunk);
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof CancellationException) {
+                throw (CancellationException)ex.getCause();
+            }
+
+            LOGGER.log(Level.FINE, "An exception occurred while parsing in parallel.", ex);
+            return null;
+        }
+
+        int[] invokingStates = new int[GoParser.ruleNames.length];
+        invokingStates[GoParser.RULE_packageClause] = getInvokingState(atn, GoParser.RULE_sourceFileBody, GoParser.RULE_packageClause);
+        invokingStates[GoParser.RULE_importDecl] = getInvokingState(atn, GoParser.RULE_sourceFileBody, GoParser.RULE_importDecl);
+        invokingStates[GoParser.RULE_topLevelDecl] = getInvokingState(atn, GoParser.RULE_sourceFileBody, GoParser.RULE_topLevelDecl);
+
+        SourceFileContext result = new SourceFileContext(null, -1);
+        SourceFileBodyContext body = new SourceFileBodyContext(result, getInvokingState(atn, GoParser.RULE_sourceFile, GoParser.RULE_sourceFileBody));
+        addChildren(body, header, invokingStates);
+        for (List<Object> chunk : chunks) {
+            addChildren(body, chunk, invokingStates);
+        }
+
+        Token eof = tokens.get(eofIndex);
+        body.start = IncrementalSourceFileParser.getStartToken(body.getChild(0));
+        body.stop = IncrementalSourceFileParser.getStopToken(body.getChild(body.getChildCount() - 1));
+        result.addChild(body);
+        result.addChild(eof);
+        result.start = body.start;
+        result.stop = eof;
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Parsed {0} tokens in {1} parallel tasks in {2}ms.", new Object[] { tokens.size(), chunks.size(), (System.nanoTime() - startTime) / 1000000 });
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the token indexes where each parallel task starts parsing, followed by {@code eofIndex}. A declaration
+     * starts at a declaration keyword on the default channel which follows a {@code ';'} (or starts the body) and is
+     * not nested in parentheses, brackets, or braces.
+     */
+    @NonNull
+    private static List<Integer> findChunkBoundaries(@NonNull List<? extends Token> tokens, int headerEnd, int eofIndex) {
+        List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(headerEnd);
+
+        int depth = 0;
+        int previousType = GoParser.Semi;
+        int chunkStart = headerEnd;
+        for (int i = headerEnd; i < eofIndex; i++) {
+            Token token = tokens.get(i);
+            if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+
+            int type = token.getType();
+            switch (type) {
+            case GoParser.LeftParen:
+            case GoParser.LeftBrack:
+            case GoParser.LeftBrace:
+                depth++;
+                break;
+
+            case GoParser.RightParen:
+            case GoParser.RightBrack:
+            case GoParser.RightBrace:
+                depth--;
+                break;
+
+            case GoParser.Func:
+            case GoParser.Var:
+            case GoParser.Const:
+            case GoParser.Type:
+                if (depth == 0 && previousType == GoParser.Semi && i - chunkStart >= PARALLEL_PARSING_CHUNK_TOKENS) {
+                    boundaries.add(i);
+                    chunkStart = i;
+                }
+
+                break;
+
+            default:
+                break;
+            }
+
+            previousType = type;
+        }
+
+        boundaries.add(eofIndex);
+        return boundaries;
+    }
+
+    /**
+     * Parses the declarations from token index {@code start} up to {@code end} of {@code tokens}.
+     *
+     * @return The declarations and semicolon tokens in order, or {@code null} if the tokens could not be parsed.
+     */
+    @CheckForNull
+    private static List<Object> parseChunk(@NonNull TokenSource tokenSource, @NonNull List<Token> tokens, int start, int end, @NonNull Collection<String> packageNames, @NonNull CancellationToken cancellationToken) {
+        SharedTokenStream chunkStream = new SharedTokenStream(tokenSource, tokens, cancellationToken);
+        return IncrementalSourceFileParser.parseDeclarations(chunkStream, packageNames, start, end);
+    }
+
+    private static boolean consumeSemicolon(@NonNull CommonTokenStream tokenStream, @NonNull List<Object> children, @NonNull ParserRuleContext context) {
+        Token semicolon = tokenStream.LT(1);
+        if (semicolon.getType() != GoParser.Semi) {
+            return false;
+        }
+
+        tokenStream.consume();
+        children.add(context);
+        children.add(semicolon);
+        return true;
+    }
+
+    /**
+     * Adds the contexts and tokens parsed outside of {@link GoParser#sourceFileBody} to {@code body}. The contexts were
+     * created by invoking their rules directly, so their invoking states are updated to the states of
+     * {@code sourceFileBody} which invoke them.
+     */
+    private static void addChildren(@NonNull SourceFileBodyContext body, @NonNull List<Object> children, @NonNull int[] invokingStates) {
+        for (Object child : children) {
+            if (child instanceof Token) {
+                body.addChild((Token)child);
+            } else {
+                ParserRuleContext context = (ParserRuleContext)child;
+                context.parent = body;
+                context.invokingState = invokingStates[context.getRuleIndex()];
+                body.addChild(context);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of the ATN state in rule {@code ruleIndex} which invokes rule {@code invokedRuleIndex}, or -1
+     * if no such state exists.
+     */
+    static int getInvokingState(@NonNull ATN atn, int ruleIndex, int invokedRuleIndex) {
+        for (ATNState state : atn.states) {
+            if (state == null || state.ruleIndex != ruleIndex) {
+                continue;
+            }
+
+            for (int i = 0; i < state.getNumberOfTransitions(); i++) {
+                Transition transition = state.transition(i);
+                if (transition instanceof RuleTransition && transition.target.ruleIndex == invokedRuleIndex) {
+                    return state.stateNumber;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * A stream over a token list which was already filled by another stream. The stream never reads from its token
+     * source, so the tokens keep their original indexes and the list can be shared by the streams of several tasks.
+     */
+    private static final class SharedTokenStream extends CommonTokenStream {
+        @NonNull
+        private final CancellationToken cancellationToken;
+
+        public SharedTokenStream(@NonNull TokenSource tokenSource, @NonNull List<Token> tokens, @NonNull CancellationToken cancellationToken) {
+            super(tokenSource);
+            this.tokens = tokens;
+            this.fetchedEOF = true;
+            this.cancellationToken = cancellationToken;
+        }
+
+        @Override
+        public int LA(int i) {
+            cancellationToken.throwIfCancellationRequested();
+            return super.LA(i);
+        }
+
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.tvl.goworks.editor.go.parser;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+
+/**
+ * Copies subtrees of a parse tree, replacing each token with the token at the same position in another token list
+ * after adjusting for the number of tokens and characters inserted before the subtree. The labels, locals, and return
+ * values of each context are copied as well, so the copy can be used in place of a tree produced by the parser for
+ * the target token list.
+ *
+ * @author Sam Harwell
+ */
+final class ParseTreeCopier {
+    @NonNull
+    private final List<? extends Token> sourceTokens;
+    @NonNull
+    private final List<? extends Token> targetTokens;
+    private final int tokenDelta;
+    private final int charDelta;
+
+    private final Map<ParseTree, ParseTree> copies = new IdentityHashMap<>();
+
+    public ParseTreeCopier(@NonNull List<? extends Token> sourceTokens, @NonNull List<? extends Token> targetTokens, int tokenDelta, int charDelta) {
+        this.sourceTokens = sourceTokens;
+        this.targetTokens = targetTokens;
+        this.tokenDelta = tokenDelta;
+        this.charDelta = charDelta;
+    }
+
+    /**
+     * Adds a copy of {@code child} to the children of {@code parent}.
+     *
+     * @throws MismatchException if the subtree contains an error, or one of its tokens does not match the target token
+     * list
+     */
+    public void copyChild(@NonNull ParseTree child, @NonNull ParserRuleContext parent) throws MismatchException {
+        if (child instanceof ErrorNode) {
+            throw new MismatchException("The tree contains an error node.");
+        } else if (child instanceof TerminalNode) {
+            parent.addChild(translate(((TerminalNode)child).getSymbol()));
+        } else if (child instanceof ParserRuleContext) {
+            parent.addChild(copy((ParserRuleContext)child, parent));
+        } else {
+            throw new MismatchException("Unexpected parse tree node: " + child.getClass().getName());
+        }
+    }
+
+    /**
+     * Copies the subtree rooted at {@code context}, setting the parent of the copy to {@code parent}. The copy is not
+     * added to the children of {@code parent}.
+     *
+     * @throws MismatchException if the subtree contains an error, or one of its tokens does not match the target token
+     * list
+     */
+    @NonNull
+    public ParserRuleContext copy(@NonNull ParserRuleContext context, @NullAllowed ParserRuleContext parent) throws MismatchException {
+        if (context.exception != null) {
+            throw new MismatchException("The tree contains a recognition exception.");
+        }
+
+        ContextType type = ContextType.forClass(context.getClass());
+        ParserRuleContext result = type.createInstance(context);
+        result.parent = parent;
+        result.invokingState = context.invokingState;
+        result.children = null;
+        result.start = translate(context.start);
+        result.stop = translate(context.stop);
+        copies.put(context, result);
+
+        if (context.children != null) {
+            for (ParseTree child : context.children) {
+                copyChild(child, result);
+            }
+        }
+
+        type.copyFields(context, result, this);
+        return result;
+    }
+
+    /**
+     * Gets the target token corresponding to {@code token}, which must be in the source token list.
+     */
+    public Token translate(Token token) throws MismatchException {
+        if (token == null) {
+            return null;
+        }
+
+        int index = token.getTokenIndex();
+        if (index < 0 || index >= sourceTokens.size() || sourceTokens.get(index) != token) {
+            throw new MismatchException("The token is not part of the source token list.");
+        }
+
+        int newIndex = index + tokenDelta;
+        if (newIndex < 0 || newIndex >= targetTokens.size()) {
+            throw new MismatchException("The token index is out of range.");
+        }
+
+        Token result = targetTokens.get(newIndex);
+        if (result.getType() != token.getType()
+            || result.getStartIndex() != token.getStartIndex() + charDelta
+            || result.getStopIndex() != token.getStopIndex() + charDelta) {
+            throw new MismatchException("The token does not match the target token list.");
+        }
+
+        return result;
+    }
+
+    public Object translateValue(Object value) throws MismatchException {
+        if (value instanceof Token) {
+            return translate((Token)value);
+        } else if (value instanceof ParseTree) {
+            ParseTree copy = copies.get(value);
+            if (copy == null) {
+                throw new MismatchException("A context label does not refer to a descendant.");
+            }
+
+            return copy;
+        } else if (value instanceof List<?>) {
+            List<Object> result = new ArrayList<>();
+            for (Object element : (List<?>)value) {
+                result.add(translateValue(element));
+            }
+
+            return result;
+        }
+
+        return value;
+    }
+
+
+    /**
+     * Creates instances of a generated context class and copies its label, local, and return value fields.
+     */
+    private static final class ContextType {
+        private static final ConcurrentMap<Class<?>, ContextType> TYPES = new ConcurrentHashMap<>();
+
+        @NonNull
+        private final Constructor<?> constructor;
+        /** {@code true} if {@link #constructor} is the copy constructor generated for labeled alternatives. */
+        private final boolean copyConstructor;
+        @NonNull
+        private final Field[] fields;
+
+        private ContextType(@NonNull Constructor<?> constructor, boolean copyConstructor, @NonNull Field[] fields) {
+            this.constructor = constructor;
+            this.copyConstructor = copyConstructor;
+            this.fields = fields;
+        }
+
+        @NonNull
+        public static ContextType forClass(@NonNull Class<?> contextClass) throws MismatchException {
+            ContextType type = TYPES.get(contextClass);
+            if (type == null) {
+                type = create(contextClass);
+                ContextType existing = TYPES.putIfAbsent(contextClass, type);
+                if (existing != null) {
+                    type = existing;
+                }
+            }
+
+            return type;
+        }
+
+        @NonNull
+        private static ContextType create(@NonNull Class<?> contextClass) throws MismatchException {
+            Constructor<?> constructor = null;
+            boolean copyConstructor = false;
+            for (Constructor<?> candidate : contextClass.getConstructors()) {
+                Class<?>[] parameterTypes = candidate.getParameterTypes();
+                if (parameterTypes.length >= 2 && parameterTypes[0].isAssignableFrom(ParserRuleContext.class)) {
+                    boolean intParameters = true;
+                    for (int i = 1; i < parameterTypes.length; i++) {
+                        intParameters &= parameterTypes[i] == int.class;
+                    }
+
+                    if (intParameters) {
+                        constructor = candidate;
+                        copyConstructor = false;
+                        break;
+                    }
+                } else if (parameterTypes.length == 1 && parameterTypes[0].isAssignableFrom(contextClass) && ParserRuleContext.class.isAssignableFrom(parameterTypes[0])) {
+                    constructor = candidate;
+                    copyConstructor = true;
+                }
+            }
+
+            if (constructor == null) {
+                throw new MismatchException("No suitable constructor found for " + contextClass.getName());
+            }
+
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> current = contextClass; current != null && current != ParserRuleContext.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                        continue;
+                    }
+
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+
+            return new ContextType(constructor, copyConstructor, fields.toArray(new Field[fields.size()]));
+        }
+
+        @NonNull
+        public ParserRuleContext createInstance(@NonNull ParserRuleContext context) throws MismatchException {
+            Object[] arguments;
+            if (copyConstructor) {
+                arguments = new Object[] { context };
+            } else {
+                arguments = new Object[constructor.getParameterTypes().length];
+                arguments[1] = context.invokingState;
+                for (int i = 2; i < arguments.length; i++) {
+                    arguments[i] = 0;
+                }
+            }
+
+            try {
+                return (ParserRuleContext)constructor.newInstance(arguments);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                throw new MismatchException("Unable to create an instance of " + context.getClass().getName(), ex);
+            }
+        }
+
+        public void copyFields(@NonNull ParserRuleContext source, @NonNull ParserRuleContext target, @NonNull ParseTreeCopier copier) throws MismatchException {
+            try {
+                for (Field field : fields) {
+                    field.set(target, copier.translateValue(field.get(source)));
+                }
+            } catch (IllegalAccessException | RuntimeException ex) {
+                throw new MismatchException("Unable to copy the fields of " + source.getClass().getName(), ex);
+            }
+        }
+    }
+
+    static final class MismatchException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public MismatchException(String message) {
+            super(message);
+        }
+
+        public MismatchException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -72,7 +72,7 @@ public final class ReferenceAnchorsParserTask implements ParserTask {
                 CompiledModel compiledModel = compiledModelData != null ? compiledModelData.getData() : null;
                 CompiledFileModel compiledFileModel = compiledModel != null ? compiledModel.getResult() : null;
                 ParserRuleContext parseResult = compiledFileModel != null ? compiledFileModel.getResult() : null;
-                Token[] tokens = compiledFileModel != null ? compiledFileModel.getTokens() : null;
+                List<? extends Token> tokens = compiledFileModel != null ? compiledFileModel.getTokens() : null;
 
                 if (anchorPointsResult == null && snapshot.getVersionedDocument().getDocument() != null) {
                     GoParserAnchorListener listener = new GoParserAnchorListener(snapshot);
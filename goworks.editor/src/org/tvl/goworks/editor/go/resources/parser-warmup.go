@@ -0,0 +1,183 @@
+// This file is parsed when the IDE starts to fill the DFA caches of the Go
+// lexer and parser. It covers the common declaration, statement, and
+// expression forms of the language.
+package warmup
+
+import (
+	"errors"
+	"fmt"
+	io "io"
+	. "strings"
+	_ "sync"
+)
+
+const (
+	Small = iota
+	Medium
+	Large
+)
+
+const Pi float64 = 3.14159
+const hex, octal, imaginary = 0xFF, 0755, 2.5i
+
+var (
+	count   int
+	names   = []string{"a", "b", `raw
+string`}
+	lookup  = map[string][]int{"x": {1, 2}, "y": nil}
+	pointer *Node
+	channel = make(chan<- int, 10)
+	ErrStop = errors.New("stop")
+)
+
+type Kind int
+
+type Node struct {
+	Name     string `json:"name"`
+	Children []*Node
+	Parent   *Node
+	Kind
+	io.Reader
+	values map[Kind]interface{}
+}
+
+type Visitor interface {
+	Visit(node *Node) (w Visitor, err error)
+	fmt.Stringer
+}
+
+type Handler func(int, ...string) error
+
+func (k Kind) String() string {
+	switch k {
+	case Small:
+		return "small"
+	case Medium, Large:
+		return "not small"
+	default:
+		return fmt.Sprintf("Kind(%d)", int(k))
+	}
+}
+
+func (n *Node) Walk(v Visitor) error {
+	if n == nil {
+		return nil
+	} else if w, err := v.Visit(n); err != nil {
+		return err
+	} else if w == nil {
+		return nil
+	}
+
+	for i, child := range n.Children {
+		if err := child.Walk(v); err != nil {
+			return fmt.Errorf("child %d: %v", i, err)
+		}
+	}
+
+	return nil
+}
+
+func NewNode(name string, children ...*Node) *Node {
+	n := &Node{Name: name, Children: children}
+	for _, c := range children {
+		c.Parent = n
+	}
+
+	n.values = make(map[Kind]interface{})
+	return n
+}
+
+func process(values []int, f func(int) (int, bool)) (result []int, ok bool) {
+	defer func() {
+		if r := recover(); r != nil {
+			ok = false
+		}
+	}()
+
+	result = values[:0:len(values)]
+	for i := 0; i < len(values); i++ {
+		if v, keep := f(values[i]); keep {
+			result = append(result, v<<1|v&^3)
+		}
+	}
+
+	return result, true
+}
+
+func channels(done <-chan struct{}, out chan int) {
+	var total int
+loop:
+	for {
+		select {
+		case v, ok := <-out:
+			if !ok {
+				break loop
+			}
+			total += v
+		case <-done:
+			goto finished
+		default:
+			continue
+		}
+	}
+
+finished:
+	go func(t int) {
+		out <- t
+	}(total)
+}
+
+func types(x interface{}) string {
+	switch v := x.(type) {
+	case nil:
+		return "nil"
+	case int, int64:
+		return "integer"
+	case *Node:
+		return v.Name
+	case []byte:
+		return string(v)
+	case map[string]int:
+		return fmt.Sprint(len(v))
+	case func() error:
+		return "func"
+	}
+
+	if s, ok := x.(fmt.Stringer); ok {
+		return ToUpper(s.String())
+	}
+
+	return ""
+}
+
+func expressions() {
+	a, b := 1, 2.0
+	c := complex(float64(a), b)
+	d := [...]int{1, 2, 3}
+	e := struct {
+		X, Y int
+	}{X: 1, Y: -2}
+	f := !(a > 0 && b < 1 || a != 2)
+	g := &e
+	g.X++
+	g.Y--
+	a += 3
+	a -= 1
+	a *= 2
+	a /= 2
+	a %= 5
+	a <<= 1
+	a >>= 1
+	a &= 7
+	a |= 8
+	a ^= 1
+	a &^= 2
+	h := d[1:]
+	k := 'x'
+	l := '\n'
+	m := "escape\t\"quoted\"é"
+	_, _, _, _, _, _, _, _ = c, f, h, k, l, m, Pi, count
+	if n := len(names); n >= 2 && n <= 10 {
+		fmt.Println(names[n-1], lookup["x"][0], pointer == nil, channel != nil)
+	}
+}
@@ -13,8 +13,10 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
+import org.antlr.netbeans.editor.text.DocumentSnapshot;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.antlr.works.editor.antlr4.classification.DocumentSnapshotToken;
+import org.antlr.works.editor.antlr4.classification.TokenBuffer;
 import org.tvl.goworks.editor.go.codemodel.CodeElementModel;
 import org.tvl.goworks.editor.go.codemodel.CodeElementPositionRegion;
 import org.tvl.goworks.editor.go.codemodel.PackageModel;
@@ -44,8 +46,14 @@ public class ReceiverTypeReference extends CodeElementReference {
             return types;
         }
 
+        DocumentSnapshot targetSnapshot = null;
         if (localTarget.getSymbol() instanceof DocumentSnapshotToken) {
-            DocumentSnapshotToken snapshotToken = (DocumentSnapshotToken)localTarget.getSymbol();
+            targetSnapshot = ((DocumentSnapshotToken)localTarget.getSymbol()).getSnapshot();
+        } else if (localTarget.getSymbol() instanceof TokenBuffer.BufferedToken) {
+            targetSnapshot = ((TokenBuffer.BufferedToken)localTarget.getSymbol()).getSnapshot();
+        }
+
+        if (targetSnapshot != null) {
             boolean foundCurrentDefinition = false;
             boolean foundCurrentFile = false;
             for (CodeElementModel model : types) {
@@ -54,7 +62,7 @@ public class ReceiverTypeReference extends CodeElementReference {
                     continue;
                 }
 
-                if (!seek.getFileObject().equals(snapshotToken.getSnapshot().getVersionedDocument().getFileObject())) {
+                if (!seek.getFileObject().equals(targetSnapshot.getVersionedDocument().getFileObject())) {
                     continue;
                 }
 
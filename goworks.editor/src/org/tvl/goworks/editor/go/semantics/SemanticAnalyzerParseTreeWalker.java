@@ -8,6 +8,7 @@
  */
 package org.tvl.goworks.editor.go.semantics;
 
+import org.antlr.netbeans.parsing.spi.CancellationToken;
 import org.antlr.v4.runtime.RuleDependency;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeListener;
@@ -22,6 +23,7 @@ import org.tvl.goworks.editor.go.parser.generated.AbstractGoParser.BodyContext;
 public class SemanticAnalyzerParseTreeWalker extends ParseTreeWalker {
 
     private final boolean backgroundAnalysis;
+    private final CancellationToken cancellationToken = CancellationToken.getCurrent();
 
     public SemanticAnalyzerParseTreeWalker(boolean backgroundAnalysis) {
         this.backgroundAnalysis = backgroundAnalysis;
@@ -34,6 +36,7 @@ public class SemanticAnalyzerParseTreeWalker extends ParseTreeWalker {
             return;
         }
 
+        cancellationToken.throwIfCancellationRequested();
         super.walk(listener, t);
     }
 
@@ -8,6 +8,8 @@
  */
 package org.antlr.netbeans;
 
+import org.antlr.netbeans.parsing.spi.impl.EditSessionRecorder;
+import org.antlr.netbeans.parsing.spi.impl.EditSessionReplay;
 import org.antlr.netbeans.parsing.spi.impl.TaskSchedulers;
 import org.openide.modules.ModuleInstall;
 import org.openide.util.RequestProcessor;
@@ -29,10 +31,18 @@ public class Installer extends ModuleInstall {
                     @Override
                     public void run() {
                         TaskSchedulers.init();
+                        EditSessionRecorder.getDefault().startConfiguredSession();
+                        EditSessionReplay.runConfiguredSession();
                     }
                 });
             }
         });
     }
 
+    @Override
+    public void close() {
+        EditSessionRecorder.getDefault().stop();
+        super.close();
+    }
+
 }
@@ -0,0 +1,198 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.editor.completion;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import org.antlr.netbeans.editor.text.DocumentSnapshot;
+import org.antlr.netbeans.editor.text.SnapshotPositionTranslator;
+import org.antlr.netbeans.editor.text.TrackingPosition;
+import org.antlr.netbeans.editor.text.TrackingPositionRegion;
+import org.netbeans.api.annotations.common.NonNull;
+import org.openide.util.Parameters;
+
+/**
+ * An immutable list of anchors along with the offsets of their spans in a particular snapshot. The list is stamped
+ * with that snapshot, so the spans of every anchor can be translated to a later snapshot at once with
+ * {@link #translateTo}, after which the anchors around an offset are located with a binary search.
+ *
+ * @author Sam Harwell
+ */
+public final class AnchorList extends AbstractList<Anchor> implements RandomAccess {
+
+    @NonNull
+    private final DocumentSnapshot snapshot;
+    @NonNull
+    private final Anchor[] anchors;
+    @NonNull
+    private final int[] starts;
+    @NonNull
+    private final int[] ends;
+    /** {@code true} if the anchors are in order of their start offsets, which is required for the binary search. */
+    private final boolean sorted;
+
+    /** The most recent result of {@link #translateTo}, reused when several requests use the same snapshot. */
+    private volatile AnchorList translated;
+
+    /**
+     * Creates an anchor list for anchors which were created in {@code snapshot} or an earlier snapshot of the same
+     * document.
+     */
+    public AnchorList(@NonNull DocumentSnapshot snapshot, @NonNull List<? extends Anchor> anchors) {
+        Parameters.notNull("snapshot", snapshot);
+        Parameters.notNull("anchors", anchors);
+
+        this.snapshot = snapshot;
+        this.anchors = anchors.toArray(new Anchor[anchors.size()]);
+        this.starts = new int[this.anchors.length];
+        this.ends = new int[this.anchors.length];
+        for (int i = 0; i < this.anchors.length; i++) {
+            TrackingPositionRegion span = this.anchors[i].getSpan();
+            starts[i] = span.getStartPosition(snapshot).getOffset();
+            ends[i] = span.getEndPosition(snapshot).getOffset();
+        }
+
+        this.sorted = isSorted(starts);
+    }
+
+    private AnchorList(@NonNull DocumentSnapshot snapshot, @NonNull Anchor[] anchors, @NonNull int[] starts, @NonNull int[] ends) {
+        this.snapshot = snapshot;
+        this.anchors = anchors;
+        this.starts = starts;
+        this.ends = ends;
+        this.sorted = isSorted(starts);
+    }
+
+    /**
+     * Gets an anchor list for {@code anchors} in {@code snapshot}. If {@code anchors} is an {@link AnchorList}, its
+     * spans are translated to {@code snapshot}; otherwise the span of each anchor is located individually.
+     */
+    @NonNull
+    public static AnchorList forSnapshot(@NonNull List<? extends Anchor> anchors, @NonNull DocumentSnapshot snapshot) {
+        Parameters.notNull("anchors", anchors);
+        Parameters.notNull("snapshot", snapshot);
+        if (anchors instanceof AnchorList) {
+            return ((AnchorList)anchors).translateTo(snapshot);
+        }
+
+        return new AnchorList(snapshot, anchors);
+    }
+
+    /**
+     * Gets the snapshot the offsets of this list are expressed in.
+     */
+    @NonNull
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public Anchor get(int index) {
+        return anchors[index];
+    }
+
+    @Override
+    public int size() {
+        return anchors.length;
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Gets the index of the last anchor which starts at or before {@code offset}, or -1 if every anchor starts after
+     * {@code offset}.
+     */
+    public int getPreviousIndex(int offset) {
+        if (!sorted) {
+            for (int i = starts.length - 1; i >= 0; i--) {
+                if (starts[i] <= offset) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low - 1;
+    }
+
+    /**
+     * Translates the spans of every anchor in this list to {@code targetSnapshot}, which must not be older than the
+     * snapshot of this list.
+     */
+    @NonNull
+    public AnchorList translateTo(@NonNull DocumentSnapshot targetSnapshot) {
+        Parameters.notNull("targetSnapshot", targetSnapshot);
+        if (targetSnapshot.equals(snapshot)) {
+            return this;
+        }
+
+        AnchorList result = translated;
+        if (result != null && result.snapshot.equals(targetSnapshot)) {
+            return result;
+        }
+
+        SnapshotPositionTranslator translator = new SnapshotPositionTranslator(snapshot, targetSnapshot);
+        int[] newStarts = new int[anchors.length];
+        int[] newEnds = new int[anchors.length];
+        List<Integer> custom = new ArrayList<>();
+        for (int i = 0; i < anchors.length; i++) {
+            TrackingPositionRegion.Bias bias = anchors[i].getSpan().getBias();
+            TrackingPosition.Bias startBias = bias.getStartBias();
+            TrackingPosition.Bias endBias = bias.getEndBias();
+            if (startBias == null || endBias == null) {
+                custom.add(i);
+                continue;
+            }
+
+            newStarts[i] = translator.translate(starts[i], startBias);
+            newEnds[i] = Math.max(newStarts[i], translator.translate(ends[i], endBias));
+        }
+
+        for (int i : custom) {
+            TrackingPositionRegion span = anchors[i].getSpan();
+            newStarts[i] = span.getStartPosition(targetSnapshot).getOffset();
+            newEnds[i] = span.getEndPosition(targetSnapshot).getOffset();
+        }
+
+        result = new AnchorList(targetSnapshot, anchors, newStarts, newEnds);
+        translated = result;
+        return result;
+    }
+
+    private static boolean isSorted(int[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] < values[i - 1]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
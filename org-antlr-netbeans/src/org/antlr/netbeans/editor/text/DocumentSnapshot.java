@@ -8,6 +8,7 @@
  */
 package org.antlr.netbeans.editor.text;
 
+import java.nio.CharBuffer;
 import org.netbeans.api.annotations.common.NonNull;
 
 /**
@@ -24,6 +25,27 @@ public interface DocumentSnapshot {
 
     public @NonNull String getText();
 
+    /**
+     * Copies the characters between {@code start} (inclusive) and {@code end} (exclusive) to {@code destination},
+     * starting at {@code destinationOffset}.
+     *
+     * @throws IndexOutOfBoundsException
+     *      if {@code start < 0}, {@code end > }{@link #length length()}, {@code start > end}, or the destination
+     *      array is too small
+     */
+    public void getChars(int start, int end, @NonNull char[] destination, int destinationOffset);
+
+    /**
+     * Gets a read-only view of the text of this snapshot. The text is not copied.
+     */
+    public @NonNull CharBuffer asCharBuffer();
+
+    /**
+     * Gets the text between {@code start} (inclusive) and {@code end} (exclusive) as a sequence of contiguous pieces
+     * in document order. The pieces are views of the stored text, so reading a piece is a scan over an array.
+     */
+    public @NonNull Iterable<CharSequence> getChunks(int start, int end);
+
     public int getLineCount();
 
     public @NonNull Iterable<DocumentSnapshotLine> getLines();
@@ -58,4 +80,35 @@ public interface DocumentSnapshot {
 
     public int findLineNumber(int offset);
 
+    /**
+     * Gets the offset of the start of a line. Unlike {@link #findLineFromLineNumber}, this method does not create a
+     * {@link DocumentSnapshotLine}.
+     *
+     * @throws IndexOutOfBoundsException
+     *      if {@code lineNumber < 0}
+     *      or
+     *      {@code lineNumber >= }{@link #getLineCount getLineCount()}
+     */
+    public int getLineStart(int lineNumber);
+
+    /**
+     * Gets the offset of the end of a line, excluding its line break.
+     *
+     * @throws IndexOutOfBoundsException
+     *      if {@code lineNumber < 0}
+     *      or
+     *      {@code lineNumber >= }{@link #getLineCount getLineCount()}
+     */
+    public int getLineEnd(int lineNumber);
+
+    /**
+     * Gets the offset of the end of a line, including its line break.
+     *
+     * @throws IndexOutOfBoundsException
+     *      if {@code lineNumber < 0}
+     *      or
+     *      {@code lineNumber >= }{@link #getLineCount getLineCount()}
+     */
+    public int getLineEndIncludingLineBreak(int lineNumber);
+
 }
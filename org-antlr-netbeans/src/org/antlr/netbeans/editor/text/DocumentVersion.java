@@ -29,6 +29,18 @@ public interface DocumentVersion {
 
     public @CheckForNull DocumentVersion getNext();
 
+    /**
+     * Gets the net changes between this version and a later version of the same document, as a single normalized
+     * collection whose old offsets refer to this version and whose new offsets refer to {@code target}. Successive
+     * edits of the same region are merged, so the size of the result depends on the net edits rather than on the
+     * number of versions between the two.
+     *
+     * @param target The target version. This may be the current version, in which case the result is empty.
+     * @return The changes from this version to {@code target}.
+     * @throws IllegalArgumentException if {@code target} is not this version or a later version of the same document
+     */
+    public @NonNull NormalizedDocumentChangeCollection getChangesTo(@NonNull DocumentVersion target);
+
     public @NonNull TrackingPositionRegion createCustomTrackingRegion(@NonNull OffsetRegion region, @NonNull TrackingFidelity fidelity, @NonNull CustomTrackToBehavior behavior);
 
     public @NonNull TrackingPosition createTrackingPosition(int offset, @NonNull TrackingPosition.Bias bias);
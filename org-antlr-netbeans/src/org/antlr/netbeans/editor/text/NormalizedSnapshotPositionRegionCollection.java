@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import org.netbeans.api.annotations.common.NonNull;
+import org.openide.util.Parameters;
 
 /**
  *
@@ -34,4 +35,27 @@ public final class NormalizedSnapshotPositionRegionCollection extends ArrayList<
     public NormalizedSnapshotPositionRegionCollection(@NonNull DocumentSnapshot snapshot, @NonNull Collection<OffsetRegion> spans) {
         throw new UnsupportedOperationException("Not implemented yet.");
     }
+
+    /**
+     * Translates every region in the collection to {@code targetSnapshot}. The regions are translated in order by a
+     * single {@link SnapshotPositionTranslator} for each source snapshot, so the changes between the snapshots are
+     * only composed once.
+     */
+    public @NonNull NormalizedSnapshotPositionRegionCollection translateTo(@NonNull DocumentSnapshot targetSnapshot, @NonNull TrackingPositionRegion.Bias bias) {
+        Parameters.notNull("targetSnapshot", targetSnapshot);
+        Parameters.notNull("bias", bias);
+
+        NormalizedSnapshotPositionRegionCollection result = new NormalizedSnapshotPositionRegionCollection();
+        result.ensureCapacity(size());
+        SnapshotPositionTranslator translator = null;
+        for (SnapshotPositionRegion region : this) {
+            if (translator == null || !translator.getSourceSnapshot().equals(region.getSnapshot())) {
+                translator = new SnapshotPositionTranslator(region.getSnapshot(), targetSnapshot);
+            }
+
+            result.add(translator.translate(region, bias));
+        }
+
+        return result;
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.editor.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.netbeans.api.annotations.common.NonNull;
+import org.openide.util.Parameters;
+
+/**
+ * Translates many offsets from one snapshot to a later snapshot of the same document. The changes between the two
+ * versions are composed once, and offsets translated in increasing order are resolved by a single forward sweep over
+ * the changes. Offsets may be translated in any order, but an offset before the previously translated offset
+ * restarts the sweep with a binary search.
+ *
+ * <p>The results match {@link SnapshotPosition#translateTo}, which uses a tracking position with
+ * {@link TrackingFidelity#Forward forward} fidelity. Instances are not thread safe.</p>
+ *
+ * @author Sam Harwell
+ */
+public final class SnapshotPositionTranslator {
+
+    @NonNull
+    private final DocumentSnapshot sourceSnapshot;
+    @NonNull
+    private final DocumentSnapshot targetSnapshot;
+    @NonNull
+    private final List<DocumentChange> changes;
+
+    /** The number of changes which start at or before {@link #previousOffset}. */
+    private int changeIndex;
+    private int previousOffset;
+
+    public SnapshotPositionTranslator(@NonNull DocumentSnapshot sourceSnapshot, @NonNull DocumentSnapshot targetSnapshot) {
+        Parameters.notNull("sourceSnapshot", sourceSnapshot);
+        Parameters.notNull("targetSnapshot", targetSnapshot);
+        if (!sourceSnapshot.getVersionedDocument().equals(targetSnapshot.getVersionedDocument())) {
+            throw new IllegalArgumentException("The snapshots are not from the same document.");
+        }
+
+        DocumentVersion sourceVersion = sourceSnapshot.getVersion();
+        DocumentVersion targetVersion = targetSnapshot.getVersion();
+        if (targetVersion.getVersionNumber() < sourceVersion.getVersionNumber()) {
+            throw new UnsupportedOperationException("Positions can only be translated to a later snapshot.");
+        }
+
+        this.sourceSnapshot = sourceSnapshot;
+        this.targetSnapshot = targetSnapshot;
+        if (targetVersion.getVersionNumber() == sourceVersion.getVersionNumber()) {
+            this.changes = new ArrayList<>(0);
+        } else {
+            this.changes = sourceVersion.getChangesTo(targetVersion);
+        }
+    }
+
+    @NonNull
+    public DocumentSnapshot getSourceSnapshot() {
+        return sourceSnapshot;
+    }
+
+    @NonNull
+    public DocumentSnapshot getTargetSnapshot() {
+        return targetSnapshot;
+    }
+
+    public int translate(int offset, @NonNull TrackingPosition.Bias bias) {
+        Parameters.notNull("bias", bias);
+        if (changes.isEmpty()) {
+            return offset;
+        }
+
+        if (offset < previousOffset) {
+            changeIndex = findChangeIndex(offset);
+        } else {
+            while (changeIndex < changes.size() && changes.get(changeIndex).getOldOffset() <= offset) {
+                changeIndex++;
+            }
+        }
+
+        previousOffset = offset;
+        if (changeIndex == 0) {
+            return offset;
+        }
+
+        DocumentChange change = changes.get(changeIndex - 1);
+        if (offset <= change.getOldEnd()) {
+            int result = change.getNewOffset();
+            if (bias == TrackingPosition.Bias.Forward) {
+                result += change.getNewLength();
+            }
+
+            return result;
+        }
+
+        return offset + change.getNewEnd() - change.getOldEnd();
+    }
+
+    @NonNull
+    public SnapshotPosition translate(@NonNull SnapshotPosition position, @NonNull TrackingPosition.Bias bias) {
+        Parameters.notNull("position", position);
+        checkSource(position.getSnapshot());
+        return new SnapshotPosition(targetSnapshot, translate(position.getOffset(), bias));
+    }
+
+    @NonNull
+    public SnapshotPositionRegion translate(@NonNull SnapshotPositionRegion region, @NonNull TrackingPositionRegion.Bias bias) {
+        Parameters.notNull("region", region);
+        checkSource(region.getSnapshot());
+        return new SnapshotPositionRegion(targetSnapshot, translate(region.getRegion(), bias));
+    }
+
+    @NonNull
+    public OffsetRegion translate(@NonNull OffsetRegion region, @NonNull TrackingPositionRegion.Bias bias) {
+        Parameters.notNull("region", region);
+        Parameters.notNull("bias", bias);
+        TrackingPosition.Bias startBias = bias.getStartBias();
+        TrackingPosition.Bias endBias = bias.getEndBias();
+        if (startBias == null || endBias == null) {
+            throw new UnsupportedOperationException();
+        }
+
+        int start = translate(region.getStart(), startBias);
+        int end = Math.max(start, translate(region.getEnd(), endBias));
+        return OffsetRegion.fromBounds(start, end);
+    }
+
+    /**
+     * Translates an array of offsets, which should be sorted in increasing order to be translated in a single sweep.
+     */
+    @NonNull
+    public int[] translate(@NonNull int[] offsets, @NonNull TrackingPosition.Bias bias) {
+        Parameters.notNull("offsets", offsets);
+        Parameters.notNull("bias", bias);
+        int[] result = new int[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            result[i] = translate(offsets[i], bias);
+        }
+
+        return result;
+    }
+
+    /**
+     * Translates a list of regions, which should be sorted and non-overlapping to be translated in a single sweep.
+     */
+    @NonNull
+    public List<OffsetRegion> translate(@NonNull List<OffsetRegion> regions, @NonNull TrackingPositionRegion.Bias bias) {
+        Parameters.notNull("regions", regions);
+        List<OffsetRegion> result = new ArrayList<>(regions.size());
+        for (OffsetRegion region : regions) {
+            result.add(translate(region, bias));
+        }
+
+        return result;
+    }
+
+    private int findChangeIndex(int offset) {
+        int low = 0;
+        int high = changes.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (changes.get(mid).getOldOffset() <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private void checkSource(DocumentSnapshot snapshot) {
+        if (!snapshot.equals(sourceSnapshot)) {
+            throw new IllegalArgumentException("The position is not in the source snapshot.");
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.editor.text.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import org.antlr.netbeans.editor.text.NormalizedDocumentChangeCollection;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.openide.filesystems.FileObject;
+import org.openide.util.Parameters;
+
+/**
+ * A read-only {@link TextCache} for a file which is not open in an editor. The file content is used directly as the
+ * text, one byte per character, so it is only used for files whose encoding maps every byte of the content to the
+ * character with the same value: Latin-1 files, and ASCII content in UTF-8 or ASCII files. The content is read into
+ * a single byte array without creating a {@link String}, characters are decoded as they are read, and the line index
+ * is built the first time a line is requested.
+ *
+ * <p>The file is read rather than memory mapped: a snapshot must not change when the file is saved, and a mapping
+ * of a file which is truncated while the snapshot is in use fails when it is read.</p>
+ *
+ * @author Sam Harwell
+ */
+public final class FileTextCache implements TextCache {
+
+    /** The length of the pieces returned by {@link #getChunk}. */
+    private static final int CHUNK_LENGTH = 8192;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NonNull
+    private final byte[] data;
+    private final int length;
+
+    /** The start of each line, built on demand. */
+    private volatile int[] lineStarts;
+
+    private FileTextCache(@NonNull byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    /**
+     * Reads {@code fileObject} as a text cache.
+     *
+     * @return The text cache, or {@code null} if the content of the file cannot be used without decoding it.
+     */
+    @CheckForNull
+    public static FileTextCache open(@NonNull FileObject fileObject, @NonNull Charset charset) throws IOException {
+        Parameters.notNull("fileObject", fileObject);
+        Parameters.notNull("charset", charset);
+
+        boolean latin1 = ISO_8859_1.equals(charset);
+        if (!latin1 && !US_ASCII.equals(charset) && !UTF_8.equals(charset)) {
+            return null;
+        }
+
+        long size = fileObject.getSize();
+        if (size >= Integer.MAX_VALUE) {
+            return null;
+        }
+
+        byte[] data = new byte[(int)size];
+        int length = 0;
+        try (InputStream stream = fileObject.getInputStream()) {
+            while (true) {
+                if (length == data.length) {
+                    // the file grew after its size was read
+                    if (stream.read() < 0) {
+                        break;
+                    }
+
+                    return null;
+                }
+
+                int count = stream.read(data, length, data.length - length);
+                if (count < 0) {
+                    break;
+                }
+
+                length += count;
+            }
+        }
+
+        if (!latin1) {
+            for (int i = 0; i < length; i++) {
+                if (data[i] < 0) {
+                    // multi-byte sequence
+                    return null;
+                }
+            }
+        }
+
+        return new FileTextCache(data, length);
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int getLineCount() {
+        return getLineStarts().length;
+    }
+
+    @Override
+    public char charAt(int position) {
+        return (char)(data[position] & 0xFF);
+    }
+
+    @Override
+    public int getLineNumberFromPosition(int position) {
+        int line = Arrays.binarySearch(getLineStarts(), position);
+        if (line < 0) {
+            line = -(line + 1) - 1;
+        }
+
+        return line;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        return getLineStarts()[line];
+    }
+
+    @Override
+    public int getLineEnd(int line) {
+        int[] starts = getLineStarts();
+        return line == starts.length - 1 ? length : starts[line + 1];
+    }
+
+    @Override
+    public String getLineText(int line) {
+        int start = getLineStart(line);
+        int end = getLineEnd(line);
+        StringBuilder builder = new StringBuilder(end - start);
+        appendTo(builder, start, end);
+        return builder.toString();
+    }
+
+    @Override
+    public void appendTo(StringBuilder builder, int start, int end) {
+        for (int i = start; i < end; i++) {
+            builder.append((char)(data[i] & 0xFF));
+        }
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] destination, int destinationOffset) {
+        for (int i = start; i < end; i++) {
+            destination[destinationOffset++] = (char)(data[i] & 0xFF);
+        }
+    }
+
+    @Override
+    public CharSequence getChunk(int position) {
+        int start = getChunkStart(position);
+        return new Chunk(start, Math.min(length, start + CHUNK_LENGTH));
+    }
+
+    @Override
+    public int getChunkStart(int position) {
+        return position - position % CHUNK_LENGTH;
+    }
+
+    /**
+     * Closed files are not edited, but if changes are applied the text is copied to a {@link RopeTextCache}.
+     */
+    @Override
+    public TextCache applyChanges(NormalizedDocumentChangeCollection changes) {
+        Parameters.notNull("changes", changes);
+
+        StringBuilder builder = new StringBuilder(length);
+        appendTo(builder, 0, length);
+        return new RopeTextCache(builder.toString()).applyChanges(changes);
+    }
+
+    @NonNull
+    private int[] getLineStarts() {
+        int[] result = lineStarts;
+        if (result == null) {
+            int lineCount = 1;
+            for (int i = 0; i < length; i++) {
+                if (data[i] == '\n') {
+                    lineCount++;
+                }
+            }
+
+            result = new int[lineCount];
+            int line = 1;
+            for (int i = 0; i < length; i++) {
+                if (data[i] == '\n') {
+                    result[line++] = i + 1;
+                }
+            }
+
+            lineStarts = result;
+        }
+
+        return result;
+    }
+
+    private final class Chunk implements CharSequence {
+        private final int start;
+        private final int end;
+
+        public Chunk(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            return FileTextCache.this.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || end < start) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            return new Chunk(this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(length());
+            appendTo(builder, start, end);
+            return builder.toString();
+        }
+    }
+
+}
@@ -9,6 +9,7 @@
 package org.antlr.netbeans.editor.text.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.antlr.netbeans.editor.text.DocumentChange;
 import org.antlr.netbeans.editor.text.NormalizedDocumentChangeCollection;
@@ -20,7 +21,7 @@ import org.openide.util.Parameters;
  *
  * @author Sam Harwell
  */
-public class LineTextCache {
+public class LineTextCache implements TextCache {
 
     private static int MaximumBlockLength = 64;
 
@@ -32,6 +33,12 @@ public class LineTextCache {
     private final IntegerList _blockLineOffsets = new IntegerList();
     private final ArrayList<IntegerList> _lineOffsets = new ArrayList<>();
 
+    /**
+     * The absolute position of the start of every line, created by {@link #getLineStarts} the first time a line is
+     * located in this version.
+     */
+    private volatile int[] _lineStarts;
+
     public LineTextCache(@NonNull String data) {
         Parameters.notNull("data", data);
 
@@ -74,10 +81,12 @@ public class LineTextCache {
         this._lineCount = lineCount;
     }
 
+    @Override
     public int getLength() {
         return _length;
     }
 
+    @Override
     public int getLineCount() {
         return _lineCount;
     }
@@ -125,12 +134,41 @@ public class LineTextCache {
         return blockLine;
     }
 
+    @Override
     public int getLineNumberFromPosition(int position) {
-        int block = getBlockFromPosition(position);
-        int blockLine = getBlockLineFromPosition(block, position);
-        return blockLine + _blockLineOffsets.get(block);
+        int line = Arrays.binarySearch(getLineStarts(), position);
+        if (line < 0) {
+            line = -(line + 1) - 1;
+        }
+
+        return line;
+    }
+
+    /**
+     * Gets the absolute position of the start of every line, flattened from the block indexes so line lookups are a
+     * single search over a primitive array.
+     */
+    public @NonNull int[] getLineStarts() {
+        int[] lineStarts = _lineStarts;
+        if (lineStarts == null) {
+            lineStarts = new int[_lineCount];
+            int line = 0;
+            for (int block = 0; block < _lineOffsets.size(); block++) {
+                int blockOffset = _blockOffsets.get(block);
+                IntegerList offsets = _lineOffsets.get(block);
+                for (int i = 0; i < offsets.size(); i++) {
+                    lineStarts[line++] = blockOffset + offsets.get(i);
+                }
+            }
+
+            assert line == _lineCount;
+            _lineStarts = lineStarts;
+        }
+
+        return lineStarts;
     }
 
+    @Override
     public @NonNull LineTextCache applyChanges(@NonNull NormalizedDocumentChangeCollection changes) {
         int delta = 0;
         int lineDelta = 0;
@@ -324,7 +362,7 @@ public class LineTextCache {
                 // update the current position
                 oldPosition = getPosition(oldBlock, oldLine, oldColumn) + currentChange.getOldLength();
                 oldBlock = getBlockFromPosition(oldPosition);
-                oldLine = getLineNumberFromPosition(oldPosition);
+                oldLine = getBlockLineFromPosition(oldBlock, oldPosition) + _blockLineOffsets.get(oldBlock);
                 oldColumn = oldPosition - getLineStart(oldBlock, oldLine);
                 oldBlockLine = oldLine - _blockLineOffsets.get(oldBlock);
                 newPosition += newText.length();
@@ -374,6 +412,42 @@ public class LineTextCache {
         return next;
     }
 
+    @Override
+    public void getChars(int start, int end, @NonNull char[] destination, int destinationOffset) {
+        if (start >= end) {
+            return;
+        }
+
+        int block = getBlockFromPosition(start);
+        int blockLine = getBlockLineFromPosition(block, start);
+        int lineStart = getLineStart(block, blockLine + _blockLineOffsets.get(block));
+        while (lineStart < end) {
+            String text = _lineData.get(block).get(blockLine);
+            int lineEnd = lineStart + text.length();
+            int from = Math.max(start, lineStart);
+            int to = Math.min(end, lineEnd);
+            text.getChars(from - lineStart, to - lineStart, destination, destinationOffset + from - start);
+            lineStart = lineEnd;
+            blockLine++;
+            if (blockLine == _lineData.get(block).size()) {
+                block++;
+                blockLine = 0;
+            }
+        }
+    }
+
+    @Override
+    public @NonNull CharSequence getChunk(int position) {
+        int block = getBlockFromPosition(position);
+        return _lineData.get(block).get(getBlockLineFromPosition(block, position));
+    }
+
+    @Override
+    public int getChunkStart(int position) {
+        int block = getBlockFromPosition(position);
+        return getLineStart(block, getBlockLineFromPosition(block, position) + _blockLineOffsets.get(block));
+    }
+
     public boolean lineEndsBeforeChange(int block, int line, DocumentChange change) {
         if (getLineEnd(block, line) < change.getOldOffset()) {
             return true;
@@ -424,6 +498,54 @@ public class LineTextCache {
         return _lineData.get(block).get(blockLine);
     }
 
+    @Override
+    public int getLineStart(int line) {
+        return getLineStarts()[line];
+    }
+
+    @Override
+    public int getLineEnd(int line) {
+        if (line == _lineCount - 1) {
+            return _length;
+        }
+
+        return getLineStarts()[line + 1];
+    }
+
+    @Override
+    public @NonNull String getLineText(int line) {
+        return getLineText(getBlockFromLineNumber(line), line);
+    }
+
+    @Override
+    public char charAt(int position) {
+        int block = getBlockFromPosition(position);
+        int line = getBlockLineFromPosition(block, position) + _blockLineOffsets.get(block);
+        return getLineText(block, line).charAt(position - getLineStart(block, line));
+    }
+
+    @Override
+    public void appendTo(@NonNull StringBuilder builder, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+
+        int block = getBlockFromPosition(start);
+        int blockLine = getBlockLineFromPosition(block, start);
+        int lineStart = getLineStart(block, blockLine + _blockLineOffsets.get(block));
+        while (lineStart < end) {
+            String text = _lineData.get(block).get(blockLine);
+            int lineEnd = lineStart + text.length();
+            builder.append(text, Math.max(start, lineStart) - lineStart, Math.min(end, lineEnd) - lineStart);
+            lineStart = lineEnd;
+            blockLine++;
+            if (blockLine == _lineData.get(block).size()) {
+                block++;
+                blockLine = 0;
+            }
+        }
+    }
+
     private void trimToSize() {
         _lineData.trimToSize();
         _blockOffsets.trimToSize();
@@ -8,8 +8,8 @@
  */
 package org.antlr.netbeans.editor.text.impl;
 
+import java.nio.CharBuffer;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
 import org.antlr.netbeans.editor.text.DocumentSnapshotLine;
@@ -30,6 +30,12 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
     @NonNull
     private final NbDocumentVersion textVersion;
 
+    /**
+     * The line most recently located by {@link #findLineNumber}. Consecutive lookups usually fall on the same line or
+     * the line following it, and are resolved from this line without searching the line index.
+     */
+    private volatile CachedLine lastLine;
+
     public NbDocumentSnapshot(@NonNull NbDocumentVersion textVersion) {
         Parameters.notNull("textVersion", textVersion);
         this.textVersion = textVersion;
@@ -101,7 +107,80 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
 
     @Override
     public int findLineNumber(int offset) {
-        return getVersion().getLineData().getLineNumberFromPosition(offset);
+        TextCache data = getVersion().getLineData();
+        int lastLineNumber = data.getLineCount() - 1;
+        CachedLine cached = lastLine;
+        if (cached != null && offset >= cached.start) {
+            if (offset < cached.end || cached.lineNumber == lastLineNumber) {
+                return cached.lineNumber;
+            }
+
+            int nextLineNumber = cached.lineNumber + 1;
+            int nextLineEnd = data.getLineEnd(nextLineNumber);
+            if (offset < nextLineEnd || nextLineNumber == lastLineNumber) {
+                lastLine = new CachedLine(nextLineNumber, cached.end, nextLineEnd);
+                return nextLineNumber;
+            }
+        }
+
+        int lineNumber = data.getLineNumberFromPosition(offset);
+        if (lineNumber >= 0 && lineNumber <= lastLineNumber) {
+            lastLine = new CachedLine(lineNumber, data.getLineStart(lineNumber), data.getLineEnd(lineNumber));
+        }
+
+        return lineNumber;
+    }
+
+    @Override
+    public int getLineStart(int lineNumber) {
+        if (lineNumber < 0 || lineNumber >= getLineCount()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        CachedLine cached = lastLine;
+        if (cached != null) {
+            if (cached.lineNumber == lineNumber) {
+                return cached.start;
+            } else if (cached.lineNumber + 1 == lineNumber) {
+                return cached.end;
+            }
+        }
+
+        return getVersion().getLineData().getLineStart(lineNumber);
+    }
+
+    @Override
+    public int getLineEnd(int lineNumber) {
+        int end = getLineEndIncludingLineBreak(lineNumber);
+        int start = getLineStart(lineNumber);
+        TextCache data = getVersion().getLineData();
+        if (end > start) {
+            char lastChar = data.charAt(end - 1);
+            if (lastChar == '\n') {
+                end--;
+                if (end > start && data.charAt(end - 1) == '\r') {
+                    end--;
+                }
+            } else if (lastChar == '\r') {
+                end--;
+            }
+        }
+
+        return end;
+    }
+
+    @Override
+    public int getLineEndIncludingLineBreak(int lineNumber) {
+        if (lineNumber < 0 || lineNumber >= getLineCount()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        CachedLine cached = lastLine;
+        if (cached != null && cached.lineNumber == lineNumber) {
+            return cached.end;
+        }
+
+        return getVersion().getLineData().getLineEnd(lineNumber);
     }
 
     @Override
@@ -115,12 +194,7 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
             throw new IndexOutOfBoundsException();
         }
 
-        LineTextCache lineData = getVersion().getLineData();
-        int block = lineData.getBlockFromPosition(index);
-        int line = lineData.getLineNumberFromPosition(index);
-        int lineStart = lineData.getLineStart(block, line);
-        String lineText = lineData.getLineText(block, line);
-        return lineText.charAt(index - lineStart);
+        return getVersion().getLineData().charAt(index);
     }
 
     @Override
@@ -133,6 +207,30 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
         return subSequence(0, length()).toString();
     }
 
+    @Override
+    public void getChars(int start, int end, char[] destination, int destinationOffset) {
+        Parameters.notNull("destination", destination);
+        if (start < 0 || end > length() || start > end || destinationOffset < 0 || destinationOffset + end - start > destination.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        getVersion().getLineData().getChars(start, end, destination, destinationOffset);
+    }
+
+    @Override
+    public CharBuffer asCharBuffer() {
+        return CharBuffer.wrap(new SubSequence(this, 0, length()));
+    }
+
+    @Override
+    public Iterable<CharSequence> getChunks(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        return new ChunkIterable(this, start, end);
+    }
+
     @Override
     public String toString() {
         String content = "???";
@@ -143,6 +241,30 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
                              content);
     }
 
+    private static final class CachedLine {
+        private final int lineNumber;
+        private final int start;
+        /** The end of the line, including its line break. */
+        private final int end;
+
+        public CachedLine(int lineNumber, int start, int end) {
+            this.lineNumber = lineNumber;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class CachedChunk {
+        @NonNull
+        private final CharSequence chunk;
+        private final int start;
+
+        public CachedChunk(@NonNull CharSequence chunk, int start) {
+            this.chunk = chunk;
+            this.start = start;
+        }
+    }
+
     private static final class LineIterable implements Iterable<DocumentSnapshotLine> {
 
         @NonNull
@@ -192,6 +314,70 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
         }
     }
 
+    private static final class ChunkIterable implements Iterable<CharSequence> {
+
+        @NonNull
+        private final NbDocumentSnapshot snapshot;
+        private final int start;
+        private final int end;
+
+        public ChunkIterable(@NonNull NbDocumentSnapshot snapshot, int start, int end) {
+            this.snapshot = snapshot;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Iterator<CharSequence> iterator() {
+            return new ChunkIterator(snapshot.getVersion().getLineData(), start, end);
+        }
+    }
+
+    private static final class ChunkIterator implements Iterator<CharSequence> {
+
+        @NonNull
+        private final TextCache data;
+        private final int end;
+
+        private int position;
+
+        public ChunkIterator(@NonNull TextCache data, int start, int end) {
+            this.data = data;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < end;
+        }
+
+        @Override
+        public CharSequence next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            CharSequence chunk = data.getChunk(position);
+            int chunkStart = data.getChunkStart(position);
+            int chunkEnd = Math.min(end, chunkStart + chunk.length());
+            CharSequence result;
+            if (position == chunkStart && chunkEnd == chunkStart + chunk.length()) {
+                result = chunk;
+            } else {
+                result = CharBuffer.wrap(chunk, position - chunkStart, chunkEnd - chunkStart);
+            }
+
+            position = chunkEnd;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("The iterator is read only.");
+        }
+    }
+
     private static final class SubSequence implements CharSequence {
 
         @NonNull
@@ -199,6 +385,9 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
         private final int start;
         private final int end;
 
+        /** The most recently read chunk of the snapshot, so sequential reads do not search for each character. */
+        private volatile CachedChunk lastChunk;
+
         public SubSequence(@NonNull NbDocumentSnapshot snapshot, int start, int end) {
             Parameters.notNull("snapshot", snapshot);
             if (start < 0 || end > snapshot.length()) {
@@ -226,7 +415,15 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
                 throw new IndexOutOfBoundsException();
             }
 
-            return snapshot.charAt(start + index);
+            int position = start + index;
+            CachedChunk cached = lastChunk;
+            if (cached == null || position < cached.start || position >= cached.start + cached.chunk.length()) {
+                TextCache data = snapshot.textVersion.getLineData();
+                cached = new CachedChunk(data.getChunk(position), data.getChunkStart(position));
+                lastChunk = cached;
+            }
+
+            return cached.chunk.charAt(position - cached.start);
         }
 
         @Override
@@ -247,35 +444,7 @@ public class NbDocumentSnapshot implements DocumentSnapshot {
             }
 
             StringBuilder builder = new StringBuilder(length());
-            LineTextCache data = snapshot.textVersion.getLineData();
-
-            int startBlock = data.getBlockFromPosition(start);
-            int startLine = data.getBlockLineFromPosition(startBlock, start);
-            int startColumn = start - data.getLineStart(startBlock, data.getBlockLineOffsets().get(startBlock) + startLine);
-
-            int endBlock = end == start ? startBlock : data.getBlockFromPosition(end - 1);
-            int endLine = end == start ? startLine : data.getBlockLineFromPosition(endBlock, end - 1);
-            int endColumn = end == start ? startColumn : (end - 1) - data.getLineStart(endBlock, data.getBlockLineOffsets().get(endBlock) + endLine);
-
-            for (int block = startBlock; block <= endBlock; block++) {
-                List<String> blockData = data.getLineData().get(block);
-                for (int line = (block == startBlock) ? startLine : 0; line < ((block == endBlock) ? endLine + 1 : blockData.size()); line++) {
-                    @SuppressWarnings("LocalVariableHidesMemberVariable")
-                    int start = 0;
-                    @SuppressWarnings("LocalVariableHidesMemberVariable")
-                    int end = blockData.get(line).length();
-                    if (block == startBlock && line == startLine) {
-                        start = startColumn;
-                    }
-
-                    if (block == endBlock && line == endLine) {
-                        end = endColumn + 1;
-                    }
-
-                    builder.append(blockData.get(line).substring(start, end));
-                }
-            }
-
+            snapshot.textVersion.getLineData().appendTo(builder, start, end);
             return builder.toString();
         }
     }
@@ -8,6 +8,8 @@
  */
 package org.antlr.netbeans.editor.text.impl;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.antlr.netbeans.editor.text.CustomTrackToBehavior;
 import org.antlr.netbeans.editor.text.DocumentVersion;
 import org.antlr.netbeans.editor.text.NormalizedDocumentChangeCollection;
@@ -16,6 +18,7 @@ import org.antlr.netbeans.editor.text.TrackingFidelity;
 import org.antlr.netbeans.editor.text.TrackingPosition;
 import org.antlr.netbeans.editor.text.TrackingPositionRegion;
 import org.antlr.netbeans.editor.text.VersionedDocument;
+import org.netbeans.api.annotations.common.CheckForNull;
 import org.netbeans.api.annotations.common.NonNull;
 import org.openide.util.Parameters;
 
@@ -25,19 +28,31 @@ import org.openide.util.Parameters;
  */
 public class NbDocumentVersion implements DocumentVersion {
 
+    /**
+     * The net changes across {@code CHECKPOINT_INTERVAL^level} versions are memoized on each version whose number is a
+     * multiple of that span, so translating between any two versions takes a logarithmic number of steps.
+     */
+    private static final int CHECKPOINT_INTERVAL = 16;
+    private static final int MAXIMUM_CHECKPOINT_LEVEL = 4;
+
     @NonNull
     private final NbVersionedDocument textBuffer;
     private final int versionNumber;
     @NonNull
-    private final LineTextCache lineData;
+    private final TextCache lineData;
 
     private NbDocumentSnapshot snapshot;
 
     private final Object lock = new Object();
     private NormalizedDocumentChangeCollection changes;
     private NbDocumentVersion next;
+    /**
+     * The memoized changes to later checkpoint versions, indexed by checkpoint level. These only reference newer
+     * versions, so they do not keep older versions reachable. Guarded by {@link #lock}.
+     */
+    private ComposedChanges[] composedChanges;
 
-    public NbDocumentVersion(@NonNull NbVersionedDocument textBuffer, int versionNumber, @NonNull LineTextCache lineData) {
+    public NbDocumentVersion(@NonNull NbVersionedDocument textBuffer, int versionNumber, @NonNull TextCache lineData) {
         Parameters.notNull("textBuffer", textBuffer);
         Parameters.notNull("lineData", lineData);
 
@@ -75,7 +90,41 @@ public class NbDocumentVersion implements DocumentVersion {
         }
     }
 
-    @NonNull LineTextCache getLineData() {
+    @Override
+    public NormalizedDocumentChangeCollection getChangesTo(DocumentVersion target) {
+        Parameters.notNull("target", target);
+        if (!(target instanceof NbDocumentVersion) || !target.getVersionedDocument().equals(getVersionedDocument())) {
+            throw new IllegalArgumentException("The target version is not from the same document.");
+        }
+
+        if (target.getVersionNumber() < versionNumber) {
+            throw new IllegalArgumentException("The target version must not be older than this version.");
+        }
+
+        List<NormalizedDocumentChangeCollection> steps = new ArrayList<>();
+        NbDocumentVersion current = this;
+        while (current.versionNumber < target.getVersionNumber()) {
+            ComposedChanges step = current.getLargestStep(target.getVersionNumber());
+            if (step == null) {
+                break;
+            }
+
+            steps.add(step.changes);
+            current = step.target;
+        }
+
+        if (current != target) {
+            throw new IllegalArgumentException("The target version is not reachable from this version.");
+        }
+
+        if (steps.size() == 1) {
+            return steps.get(0);
+        }
+
+        return compose(steps);
+    }
+
+    @NonNull TextCache getLineData() {
         return lineData;
     }
 
@@ -150,6 +199,93 @@ public class NbDocumentVersion implements DocumentVersion {
         return new NbTrackingPositionRegion(trackingStart, trackingEnd);
     }
 
+    /**
+     * Gets the longest memoized step from this version which does not pass {@code limit}, or {@code null} if this is
+     * the latest version.
+     */
+    @CheckForNull
+    private ComposedChanges getLargestStep(int limit) {
+        int span = 1;
+        int level = 0;
+        while (level < MAXIMUM_CHECKPOINT_LEVEL && versionNumber % (span * CHECKPOINT_INTERVAL) == 0 && versionNumber + span * CHECKPOINT_INTERVAL <= limit) {
+            span *= CHECKPOINT_INTERVAL;
+            level++;
+        }
+
+        for (; level > 0; level--) {
+            ComposedChanges step = getComposedChanges(level);
+            if (step != null) {
+                return step;
+            }
+        }
+
+        synchronized (lock) {
+            if (next == null) {
+                return null;
+            }
+
+            return new ComposedChanges(changes, next);
+        }
+    }
+
+    /**
+     * Gets the net changes from this version to the version {@code CHECKPOINT_INTERVAL^level} versions later, or
+     * {@code null} if that version does not exist yet.
+     */
+    @CheckForNull
+    private ComposedChanges getComposedChanges(int level) {
+        assert level > 0;
+        synchronized (lock) {
+            if (composedChanges != null && composedChanges[level] != null) {
+                return composedChanges[level];
+            }
+        }
+
+        List<NormalizedDocumentChangeCollection> steps = new ArrayList<>(CHECKPOINT_INTERVAL);
+        NbDocumentVersion current = this;
+        for (int i = 0; i < CHECKPOINT_INTERVAL; i++) {
+            ComposedChanges step;
+            if (level == 1) {
+                synchronized (current.lock) {
+                    step = current.next != null ? new ComposedChanges(current.changes, current.next) : null;
+                }
+            } else {
+                step = current.getComposedChanges(level - 1);
+            }
+
+            if (step == null) {
+                return null;
+            }
+
+            steps.add(step.changes);
+            current = step.target;
+        }
+
+        ComposedChanges result = new ComposedChanges(compose(steps), current);
+        synchronized (lock) {
+            if (composedChanges == null) {
+                composedChanges = new ComposedChanges[MAXIMUM_CHECKPOINT_LEVEL + 1];
+            }
+
+            if (composedChanges[level] == null) {
+                composedChanges[level] = result;
+            }
+
+            return composedChanges[level];
+        }
+    }
+
+    @NonNull
+    private static NormalizedDocumentChangeCollection compose(@NonNull List<NormalizedDocumentChangeCollection> steps) {
+        NbNormalizedDocumentChangeCollection result = new NbNormalizedDocumentChangeCollection();
+        for (NormalizedDocumentChangeCollection step : steps) {
+            result.compose(step);
+        }
+
+        result.freeze();
+        return result;
+    }
+
     @NonNull NbDocumentVersion translate(@NonNull NormalizedDocumentChangeCollection changes) {
         Parameters.notNull("changes", changes);
 
@@ -158,7 +294,7 @@ public class NbDocumentVersion implements DocumentVersion {
                 throw new IllegalStateException();
             }
 
-            LineTextCache nextLineData = lineData.applyChanges(changes);
+            TextCache nextLineData = lineData.applyChanges(changes);
             NbDocumentVersion nextVersion = new NbDocumentVersion(textBuffer, versionNumber + 1, nextLineData);
             this.changes = changes;
             this.next = nextVersion;
@@ -166,4 +302,16 @@ public class NbDocumentVersion implements DocumentVersion {
         }
     }
 
+    private static final class ComposedChanges {
+        @NonNull
+        private final NormalizedDocumentChangeCollection changes;
+        @NonNull
+        private final NbDocumentVersion target;
+
+        public ComposedChanges(@NonNull NormalizedDocumentChangeCollection changes, @NonNull NbDocumentVersion target) {
+            this.changes = changes;
+            this.target = target;
+        }
+    }
+
 }
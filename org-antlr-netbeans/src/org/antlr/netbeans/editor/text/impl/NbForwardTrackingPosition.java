@@ -59,28 +59,26 @@ public class NbForwardTrackingPosition extends NbTrackingPosition {
         }
 
         boolean positive = getBias() == TrackingPosition.Bias.Forward;
-        for (DocumentVersion currentVersion = sourceVersion; currentVersion != null && currentVersion.getVersionNumber() < version.getVersionNumber(); currentVersion = currentVersion.getNext()) {
-            NormalizedDocumentChangeCollection changes = currentVersion.getChanges();
-            DocumentChange relevantChange = null;
-            for (DocumentChange change : changes) {
-                boolean relevant = sourcePosition >= change.getOldOffset();
-                if (relevant) {
-                    relevantChange = change;
-                } else {
-                    break;
-                }
+        NormalizedDocumentChangeCollection changes = sourceVersion.getChangesTo(version);
+        DocumentChange relevantChange = null;
+        for (DocumentChange change : changes) {
+            boolean relevant = sourcePosition >= change.getOldOffset();
+            if (relevant) {
+                relevantChange = change;
+            } else {
+                break;
             }
-            
-            if (relevantChange != null) {
-                if (sourcePosition >= relevantChange.getOldOffset() && sourcePosition <= relevantChange.getOldEnd()) {
-                    sourcePosition = relevantChange.getNewOffset();
-                    if (positive) {
-                        sourcePosition += relevantChange.getNewLength();
-                    }
-                } else {
-                    sourcePosition += relevantChange.getNewOffset() - relevantChange.getOldOffset();
-                    sourcePosition += relevantChange.getDelta();
+        }
+
+        if (relevantChange != null) {
+            if (sourcePosition >= relevantChange.getOldOffset() && sourcePosition <= relevantChange.getOldEnd()) {
+                sourcePosition = relevantChange.getNewOffset();
+                if (positive) {
+                    sourcePosition += relevantChange.getNewLength();
                 }
+            } else {
+                sourcePosition += relevantChange.getNewOffset() - relevantChange.getOldOffset();
+                sourcePosition += relevantChange.getDelta();
             }
         }
 
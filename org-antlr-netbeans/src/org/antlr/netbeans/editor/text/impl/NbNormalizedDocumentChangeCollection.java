@@ -30,6 +30,21 @@ final class NbNormalizedDocumentChangeCollection extends AbstractList<DocumentCh
         readOnly = true;
     }
 
+    /**
+     * Appends the changes of the following version, so this collection describes the changes from its original old
+     * state to the new state of {@code next}.
+     */
+    void compose(@NonNull NormalizedDocumentChangeCollection next) {
+        Parameters.notNull("next", next);
+
+        // The old offsets of a normalized collection are not affected by the changes after them, so applying the
+        // changes last to first makes the old offset of each one a position in the current state.
+        for (int i = next.size() - 1; i >= 0; i--) {
+            DocumentChange change = next.get(i);
+            add(new NbDocumentChange(change.getOldOffset(), change.getOldText(), change.getOldOffset(), change.getNewText(), change.getLineCountDelta()));
+        }
+    }
+
     @Override
     public boolean getIncludesLineChanges() {
         return includesLineChanges;
@@ -39,6 +39,10 @@ public class NbVersionedDocument implements VersionedDocument {
     // -J-Dorg.antlr.netbeans.editor.text.impl.NbVersionedDocument.level=FINE
     private static final Logger LOGGER = Logger.getLogger(NbVersionedDocument.class.getName());
 
+    // -J-Dorg.antlr.netbeans.editor.text.impl.NbVersionedDocument.textCache=lines
+    private static final String TEXT_CACHE_PROPERTY = NbVersionedDocument.class.getName() + ".textCache";
+    private static final boolean USE_LINE_TEXT_CACHE = "lines".equals(System.getProperty(TEXT_CACHE_PROPERTY));
+
     private static final WeakReference<NbDocumentVersion> NullVersion = new WeakReference<>(null);
 
     @NullAllowed
@@ -124,16 +128,25 @@ public class NbVersionedDocument implements VersionedDocument {
             }
 
             try {
-                String text;
                 Charset charset = FileEncodingQuery.getEncoding(fileObject);
-                if (charset != null) {
-                    text = fileObject.asText(charset.name());
+                TextCache textCache = charset != null ? FileTextCache.open(fileObject, charset) : null;
+
+                if (textCache != null) {
+                    version = new NbDocumentVersion(this, latestVersionNumber + 1, textCache);
+                    // the text is read from the file again on demand, so it is not retained after the last snapshot
+                    latestVersion = new WeakReference<>(version);
                 } else {
-                    text = fileObject.asText();
+                    String text;
+                    if (charset != null) {
+                        text = fileObject.asText(charset.name());
+                    } else {
+                        text = fileObject.asText();
+                    }
+
+                    version = new NbDocumentVersion(this, latestVersionNumber + 1, createTextCache(text));
+                    latestVersion = new SoftReference<>(version);
                 }
 
-                version = new NbDocumentVersion(this, latestVersionNumber + 1, new LineTextCache(text));
-                latestVersion = new SoftReference<>(version);
                 latestVersionNumber = version.getVersionNumber();
                 pendingChanges = new NbNormalizedDocumentChangeCollection();
                 return version;
@@ -154,7 +167,7 @@ public class NbVersionedDocument implements VersionedDocument {
 
                 if (version == null) {
                     try {
-                        version = new NbDocumentVersion(this, latestVersionNumber + 1, new LineTextCache(document.getText(0, document.getLength())));
+                        version = new NbDocumentVersion(this, latestVersionNumber + 1, createTextCache(document.getText(0, document.getLength())));
                     } catch (BadLocationException ex) {
                         LOGGER.log(Level.WARNING, "An exception occurred while tracking versioned document changes.", ex);
                         throw new IllegalStateException("Shouldn't be reachable.", ex);
@@ -173,6 +186,18 @@ public class NbVersionedDocument implements VersionedDocument {
         }
     }
 
+    /**
+     * Creates the text storage for a new version. The compact {@link RopeTextCache} is used unless the
+     * {@code textCache} system property selects the line-based {@link LineTextCache}.
+     */
+    private static @NonNull TextCache createTextCache(@NonNull String text) {
+        if (USE_LINE_TEXT_CACHE) {
+            return new LineTextCache(text);
+        }
+
+        return new RopeTextCache(text);
+    }
+
     private void addPendingChange(@NonNull NbDocumentChange change) {
         Parameters.notNull("change", change);
         pendingChanges.add(change);
@@ -0,0 +1,313 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.editor.text.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.antlr.netbeans.editor.text.DocumentChange;
+import org.antlr.netbeans.editor.text.NormalizedDocumentChangeCollection;
+import org.netbeans.api.annotations.common.NonNull;
+import org.openide.util.Parameters;
+
+/**
+ * A {@link TextCache} which stores the document text as a sequence of immutable {@link TextChunk}s. Applying a
+ * change only creates new chunks for the text around the change, and the following version shares every other chunk
+ * with this one. The start position and the number of preceding line breaks of each chunk are stored in primitive
+ * arrays, so a position or line lookup is a binary search over the chunks followed by a binary search over the line
+ * breaks of a single chunk.
+ *
+ * @author Sam Harwell
+ */
+public final class RopeTextCache implements TextCache {
+
+    static final int MAXIMUM_CHUNK_LENGTH = 8192;
+    /** Chunks shorter than this are merged with their neighbors when the text around them changes. */
+    static final int MINIMUM_CHUNK_LENGTH = 2048;
+
+    @NonNull
+    private final TextChunk[] chunks;
+    /** The position of the start of each chunk. */
+    @NonNull
+    private final int[] chunkOffsets;
+    /** The number of {@code '\n'} characters before the start of each chunk. */
+    @NonNull
+    private final int[] chunkLineOffsets;
+
+    private final int length;
+    private final int lineCount;
+
+    public RopeTextCache(@NonNull String data) {
+        this(split(data));
+    }
+
+    private RopeTextCache(@NonNull List<TextChunk> chunks) {
+        this.chunks = chunks.toArray(new TextChunk[chunks.size()]);
+        this.chunkOffsets = new int[this.chunks.length];
+        this.chunkLineOffsets = new int[this.chunks.length];
+
+        int offset = 0;
+        int lineBreaks = 0;
+        for (int i = 0; i < this.chunks.length; i++) {
+            TextChunk chunk = this.chunks[i];
+            assert chunk.length() > 0 : "Empty chunks are not stored.";
+            chunkOffsets[i] = offset;
+            chunkLineOffsets[i] = lineBreaks;
+            offset += chunk.length();
+            lineBreaks += chunk.getLineBreakCount();
+        }
+
+        this.length = offset;
+        this.lineCount = lineBreaks + 1;
+    }
+
+    private static List<TextChunk> split(String data) {
+        Parameters.notNull("data", data);
+
+        Builder builder = new Builder();
+        builder.appendText(data, 0, data.length());
+        return builder.finish();
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public char charAt(int position) {
+        int chunk = getChunkFromPosition(position);
+        return chunks[chunk].charAt(position - chunkOffsets[chunk]);
+    }
+
+    @Override
+    public int getLineNumberFromPosition(int position) {
+        if (chunks.length == 0) {
+            return 0;
+        }
+
+        int chunk = getChunkFromPosition(position);
+        return chunkLineOffsets[chunk] + chunks[chunk].getLineBreaksBefore(position - chunkOffsets[chunk]);
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        if (line == 0) {
+            return 0;
+        }
+
+        // find the last chunk with fewer than 'line' line breaks before it; it contains the line break ending the
+        // previous line
+        int low = 0;
+        int high = chunks.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (chunkLineOffsets[mid] < line) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return chunkOffsets[low] + chunks[low].getLineBreak(line - chunkLineOffsets[low] - 1);
+    }
+
+    @Override
+    public int getLineEnd(int line) {
+        if (line == lineCount - 1) {
+            return length;
+        }
+
+        return getLineStart(line + 1);
+    }
+
+    @Override
+    public String getLineText(int line) {
+        int start = getLineStart(line);
+        int end = getLineEnd(line);
+        StringBuilder builder = new StringBuilder(end - start);
+        appendTo(builder, start, end);
+        return builder.toString();
+    }
+
+    @Override
+    public void appendTo(StringBuilder builder, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+
+        for (int chunk = getChunkFromPosition(start); start < end; chunk++) {
+            int chunkStart = chunkOffsets[chunk];
+            int chunkEnd = Math.min(end, chunkStart + chunks[chunk].length());
+            chunks[chunk].appendTo(builder, start - chunkStart, chunkEnd - chunkStart);
+            start = chunkEnd;
+        }
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] destination, int destinationOffset) {
+        if (start >= end) {
+            return;
+        }
+
+        for (int chunk = getChunkFromPosition(start); start < end; chunk++) {
+            int chunkStart = chunkOffsets[chunk];
+            int chunkEnd = Math.min(end, chunkStart + chunks[chunk].length());
+            chunks[chunk].getChars(start - chunkStart, chunkEnd - chunkStart, destination, destinationOffset);
+            destinationOffset += chunkEnd - start;
+            start = chunkEnd;
+        }
+    }
+
+    @Override
+    public CharSequence getChunk(int position) {
+        if (chunks.length == 0) {
+            return "";
+        }
+
+        return chunks[getChunkFromPosition(position)];
+    }
+
+    @Override
+    public int getChunkStart(int position) {
+        if (chunks.length == 0) {
+            return 0;
+        }
+
+        return chunkOffsets[getChunkFromPosition(position)];
+    }
+
+    @Override
+    public RopeTextCache applyChanges(NormalizedDocumentChangeCollection changes) {
+        Parameters.notNull("changes", changes);
+
+        Builder builder = new Builder();
+        int position = 0;
+        int delta = 0;
+        for (DocumentChange change : changes) {
+            assert change.getOldOffset() >= position : "Changes should be normalized.";
+            copyTo(builder, position, change.getOldOffset());
+            String newText = change.getNewText();
+            builder.appendText(newText, 0, newText.length());
+            position = change.getOldOffset() + change.getOldLength();
+            delta += change.getDelta();
+        }
+
+        copyTo(builder, position, length);
+
+        RopeTextCache next = new RopeTextCache(builder.finish());
+        assert next.length == length + delta;
+        return next;
+    }
+
+    private void copyTo(Builder builder, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+
+        for (int chunk = getChunkFromPosition(start); start < end; chunk++) {
+            int chunkStart = chunkOffsets[chunk];
+            int chunkEnd = chunkStart + chunks[chunk].length();
+            if (start == chunkStart && chunkEnd <= end) {
+                builder.appendChunk(chunks[chunk]);
+            } else {
+                builder.appendText(chunks[chunk], start - chunkStart, Math.min(end, chunkEnd) - chunkStart);
+            }
+
+            start = Math.min(end, chunkEnd);
+        }
+    }
+
+    private int getChunkFromPosition(int position) {
+        int chunk = Arrays.binarySearch(chunkOffsets, position);
+        if (chunk < 0) {
+            chunk = -(chunk + 1) - 1;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Collects the chunks of a new version. Unchanged chunks are reused; changed text is buffered and split into
+     * chunks of roughly equal length, absorbing short neighboring chunks so repeated edits at the same location do not
+     * fragment the text.
+     */
+    private static final class Builder {
+        private final List<TextChunk> chunks = new ArrayList<>();
+        private final StringBuilder pending = new StringBuilder();
+
+        public void appendText(@NonNull String text, int start, int end) {
+            while (start < end) {
+                int count = Math.min(end - start, 2 * MAXIMUM_CHUNK_LENGTH - pending.length());
+                pending.append(text, start, start + count);
+                start += count;
+                flushFull();
+            }
+        }
+
+        public void appendText(@NonNull TextChunk chunk, int start, int end) {
+            chunk.appendTo(pending, start, end);
+            flushFull();
+        }
+
+        public void appendChunk(@NonNull TextChunk chunk) {
+            if (chunk.length() < MINIMUM_CHUNK_LENGTH || (pending.length() > 0 && pending.length() < MINIMUM_CHUNK_LENGTH)) {
+                chunk.appendTo(pending, 0, chunk.length());
+                if (pending.length() >= MINIMUM_CHUNK_LENGTH) {
+                    flush();
+                }
+
+                return;
+            }
+
+            flush();
+            chunks.add(chunk);
+        }
+
+        @NonNull
+        public List<TextChunk> finish() {
+            flush();
+            return chunks;
+        }
+
+        /**
+         * Creates a full chunk from the start of the pending text once enough text is buffered that the remainder is
+         * not short.
+         */
+        private void flushFull() {
+            if (pending.length() >= 2 * MAXIMUM_CHUNK_LENGTH) {
+                chunks.add(TextChunk.create(pending, 0, MAXIMUM_CHUNK_LENGTH));
+                pending.delete(0, MAXIMUM_CHUNK_LENGTH);
+            }
+        }
+
+        private void flush() {
+            int pendingLength = pending.length();
+            if (pendingLength == 0) {
+                return;
+            }
+
+            int count = (pendingLength + MAXIMUM_CHUNK_LENGTH - 1) / MAXIMUM_CHUNK_LENGTH;
+            int start = 0;
+            for (int i = 1; i <= count; i++) {
+                int end = (int)((long)pendingLength * i / count);
+                chunks.add(TextChunk.create(pending, start, end));
+                start = end;
+            }
+
+            pending.setLength(0);
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.editor.text.impl;
+
+import org.antlr.netbeans.editor.text.NormalizedDocumentChangeCollection;
+import org.netbeans.api.annotations.common.NonNull;
+
+/**
+ * The immutable text and line index of a single {@link NbDocumentVersion}. Lines are separated by {@code '\n'}; the
+ * text of every line except the last includes its line break.
+ *
+ * @author Sam Harwell
+ */
+public interface TextCache {
+
+    int getLength();
+
+    int getLineCount();
+
+    char charAt(int position);
+
+    int getLineNumberFromPosition(int position);
+
+    int getLineStart(int line);
+
+    /**
+     * Gets the end of a line, including its line break.
+     */
+    int getLineEnd(int line);
+
+    /**
+     * Gets the text of a line, including its line break.
+     */
+    @NonNull String getLineText(int line);
+
+    /**
+     * Appends the text between {@code start} (inclusive) and {@code end} (exclusive) to {@code builder}.
+     */
+    void appendTo(@NonNull StringBuilder builder, int start, int end);
+
+    /**
+     * Copies the text between {@code start} (inclusive) and {@code end} (exclusive) to {@code destination}.
+     */
+    void getChars(int start, int end, @NonNull char[] destination, int destinationOffset);
+
+    /**
+     * Gets the contiguous piece of stored text containing {@code position}. The piece is not copied, and starts at
+     * {@link #getChunkStart getChunkStart(position)}.
+     */
+    @NonNull CharSequence getChunk(int position);
+
+    int getChunkStart(int position);
+
+    @NonNull TextCache applyChanges(@NonNull NormalizedDocumentChangeCollection changes);
+
+}
@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.editor.text.impl;
+
+import java.util.Arrays;
+import org.netbeans.api.annotations.common.NonNull;
+
+/**
+ * An immutable piece of document text. Text containing only Latin-1 characters is stored with one byte per
+ * character. The positions following each {@code '\n'} in the chunk are stored in a primitive array so line lookups
+ * do not need to scan the text.
+ *
+ * @author Sam Harwell
+ */
+final class TextChunk implements CharSequence {
+
+    private static final int[] EMPTY_LINE_BREAKS = new int[0];
+
+    private final byte[] latin1;
+    private final char[] chars;
+    /** The offset following each {@code '\n'} in the chunk, in increasing order. */
+    private final int[] lineBreaks;
+
+    private TextChunk(byte[] latin1, char[] chars, int[] lineBreaks) {
+        this.latin1 = latin1;
+        this.chars = chars;
+        this.lineBreaks = lineBreaks;
+    }
+
+    @NonNull
+    public static TextChunk create(@NonNull CharSequence text, int start, int end) {
+        int length = end - start;
+        int lineBreakCount = 0;
+        boolean compact = true;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                lineBreakCount++;
+            } else if (c > 0xFF) {
+                compact = false;
+            }
+        }
+
+        int[] lineBreaks = lineBreakCount == 0 ? EMPTY_LINE_BREAKS : new int[lineBreakCount];
+        int lineBreak = 0;
+        if (compact) {
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(start + i);
+                data[i] = (byte)c;
+                if (c == '\n') {
+                    lineBreaks[lineBreak++] = i + 1;
+                }
+            }
+
+            return new TextChunk(data, null, lineBreaks);
+        }
+
+        char[] data = new char[length];
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(start + i);
+            data[i] = c;
+            if (c == '\n') {
+                lineBreaks[lineBreak++] = i + 1;
+            }
+        }
+
+        return new TextChunk(null, data, lineBreaks);
+    }
+
+    @Override
+    public int length() {
+        return latin1 != null ? latin1.length : chars.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (latin1 != null) {
+            return (char)(latin1[index] & 0xFF);
+        }
+
+        return chars[index];
+    }
+
+    public int getLineBreakCount() {
+        return lineBreaks.length;
+    }
+
+    /**
+     * Gets the offset following the {@code index}th {@code '\n'} in the chunk.
+     */
+    public int getLineBreak(int index) {
+        return lineBreaks[index];
+    }
+
+    /**
+     * Gets the number of {@code '\n'} characters before {@code offset} in the chunk.
+     */
+    public int getLineBreaksBefore(int offset) {
+        int index = Arrays.binarySearch(lineBreaks, offset);
+        return index >= 0 ? index + 1 : -(index + 1);
+    }
+
+    public void appendTo(@NonNull StringBuilder builder, int start, int end) {
+        if (latin1 != null) {
+            for (int i = start; i < end; i++) {
+                builder.append((char)(latin1[i] & 0xFF));
+            }
+        } else {
+            builder.append(chars, start, end - start);
+        }
+    }
+
+    public void getChars(int start, int end, @NonNull char[] destination, int destinationOffset) {
+        if (latin1 != null) {
+            for (int i = start; i < end; i++) {
+                destination[destinationOffset++] = (char)(latin1[i] & 0xFF);
+            }
+        } else {
+            System.arraycopy(chars, start, destination, destinationOffset, end - start);
+        }
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+        if (start < 0 || end > length() || end < start) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        StringBuilder builder = new StringBuilder(end - start);
+        appendTo(builder, start, end);
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length());
+    }
+
+}
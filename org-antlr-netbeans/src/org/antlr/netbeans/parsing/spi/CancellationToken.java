@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi;
+
+import java.util.concurrent.CancellationException;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+
+/**
+ * Allows long-running parser work to stop early when its result is no longer needed, e.g. because a newer version
+ * of the document was scheduled for the same data. The {@link ParserTaskManager} installs a token on the thread
+ * executing each task, and lexers, token streams and tree walkers poll {@link #getCurrent()}.
+ *
+ * @author Sam Harwell
+ */
+public abstract class CancellationToken {
+
+    /**
+     * A token which is never cancelled.
+     */
+    public static final CancellationToken NONE = new CancellationToken() {
+
+        @Override
+        public boolean isCancellationRequested() {
+            return false;
+        }
+
+    };
+
+    private static final ThreadLocal<CancellationToken> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Gets the token for the parser work executing on the current thread.
+     *
+     * @return The current token, or {@link #NONE} if no token is installed on the current thread.
+     */
+    @NonNull
+    public static CancellationToken getCurrent() {
+        CancellationToken token = CURRENT.get();
+        return token != null ? token : NONE;
+    }
+
+    /**
+     * Installs a token on the current thread.
+     *
+     * @param token The token to install, or {@code null} to remove the current token.
+     * @return The previously installed token, or {@code null} if no token was installed.
+     */
+    @CheckForNull
+    public static CancellationToken setCurrent(@NullAllowed CancellationToken token) {
+        CancellationToken previous = CURRENT.get();
+        if (token != null) {
+            CURRENT.set(token);
+        } else {
+            CURRENT.remove();
+        }
+
+        return previous;
+    }
+
+    public abstract boolean isCancellationRequested();
+
+    public final void throwIfCancellationRequested() {
+        if (isCancellationRequested()) {
+            throw new CancellationException();
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi;
+
+import java.util.concurrent.ForkJoinPool;
+import org.antlr.netbeans.parsing.spi.impl.ParserTaskManagerImpl;
+import org.netbeans.api.annotations.common.NonNull;
+
+/**
+ * Provides the pool shared by lexers and parsers which split the work for a single document into chunks. The
+ * parallelism of the pool is the combined size of the foreground and background executors of the
+ * {@link ParserTaskManager}, so the {@code foregroundThreads} and {@code backgroundThreads} system properties also
+ * bound the threads used for parallel lexing and parsing.
+ *
+ * @author Sam Harwell
+ */
+public final class ParallelParserPool {
+
+    private ParallelParserPool() {
+    }
+
+    @NonNull
+    public static ForkJoinPool getDefault() {
+        return PoolHolder.INSTANCE;
+    }
+
+    /**
+     * Holds the pool, which is created when it is first used.
+     */
+    private static final class PoolHolder {
+        public static final ForkJoinPool INSTANCE =
+            new ForkJoinPool(ParserTaskManagerImpl.getForegroundThreadCount() + ParserTaskManagerImpl.getBackgroundThreadCount());
+    }
+
+}
@@ -71,6 +71,17 @@ public class ParserDataDefinition<T> {
         return false;
     }
 
+    /** Gets the approximate number of bytes retained by cached data per character
+     *  of the snapshot it was computed from. The parser data cache uses this value
+     *  to decide which data to release first when it exceeds its memory budget.
+     *  The default value of 1 suits small results such as anchor lists; parse
+     *  trees and token arrays should override this method.
+     * @return
+     */
+    public int getCacheWeight() {
+        return 1;
+    }
+
     @CheckForNull
     public Class<? extends ParserTaskScheduler> getScheduler() {
         return scheduler;
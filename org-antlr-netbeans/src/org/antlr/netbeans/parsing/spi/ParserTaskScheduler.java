@@ -22,11 +22,13 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.antlr.netbeans.editor.text.VersionedDocument;
+import org.antlr.netbeans.parsing.spi.impl.AdaptiveParseDelayPolicy;
 import org.antlr.netbeans.parsing.spi.impl.CurrentDocumentParserTaskScheduler;
 import org.antlr.netbeans.parsing.spi.impl.CursorSensitiveParserTaskScheduler;
 import org.antlr.netbeans.parsing.spi.impl.DataInputParserTaskScheduler;
 import org.antlr.netbeans.parsing.spi.impl.DocumentContentParserTaskScheduler;
 import org.antlr.netbeans.parsing.spi.impl.ManualParserTaskScheduler;
+import org.antlr.netbeans.parsing.spi.impl.ParserTaskMetrics;
 import org.antlr.netbeans.parsing.spi.impl.SelectedNodesParserTaskScheduler;
 import org.netbeans.api.annotations.common.NonNull;
 import org.netbeans.api.annotations.common.NullAllowed;
@@ -140,11 +142,21 @@ public abstract class ParserTaskScheduler {
         }
     }
 
+    /**
+     * Schedules the data associated with this scheduler after {@link #getParseDelayMilliseconds()}. If
+     * {@link #isParseDelayAdaptive()} returns {@code true}, the delay for each definition is chosen from its observed
+     * cost with {@link AdaptiveParseDelayPolicy} instead, and the default delay is used for definitions whose cost is
+     * not known yet.
+     */
     public void schedule(ParseContext context) {
-        schedule(context, getParseDelayMilliseconds(), TimeUnit.MILLISECONDS);
+        scheduleData(context, getParseDelayMilliseconds(), TimeUnit.MILLISECONDS, isParseDelayAdaptive());
     }
 
     public void schedule(ParseContext context, long delay, TimeUnit timeUnit) {
+        scheduleData(context, delay, timeUnit, false);
+    }
+
+    private void scheduleData(ParseContext context, long delay, TimeUnit timeUnit, boolean adaptive) {
         if (context == null) {
             return;
         }
@@ -175,8 +187,8 @@ public abstract class ParserTaskScheduler {
                 for (ParserDataDefinition<?> definition : currentScheduledData) {
                     Reference<? extends ScheduledFuture<?>> previousRef = existing.remove(definition);
                     ScheduledFuture<?> previous = previousRef != null ? previousRef.get() : null;
-                    if (previous != null) {
-                        previous.cancel(false);
+                    if (previous != null && previous.cancel(false)) {
+                        ParserTaskMetrics.getDefault().recordCancellation(definition);
                     }
                 }
             }
@@ -184,10 +196,19 @@ public abstract class ParserTaskScheduler {
             if (LOGGER.isLoggable(Level.FINE)) {
                 FileObject fileObject = document.getFileObject();
                 String path = fileObject != null ? fileObject.getPath() : "";
-                LOGGER.log(Level.FINE, "Rescheduling {0} data, document={1}, delay={2}{3}, data={4}", new Object[] { getClass().getSimpleName(), path, delay, getTimeUnitDisplay(timeUnit), currentScheduledData });
+                LOGGER.log(Level.FINE, "Rescheduling {0} data, document={1}, delay={2}{3}, adaptive={4}, data={5}", new Object[] { getClass().getSimpleName(), path, delay, getTimeUnitDisplay(timeUnit), adaptive, currentScheduledData });
+            }
+
+            Map<ParserDataDefinition<?>, ScheduledFuture<ParserData<?>>> futures;
+            if (adaptive) {
+                futures = new HashMap<>();
+                for (Map.Entry<Long, Set<ParserDataDefinition<?>>> entry : groupByDelay(document, currentScheduledData, timeUnit.toMillis(delay)).entrySet()) {
+                    futures.putAll(getTaskManager().scheduleData(context, entry.getValue(), entry.getKey(), TimeUnit.MILLISECONDS));
+                }
+            } else {
+                futures = getTaskManager().scheduleData(context, currentScheduledData, delay, timeUnit);
             }
 
-            Map<ParserDataDefinition<?>, ScheduledFuture<ParserData<?>>> futures = getTaskManager().scheduleData(context, currentScheduledData, delay, timeUnit);
             synchronized (existing) {
                 for (Map.Entry<ParserDataDefinition<?>, ScheduledFuture<ParserData<?>>> entry : futures.entrySet()) {
                     existing.put(entry.getKey(), new WeakReference<>(entry.getValue()));
@@ -197,10 +218,14 @@ public abstract class ParserTaskScheduler {
     }
 
     protected void schedule(ParseContext context, Collection<ParserTaskProvider> tasks) {
-        schedule(context, tasks, getParseDelayMilliseconds(), TimeUnit.MILLISECONDS);
+        scheduleTasks(context, tasks, getParseDelayMilliseconds(), TimeUnit.MILLISECONDS, isParseDelayAdaptive());
     }
 
     protected void schedule(ParseContext context, Collection<? extends ParserTaskProvider> taskProviders, long delay, TimeUnit timeUnit) {
+        scheduleTasks(context, taskProviders, delay, timeUnit, false);
+    }
+
+    private void scheduleTasks(ParseContext context, Collection<? extends ParserTaskProvider> taskProviders, long delay, TimeUnit timeUnit, boolean adaptive) {
         if (context == null) {
             return;
         }
@@ -231,8 +256,8 @@ public abstract class ParserTaskScheduler {
                 for (ParserTaskProvider provider : currentScheduledProviders) {
                     Reference<? extends ScheduledFuture<?>> previousRef = existing.remove(provider);
                     ScheduledFuture<?> previous = previousRef != null ? previousRef.get() : null;
-                    if (previous != null) {
-                        previous.cancel(false);
+                    if (previous != null && previous.cancel(false)) {
+                        ParserTaskMetrics.getDefault().recordCancellation(provider.getDefinition());
                     }
                 }
             }
@@ -240,10 +265,20 @@ public abstract class ParserTaskScheduler {
             if (LOGGER.isLoggable(Level.FINE)) {
                 FileObject fileObject = document.getFileObject();
                 String path = fileObject != null ? fileObject.getPath() : "";
-                LOGGER.log(Level.FINE, "Rescheduling {0} tasks, document={1}, delay={2}{3}, data={4}", new Object[] { getClass().getSimpleName(), path, delay, getTimeUnitDisplay(timeUnit), currentScheduledProviders });
+                LOGGER.log(Level.FINE, "Rescheduling {0} tasks, document={1}, delay={2}{3}, adaptive={4}, data={5}", new Object[] { getClass().getSimpleName(), path, delay, getTimeUnitDisplay(timeUnit), adaptive, currentScheduledProviders });
+            }
+
+            Map<ParserTaskProvider, ScheduledFuture<Collection<? extends ParserData<?>>>> futures;
+            if (adaptive) {
+                futures = new HashMap<>();
+                for (ParserTaskProvider provider : currentScheduledProviders) {
+                    long providerDelay = AdaptiveParseDelayPolicy.getDefault().getDelayMilliseconds(document, provider.getDefinition(), timeUnit.toMillis(delay));
+                    futures.put(provider, getTaskManager().scheduleTask(context, provider, providerDelay, TimeUnit.MILLISECONDS));
+                }
+            } else {
+                futures = getTaskManager().scheduleTask(context, currentScheduledProviders, delay, timeUnit);
             }
 
-            Map<ParserTaskProvider, ScheduledFuture<Collection<? extends ParserData<?>>>> futures = getTaskManager().scheduleTask(context, currentScheduledProviders, delay, timeUnit);
             synchronized (existing) {
                 for (Map.Entry<ParserTaskProvider, ScheduledFuture<Collection<? extends ParserData<?>>>> entry : futures.entrySet()) {
                     existing.put(entry.getKey(), new WeakReference<>(entry.getValue()));
@@ -252,6 +287,22 @@ public abstract class ParserTaskScheduler {
         }
     }
 
+    private static Map<Long, Set<ParserDataDefinition<?>>> groupByDelay(VersionedDocument document, Set<ParserDataDefinition<?>> definitions, long defaultDelay) {
+        Map<Long, Set<ParserDataDefinition<?>>> result = new HashMap<>();
+        for (ParserDataDefinition<?> definition : definitions) {
+            long delay = AdaptiveParseDelayPolicy.getDefault().getDelayMilliseconds(document, definition, defaultDelay);
+            Set<ParserDataDefinition<?>> group = result.get(delay);
+            if (group == null) {
+                group = new HashSet<>();
+                result.put(delay, group);
+            }
+
+            group.add(definition);
+        }
+
+        return result;
+    }
+
     protected static boolean hasAssociatedDataDefinitions(@NonNull Class<? extends ParserTaskScheduler> schedulerClass, @NullAllowed String mimeType) {
         if (mimeType == null) {
             return false;
@@ -270,6 +321,15 @@ public abstract class ParserTaskScheduler {
         return 500;
     }
 
+    /**
+     * Determines whether {@link #schedule(ParseContext)} adapts the delay to the observed cost of the work. Only
+     * schedulers which debounce user input should return {@code true}; schedulers whose events are already debounced
+     * upstream use {@link #getParseDelayMilliseconds()} unchanged.
+     */
+    protected boolean isParseDelayAdaptive() {
+        return false;
+    }
+
     protected ParserTaskManager getTaskManager() {
         return Lookup.getDefault().lookup(ParserTaskManager.class);
     }
@@ -0,0 +1,190 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.antlr.netbeans.editor.text.VersionedDocument;
+import org.netbeans.api.annotations.common.NonNull;
+
+/**
+ * Chooses the delay before scheduled parser work starts from the observed cost of the work and the rate at which
+ * the user is editing the document. Cheap work, such as lexing a small file, starts almost immediately. Expensive
+ * work waits until it has been idle for longer than the time between keystrokes, so an update is rarely started only
+ * to be superseded by the next edit.
+ *
+ * <p>The policy is updated with the execution time of each completed task and data update, and with each edit of a
+ * document open in an editor. Until a cost has been observed for a definition in a document, the scheduler's
+ * default delay is used.</p>
+ *
+ * @author Sam Harwell
+ */
+public final class AdaptiveParseDelayPolicy {
+
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.AdaptiveParseDelayPolicy.enabled=false
+    private static final String ENABLED_PROPERTY = AdaptiveParseDelayPolicy.class.getName() + ".enabled";
+
+    private static final String STATE_KEY = AdaptiveParseDelayPolicy.class.getName() + "-state";
+
+    private static final AdaptiveParseDelayPolicy DEFAULT = new AdaptiveParseDelayPolicy();
+
+    /** Work which takes less time than this is considered cheap enough to run on every edit. */
+    private static final long CHEAP_COST_MILLISECONDS = 20;
+    private static final long MIN_DELAY_MILLISECONDS = 10;
+    private static final long MAX_DELAY_MILLISECONDS = 2000;
+    /** Gaps between edits longer than this are pauses, not part of the typing rate. */
+    private static final long TYPING_PAUSE_MILLISECONDS = 2000;
+    /** The weight of a new sample in the moving averages. */
+    private static final double SMOOTHING = 0.3;
+
+    private final boolean enabled;
+    private final Object stateLock = new Object();
+
+    private AdaptiveParseDelayPolicy() {
+        String value = System.getProperty(ENABLED_PROPERTY);
+        this.enabled = value == null || Boolean.parseBoolean(value);
+    }
+
+    @NonNull
+    public static AdaptiveParseDelayPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records an edit of {@code document} which was made by the user.
+     */
+    public void recordEdit(@NonNull VersionedDocument document) {
+        if (!enabled) {
+            return;
+        }
+
+        getState(document).recordEdit(System.nanoTime());
+    }
+
+    /**
+     * Records the execution time of a completed data update or task.
+     *
+     * @param document The document the work was performed for.
+     * @param key The {@link org.antlr.netbeans.parsing.spi.ParserDataDefinition} or
+     * {@link org.antlr.netbeans.parsing.spi.ParserTaskDefinition} which was executed.
+     * @param nanos The execution time, in nanoseconds.
+     */
+    public void recordExecution(@NonNull VersionedDocument document, @NonNull Object key, long nanos) {
+        if (!enabled) {
+            return;
+        }
+
+        getState(document).recordCost(key, TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos)));
+    }
+
+    /**
+     * Gets the delay to use when scheduling work for {@code key} in {@code document}.
+     *
+     * @param document The document.
+     * @param key The {@link org.antlr.netbeans.parsing.spi.ParserDataDefinition} or
+     * {@link org.antlr.netbeans.parsing.spi.ParserTaskDefinition} to schedule.
+     * @param defaultDelay The delay, in milliseconds, to use when no cost has been observed for the work. A default
+     * delay of 0 requests immediate execution and is never adapted.
+     * @return The delay, in milliseconds.
+     */
+    public long getDelayMilliseconds(@NonNull VersionedDocument document, @NonNull Object key, long defaultDelay) {
+        if (!enabled || defaultDelay <= 0) {
+            return defaultDelay;
+        }
+
+        DocumentState state = (DocumentState)document.getProperty(STATE_KEY);
+        if (state == null) {
+            return defaultDelay;
+        }
+
+        Double cost = state.costs.get(key);
+        if (cost == null) {
+            return defaultDelay;
+        }
+
+        long delay;
+        if (cost < CHEAP_COST_MILLISECONDS) {
+            delay = 2 * Math.round(cost);
+        } else {
+            // wait at least as long as the work takes, and long enough that the next keystroke usually arrives first
+            delay = Math.max(2 * Math.round(cost), Math.round(1.5 * state.getTypingInterval(System.nanoTime())));
+        }
+
+        return Math.min(MAX_DELAY_MILLISECONDS, Math.max(MIN_DELAY_MILLISECONDS, delay));
+    }
+
+    private DocumentState getState(VersionedDocument document) {
+        DocumentState state = (DocumentState)document.getProperty(STATE_KEY);
+        if (state == null) {
+            synchronized (stateLock) {
+                state = (DocumentState)document.getProperty(STATE_KEY);
+                if (state == null) {
+                    state = new DocumentState();
+                    document.putProperty(STATE_KEY, state);
+                }
+            }
+        }
+
+        return state;
+    }
+
+    private static final class DocumentState {
+        /** The smoothed execution time in milliseconds, keyed by data or task definition. */
+        private final ConcurrentMap<Object, Double> costs = new ConcurrentHashMap<>();
+
+        /** Guarded by {@code this}. */
+        private long lastEditTime;
+        /** The smoothed interval between edits in milliseconds, or 0 if unknown. Guarded by {@code this}. */
+        private double typingInterval;
+
+        public synchronized void recordEdit(long time) {
+            if (lastEditTime != 0) {
+                long interval = TimeUnit.NANOSECONDS.toMillis(time - lastEditTime);
+                if (interval < TYPING_PAUSE_MILLISECONDS) {
+                    typingInterval = typingInterval == 0 ? interval : typingInterval + SMOOTHING * (interval - typingInterval);
+                }
+            }
+
+            lastEditTime = time;
+        }
+
+        public synchronized double getTypingInterval(long now) {
+            if (lastEditTime == 0 || TimeUnit.NANOSECONDS.toMillis(now - lastEditTime) >= TYPING_PAUSE_MILLISECONDS) {
+                // the user is not currently typing
+                return 0;
+            }
+
+            return typingInterval;
+        }
+
+        public void recordCost(Object key, long millis) {
+            while (true) {
+                Double previous = costs.get(key);
+                if (previous == null) {
+                    if (costs.putIfAbsent(key, (double)millis) == null) {
+                        return;
+                    }
+
+                    continue;
+                }
+
+                double updated = previous + SMOOTHING * (millis - previous);
+                if (costs.replace(key, previous, updated)) {
+                    return;
+                }
+            }
+        }
+    }
+
+}
@@ -52,6 +52,11 @@ public class CurrentDocumentParserTaskScheduler extends CurrentEditorParserTaskS
         return 50;
     }
 
+    @Override
+    protected boolean isParseDelayAdaptive() {
+        return true;
+    }
+
     @Override
     protected void setEditor(JTextComponent editor) {
         if (editor != null) {
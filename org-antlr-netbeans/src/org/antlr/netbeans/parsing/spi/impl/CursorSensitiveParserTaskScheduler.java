@@ -73,6 +73,8 @@ public class CursorSensitiveParserTaskScheduler extends CurrentDocumentParserTas
                 return;
             }
 
+            EditSessionRecorder.getDefault().recordCaret(document, dotOffset);
+
             SnapshotPosition position = new SnapshotPosition(snapshot, e.getDot());
             ParseContext context = new ParseContext(CursorSensitiveParserTaskScheduler.this.getClass(), position, getCurrentEditor());
             schedule(context);
@@ -41,6 +41,11 @@ public class DocumentContentParserTaskScheduler extends ParserTaskScheduler {
         EditorRegistry.addPropertyChangeListener(editorRegistryListener);
     }
 
+    @Override
+    protected boolean isParseDelayAdaptive() {
+        return true;
+    }
+
     private class EditorRegistryListener implements PropertyChangeListener {
 
         @Override
@@ -96,6 +101,7 @@ public class DocumentContentParserTaskScheduler extends ParserTaskScheduler {
         @Override
         public void insertUpdate(DocumentEvent e) {
             VersionedDocument document = VersionedDocumentUtilities.getVersionedDocument(e.getDocument());
+            AdaptiveParseDelayPolicy.getDefault().recordEdit(document);
             ParseContext context = new ParseContext(DocumentContentParserTaskScheduler.this.getClass(), document);
             schedule(context);
         }
@@ -103,6 +109,7 @@ public class DocumentContentParserTaskScheduler extends ParserTaskScheduler {
         @Override
         public void removeUpdate(DocumentEvent e) {
             VersionedDocument document = VersionedDocumentUtilities.getVersionedDocument(e.getDocument());
+            AdaptiveParseDelayPolicy.getDefault().recordEdit(document);
             ParseContext context = new ParseContext(DocumentContentParserTaskScheduler.this.getClass(), document);
             schedule(context);
         }
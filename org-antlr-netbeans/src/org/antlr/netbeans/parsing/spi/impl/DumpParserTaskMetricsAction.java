@@ -0,0 +1,45 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi.impl;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionRegistration;
+import org.openide.awt.StatusDisplayer;
+import org.openide.util.NbBundle.Messages;
+
+/**
+ * Writes the current {@link ParserTaskMetrics} to the IDE log.
+ *
+ * @author Sam Harwell
+ */
+@ActionID(
+    category = "Tools",
+    id = "org.antlr.netbeans.parsing.spi.impl.DumpParserTaskMetricsAction")
+@ActionRegistration(
+    displayName = "#CTL_DumpParserTaskMetricsAction")
+@ActionReference(path = "Menu/Tools", position = 1950)
+@Messages({
+    "CTL_DumpParserTaskMetricsAction=Dump Parser Metrics",
+    "MSG_ParserTaskMetricsDumped=Parser metrics were written to the IDE log.",
+})
+public final class DumpParserTaskMetricsAction implements ActionListener {
+    private static final Logger LOGGER = Logger.getLogger(DumpParserTaskMetricsAction.class.getName());
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        LOGGER.log(Level.INFO, ParserTaskMetrics.getDefault().dump());
+        StatusDisplayer.getDefault().setStatusText(Bundle.MSG_ParserTaskMetricsDumped());
+    }
+
+}
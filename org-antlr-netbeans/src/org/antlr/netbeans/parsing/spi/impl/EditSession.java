@@ -0,0 +1,264 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.netbeans.api.annotations.common.NonNull;
+import org.openide.util.Parameters;
+
+/**
+ * A recorded sequence of document edits and caret moves. Sessions are written by {@link EditSessionRecorder} and
+ * replayed by {@link EditSessionReplay}.
+ *
+ * <p>The file is a gzip-compressed stream starting with a magic number and format version, followed by one record
+ * per event. Each record holds the event kind, the document identifier, and the time since the start of the session
+ * in nanoseconds; the first record for each document is an {@link Kind#OPEN} record holding its path, MIME type and
+ * content before the first recorded edit.</p>
+ *
+ * @author Sam Harwell
+ */
+public final class EditSession {
+    private static final int MAGIC = 0x45445353;
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public enum Kind {
+        OPEN,
+        CHANGE,
+        CARET,
+    }
+
+    @NonNull
+    private final List<Event> events;
+
+    private EditSession(@NonNull List<Event> events) {
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    @NonNull
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    @NonNull
+    public static EditSession read(@NonNull File file) throws IOException {
+        Parameters.notNull("file", file);
+
+        List<Event> events = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("The file is not a recorded edit session: " + file);
+            }
+
+            int version = input.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported edit session format version " + version + ": " + file);
+            }
+
+            while (true) {
+                int kind = input.read();
+                if (kind < 0) {
+                    break;
+                }
+
+                try {
+                    events.add(readEvent(input, kind));
+                } catch (EOFException ex) {
+                    // the recording was not closed cleanly; keep the complete events
+                    break;
+                }
+            }
+        }
+
+        return new EditSession(events);
+    }
+
+    private static Event readEvent(DataInputStream input, int kind) throws IOException {
+        if (kind >= Kind.values().length) {
+            throw new IOException("Unknown edit session record: " + kind);
+        }
+
+        int document = input.readInt();
+        long time = input.readLong();
+        switch (Kind.values()[kind]) {
+        case OPEN:
+            String path = readString(input);
+            String mimeType = readString(input);
+            String text = readString(input);
+            return Event.open(document, time, path, mimeType, text);
+
+        case CHANGE:
+            int offset = input.readInt();
+            String oldText = readString(input);
+            String newText = readString(input);
+            return Event.change(document, time, offset, oldText, newText);
+
+        case CARET:
+            return Event.caret(document, time, input.readInt());
+
+        default:
+            throw new IllegalStateException();
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    public static final class Event {
+        @NonNull
+        private final Kind kind;
+        private final int document;
+        private final long time;
+        private final int offset;
+        private final String path;
+        private final String mimeType;
+        private final String oldText;
+        private final String newText;
+
+        private Event(@NonNull Kind kind, int document, long time, int offset, String path, String mimeType, String oldText, String newText) {
+            this.kind = kind;
+            this.document = document;
+            this.time = time;
+            this.offset = offset;
+            this.path = path;
+            this.mimeType = mimeType;
+            this.oldText = oldText;
+            this.newText = newText;
+        }
+
+        @NonNull
+        public static Event open(int document, long time, @NonNull String path, @NonNull String mimeType, @NonNull String text) {
+            return new Event(Kind.OPEN, document, time, 0, path, mimeType, "", text);
+        }
+
+        @NonNull
+        public static Event change(int document, long time, int offset, @NonNull String oldText, @NonNull String newText) {
+            return new Event(Kind.CHANGE, document, time, offset, null, null, oldText, newText);
+        }
+
+        @NonNull
+        public static Event caret(int document, long time, int offset) {
+            return new Event(Kind.CARET, document, time, offset, null, null, null, null);
+        }
+
+        @NonNull
+        public Kind getKind() {
+            return kind;
+        }
+
+        public int getDocument() {
+            return document;
+        }
+
+        /**
+         * Gets the time of the event, in nanoseconds since the start of the session.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getOldText() {
+            return oldText;
+        }
+
+        /**
+         * Gets the inserted text of a {@link Kind#CHANGE} event, or the initial content of the document for a
+         * {@link Kind#OPEN} event.
+         */
+        public String getNewText() {
+            return newText;
+        }
+    }
+
+    /**
+     * Writes the events of a session to a file as they occur.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream output;
+
+        public Writer(@NonNull File file) throws IOException {
+            Parameters.notNull("file", file);
+            output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+        }
+
+        public void write(@NonNull Event event) throws IOException {
+            output.write(event.getKind().ordinal());
+            output.writeInt(event.getDocument());
+            output.writeLong(event.getTime());
+            switch (event.getKind()) {
+            case OPEN:
+                writeString(event.getPath());
+                writeString(event.getMimeType());
+                writeString(event.getNewText());
+                break;
+
+            case CHANGE:
+                output.writeInt(event.getOffset());
+                writeString(event.getOldText());
+                writeString(event.getNewText());
+                break;
+
+            case CARET:
+                output.writeInt(event.getOffset());
+                break;
+
+            default:
+                throw new IllegalStateException();
+            }
+        }
+
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import org.antlr.netbeans.editor.text.VersionedDocument;
+import org.antlr.netbeans.editor.text.VersionedDocumentUtilities;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.editor.EditorRegistry;
+import org.netbeans.lib.editor.util.swing.DocumentUtilities;
+import org.openide.filesystems.FileObject;
+import org.openide.util.Parameters;
+import org.openide.util.WeakSet;
+
+/**
+ * Records the edits and caret moves of editor documents to an {@link EditSession} file. Recording is started at
+ * startup when {@code -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionRecorder.file=<path>} is set, and stopped
+ * when the IDE exits. While recording, the recorder listens to the documents of the open editors itself.
+ *
+ * @author Sam Harwell
+ */
+public final class EditSessionRecorder {
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionRecorder.level=FINE
+    private static final Logger LOGGER = Logger.getLogger(EditSessionRecorder.class.getName());
+
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionRecorder.file=/path/to/session.edits
+    private static final String FILE_PROPERTY = EditSessionRecorder.class.getName() + ".file";
+
+    private static final EditSessionRecorder DEFAULT = new EditSessionRecorder();
+
+    /** Guarded by {@code this}. */
+    private final Map<VersionedDocument, Integer> documentIds = new WeakHashMap<>();
+    /** The editor documents {@link #documentListener} is attached to. Guarded by {@code this}. */
+    private final Set<Document> listenedDocuments = new WeakSet<>();
+    private final PropertyChangeListener editorRegistryListener = new EditorRegistryListener();
+    private final DocumentListener documentListener = new DocumentListenerImpl();
+
+    private volatile EditSession.Writer writer;
+    /** Guarded by {@code this}. */
+    private long startTime;
+    /** Guarded by {@code this}. */
+    private int events;
+    /** Guarded by {@code this}. */
+    private int nextDocumentId;
+
+    private EditSessionRecorder() {
+    }
+
+    @NonNull
+    public static EditSessionRecorder getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Starts recording to the file configured with the {@code file} system property, if any.
+     */
+    public void startConfiguredSession() {
+        String path = System.getProperty(FILE_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+
+        try {
+            start(new File(path));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to start recording the edit session.", ex);
+        }
+    }
+
+    public boolean isRecording() {
+        return writer != null;
+    }
+
+    public synchronized void start(@NonNull File file) throws IOException {
+        Parameters.notNull("file", file);
+        stop();
+
+        writer = new EditSession.Writer(file);
+        startTime = System.nanoTime();
+        events = 0;
+        nextDocumentId = 0;
+        documentIds.clear();
+        EditorRegistry.addPropertyChangeListener(editorRegistryListener);
+        for (JTextComponent component : EditorRegistry.componentList()) {
+            listenTo(component.getDocument());
+        }
+
+        LOGGER.log(Level.INFO, "Recording edit session to {0}.", file);
+    }
+
+    public synchronized void stop() {
+        EditSession.Writer current = writer;
+        if (current == null) {
+            return;
+        }
+
+        writer = null;
+        documentIds.clear();
+        EditorRegistry.removePropertyChangeListener(editorRegistryListener);
+        for (Document document : listenedDocuments) {
+            document.removeDocumentListener(documentListener);
+        }
+
+        listenedDocuments.clear();
+        try {
+            current.close();
+            LOGGER.log(Level.INFO, "Recorded {0} edit session events.", events);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "An exception occurred while closing the edit session.", ex);
+        }
+    }
+
+    /**
+     * Records a change to an editor document. This method is called by {@link #documentListener} after the change
+     * was applied to the document.
+     */
+    private void recordChange(@NonNull VersionedDocument document, int offset, @NonNull String oldText, @NonNull String newText) {
+        if (writer == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (writer == null) {
+                return;
+            }
+
+            Integer id = getDocumentId(document, offset, oldText, newText);
+            if (id != null) {
+                write(EditSession.Event.change(id, System.nanoTime() - startTime, offset, oldText, newText));
+            }
+        }
+    }
+
+    public void recordCaret(@NonNull VersionedDocument document, int offset) {
+        if (writer == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (writer == null) {
+                return;
+            }
+
+            Integer id = getDocumentId(document, 0, "", "");
+            if (id != null) {
+                write(EditSession.Event.caret(id, System.nanoTime() - startTime, offset));
+            }
+        }
+    }
+
+    /**
+     * Gets the identifier of {@code document} in the current session, writing its {@link EditSession.Kind#OPEN}
+     * record the first time it is seen. The change described by {@code offset}, {@code oldText} and
+     * {@code newText} is reverted from the document content written to the record.
+     */
+    private Integer getDocumentId(VersionedDocument document, int offset, String oldText, String newText) {
+        assert Thread.holdsLock(this);
+
+        Integer id = documentIds.get(document);
+        if (id != null) {
+            return id;
+        }
+
+        Document swingDocument = document.getDocument();
+        if (swingDocument == null) {
+            return null;
+        }
+
+        String text;
+        try {
+            text = swingDocument.getText(0, swingDocument.getLength());
+        } catch (BadLocationException ex) {
+            LOGGER.log(Level.WARNING, "Unable to read the document content.", ex);
+            return null;
+        }
+
+        String initialText = text.substring(0, offset) + oldText + text.substring(offset + newText.length());
+        FileObject fileObject = document.getFileObject();
+        String path = fileObject != null ? fileObject.getPath() : "";
+        String mimeType = document.getMimeType();
+
+        id = nextDocumentId++;
+        documentIds.put(document, id);
+        write(EditSession.Event.open(id, System.nanoTime() - startTime, path, mimeType != null ? mimeType : "", initialText));
+        return id;
+    }
+
+    private void listenTo(Document document) {
+        assert Thread.holdsLock(this);
+        if (document != null && writer != null && listenedDocuments.add(document)) {
+            document.addDocumentListener(documentListener);
+        }
+    }
+
+    private void write(EditSession.Event event) {
+        assert Thread.holdsLock(this);
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.write(event);
+            events++;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "An exception occurred while recording the edit session; recording stopped.", ex);
+            stop();
+        }
+    }
+
+    private class EditorRegistryListener implements PropertyChangeListener {
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (evt.getPropertyName() == null
+                || evt.getPropertyName().equals(EditorRegistry.FOCUSED_DOCUMENT_PROPERTY)
+                || evt.getPropertyName().equals(EditorRegistry.FOCUS_GAINED_PROPERTY)) {
+
+                JTextComponent editor = EditorRegistry.focusedComponent();
+                if (editor == null) {
+                    return;
+                }
+
+                synchronized (EditSessionRecorder.this) {
+                    listenTo(editor.getDocument());
+                }
+            }
+        }
+    }
+
+    private class DocumentListenerImpl implements DocumentListener {
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            VersionedDocument document = VersionedDocumentUtilities.getVersionedDocument(e.getDocument());
+            recordChange(document, e.getOffset(), "", DocumentUtilities.getModificationText(e));
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            VersionedDocument document = VersionedDocumentUtilities.getVersionedDocument(e.getDocument());
+            recordChange(document, e.getOffset(), DocumentUtilities.getModificationText(e), "");
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+
+    }
+
+}
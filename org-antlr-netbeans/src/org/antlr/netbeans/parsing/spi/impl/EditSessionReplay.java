@@ -0,0 +1,476 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import org.antlr.netbeans.editor.text.DocumentSnapshot;
+import org.antlr.netbeans.editor.text.SnapshotPosition;
+import org.antlr.netbeans.editor.text.VersionedDocument;
+import org.antlr.netbeans.editor.text.VersionedDocumentUtilities;
+import org.antlr.netbeans.parsing.spi.ParseContext;
+import org.antlr.netbeans.parsing.spi.ParserData;
+import org.antlr.netbeans.parsing.spi.ParserDataDefinition;
+import org.antlr.netbeans.parsing.spi.ParserDataEvent;
+import org.antlr.netbeans.parsing.spi.ParserDataListener;
+import org.antlr.netbeans.parsing.spi.ParserTaskManager;
+import org.antlr.netbeans.parsing.spi.ParserTaskScheduler;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.netbeans.api.editor.mimelookup.MimeLookup;
+import org.netbeans.editor.BaseDocument;
+import org.openide.LifecycleManager;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.loaders.DataObject;
+import org.openide.loaders.DataObjectNotFoundException;
+import org.openide.util.Lookup;
+import org.openide.util.Parameters;
+
+/**
+ * Feeds a recorded {@link EditSession} back through the {@link ParserTaskManager} without an editor, and measures
+ * the time from each edit until fresh data is available for the target data definitions. A session is replayed at
+ * startup when {@code -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionReplay.session=<path>} is set; the report
+ * is written to the IDE log, and the IDE exits afterwards if {@code .exit=true} is also set.
+ *
+ * <p>Additional settings:</p>
+ * <ul>
+ * <li>{@code .speed}: the playback speed relative to the recording, or 0 to apply the events without waiting. The
+ * default is 1.</li>
+ * <li>{@code .target}: a comma-separated list of data definition names to measure. By default every cacheable
+ * definition scheduled by {@link ParserTaskScheduler#CONTENT_SENSITIVE_TASK_SCHEDULER} is measured.</li>
+ * <li>{@code .timeout}: the number of seconds to wait for the final results after the last event. The default is
+ * 60.</li>
+ * </ul>
+ *
+ * @author Sam Harwell
+ */
+public final class EditSessionReplay {
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionReplay.level=FINE
+    private static final Logger LOGGER = Logger.getLogger(EditSessionReplay.class.getName());
+
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionReplay.session=/path/to/session.edits
+    private static final String SESSION_PROPERTY = EditSessionReplay.class.getName() + ".session";
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionReplay.speed=0
+    private static final String SPEED_PROPERTY = EditSessionReplay.class.getName() + ".speed";
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionReplay.target=Go Annotated Parse Tree
+    private static final String TARGET_PROPERTY = EditSessionReplay.class.getName() + ".target";
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionReplay.timeout=60
+    private static final String TIMEOUT_PROPERTY = EditSessionReplay.class.getName() + ".timeout";
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.EditSessionReplay.exit=true
+    private static final String EXIT_PROPERTY = EditSessionReplay.class.getName() + ".exit";
+
+    @NonNull
+    private final EditSession session;
+    private final double speed;
+    @NullAllowed
+    private final Set<String> targets;
+    private final long timeout;
+
+    /**
+     * Creates a replay driver.
+     *
+     * @param session The session to replay.
+     * @param speed The playback speed relative to the recording, or 0 to apply the events without waiting.
+     * @param targets The names of the data definitions to measure, or {@code null} to measure every cacheable
+     * content-sensitive definition.
+     * @param timeout The time to wait for the final results after the last event.
+     * @param timeUnit The unit of {@code timeout}.
+     */
+    public EditSessionReplay(@NonNull EditSession session, double speed, @NullAllowed Collection<String> targets, long timeout, @NonNull TimeUnit timeUnit) {
+        Parameters.notNull("session", session);
+        Parameters.notNull("timeUnit", timeUnit);
+
+        this.session = session;
+        this.speed = Math.max(0, speed);
+        this.targets = targets != null ? new HashSet<>(targets) : null;
+        this.timeout = timeUnit.toNanos(timeout);
+    }
+
+    /**
+     * Replays the session configured with the {@code session} system property, if any.
+     */
+    public static void runConfiguredSession() {
+        String path = System.getProperty(SESSION_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+
+        try {
+            double speed = Double.parseDouble(System.getProperty(SPEED_PROPERTY, "1"));
+            String target = System.getProperty(TARGET_PROPERTY);
+            Collection<String> targets = target != null ? Arrays.asList(target.split("\\s*,\\s*")) : null;
+            long timeout = Long.getLong(TIMEOUT_PROPERTY, 60);
+
+            EditSessionReplay replay = new EditSessionReplay(EditSession.read(new File(path)), speed, targets, timeout, TimeUnit.SECONDS);
+            LOGGER.log(Level.INFO, "Replaying edit session {0}.", path);
+            Report report = replay.run();
+            LOGGER.log(Level.INFO, report.toString());
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "An exception occurred while replaying the edit session.", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (Boolean.getBoolean(EXIT_PROPERTY)) {
+            LifecycleManager.getDefault().exit();
+        }
+    }
+
+    @NonNull
+    public Report run() throws IOException, InterruptedException {
+        ParserTaskManager taskManager = Lookup.getDefault().lookup(ParserTaskManager.class);
+        final Map<VersionedDocument, ReplayDocument> replayDocuments = new ConcurrentHashMap<>();
+        Map<Integer, ReplayDocument> documentsById = new HashMap<>();
+        final Report report = new Report();
+
+        ParserDataListener<Object> listener = new ParserDataListener<Object>() {
+            @Override
+            public void dataChanged(ParserDataEvent<? extends Object> event) {
+                ParserData<?> data = event.getData();
+                ReplayDocument document = replayDocuments.get(data.getSnapshot().getVersionedDocument());
+                if (document != null) {
+                    document.resolve(report, event.getDefinition(), data.getSnapshot().getVersion().getVersionNumber(), System.nanoTime());
+                }
+            }
+        };
+
+        long startAllocated = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        taskManager.addDataListener(listener);
+        try {
+            for (EditSession.Event event : session.getEvents()) {
+                if (speed > 0) {
+                    long wait = startTime + (long)(event.getTime() / speed) - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+
+                switch (event.getKind()) {
+                case OPEN:
+                    ReplayDocument document = open(event);
+                    documentsById.put(event.getDocument(), document);
+                    replayDocuments.put(document.versionedDocument, document);
+                    break;
+
+                case CHANGE:
+                    applyChange(documentsById.get(event.getDocument()), event);
+                    report.edits++;
+                    break;
+
+                case CARET:
+                    moveCaret(documentsById.get(event.getDocument()), event);
+                    report.caretMoves++;
+                    break;
+
+                default:
+                    throw new IllegalStateException();
+                }
+            }
+
+            long lastEventTime = System.nanoTime();
+            while (System.nanoTime() - lastEventTime < timeout && hasPendingEdits(documentsById.values())) {
+                Thread.sleep(10);
+            }
+        } finally {
+            taskManager.removeDataListener(listener);
+        }
+
+        report.elapsedNanos = System.nanoTime() - startTime;
+        long endAllocated = getAllocatedBytes();
+        report.allocatedBytes = startAllocated >= 0 && endAllocated >= 0 ? endAllocated - startAllocated : -1;
+        for (ReplayDocument document : documentsById.values()) {
+            report.unresolved += document.getPendingEditCount();
+        }
+
+        return report;
+    }
+
+    private ReplayDocument open(EditSession.Event event) throws IOException {
+        String mimeType = event.getMimeType();
+        BaseDocument document = new BaseDocument(false, mimeType);
+        try {
+            document.insertString(0, event.getNewText(), null);
+        } catch (BadLocationException ex) {
+            throw new IOException(ex);
+        }
+
+        File file = event.getPath().isEmpty() ? null : new File(event.getPath());
+        FileObject fileObject = file != null ? FileUtil.toFileObject(FileUtil.normalizeFile(file)) : null;
+        if (fileObject != null) {
+            try {
+                // allows tasks which need the file, e.g. to resolve imports, to run as they would in the editor
+                document.putProperty(Document.StreamDescriptionProperty, DataObject.find(fileObject));
+            } catch (DataObjectNotFoundException ex) {
+                LOGGER.log(Level.FINE, "No data object for the recorded file.", ex);
+            }
+        }
+
+        VersionedDocument versionedDocument = VersionedDocumentUtilities.getVersionedDocument(document);
+        // creates the first version so the following edits are tracked as changes
+        versionedDocument.getCurrentSnapshot();
+
+        Set<ParserDataDefinition<?>> targetDefinitions = new HashSet<>();
+        for (ParserDataDefinition<?> definition : MimeLookup.getLookup(mimeType).lookupAll(ParserDataDefinition.class)) {
+            if (targets != null) {
+                if (targets.contains(definition.getName())) {
+                    targetDefinitions.add(definition);
+                }
+            } else if (definition.isCacheable() && definition.getScheduler() == ParserTaskScheduler.CONTENT_SENSITIVE_TASK_SCHEDULER) {
+                targetDefinitions.add(definition);
+            }
+        }
+
+        return new ReplayDocument(document, versionedDocument, targetDefinitions);
+    }
+
+    private static void applyChange(ReplayDocument document, EditSession.Event event) throws IOException {
+        if (document == null) {
+            throw new IOException("The edit session contains a change to an unknown document.");
+        }
+
+        try {
+            if (!event.getOldText().isEmpty()) {
+                document.document.remove(event.getOffset(), event.getOldText().length());
+            }
+
+            if (!event.getNewText().isEmpty()) {
+                document.document.insertString(event.getOffset(), event.getNewText(), null);
+            }
+        } catch (BadLocationException ex) {
+            throw new IOException("A recorded change could not be applied to the document.", ex);
+        }
+
+        VersionedDocument versionedDocument = document.versionedDocument;
+        document.addPendingEdit(versionedDocument.getCurrentSnapshot().getVersion().getVersionNumber(), System.nanoTime());
+        AdaptiveParseDelayPolicy.getDefault().recordEdit(versionedDocument);
+
+        ParserTaskScheduler scheduler = TaskSchedulers.getScheduler(DocumentContentParserTaskScheduler.class);
+        if (scheduler != null) {
+            scheduler.schedule(new ParseContext(DocumentContentParserTaskScheduler.class, versionedDocument));
+        }
+    }
+
+    private static void moveCaret(ReplayDocument document, EditSession.Event event) throws IOException {
+        if (document == null) {
+            throw new IOException("The edit session contains a caret move in an unknown document.");
+        }
+
+        DocumentSnapshot snapshot = document.versionedDocument.getCurrentSnapshot();
+        if (event.getOffset() < 0 || event.getOffset() > snapshot.length()) {
+            return;
+        }
+
+        ParserTaskScheduler scheduler = TaskSchedulers.getScheduler(CursorSensitiveParserTaskScheduler.class);
+        if (scheduler != null) {
+            scheduler.schedule(new ParseContext(CursorSensitiveParserTaskScheduler.class, new SnapshotPosition(snapshot, event.getOffset())));
+        }
+    }
+
+    private static boolean hasPendingEdits(Collection<ReplayDocument> documents) {
+        for (ReplayDocument document : documents) {
+            if (document.getPendingEditCount() > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the total number of bytes allocated by the live threads, or -1 if the JVM does not support measuring it.
+     * Allocations of threads which terminate during the replay are not included.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+
+        long total = 0;
+        for (long bytes : allocationBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+
+        return total;
+    }
+
+    private static final class ReplayDocument {
+        private final BaseDocument document;
+        private final VersionedDocument versionedDocument;
+        /** The time of each edit which has no fresh data yet, keyed by target definition and version. Guarded by {@code this}. */
+        private final Map<ParserDataDefinition<?>, NavigableMap<Integer, Long>> pendingEdits = new HashMap<>();
+
+        public ReplayDocument(BaseDocument document, VersionedDocument versionedDocument, Set<ParserDataDefinition<?>> targets) {
+            this.document = document;
+            this.versionedDocument = versionedDocument;
+            for (ParserDataDefinition<?> target : targets) {
+                pendingEdits.put(target, new TreeMap<Integer, Long>());
+            }
+        }
+
+        public synchronized void addPendingEdit(int versionNumber, long time) {
+            for (NavigableMap<Integer, Long> edits : pendingEdits.values()) {
+                edits.put(versionNumber, time);
+            }
+        }
+
+        public synchronized int getPendingEditCount() {
+            int count = 0;
+            for (NavigableMap<Integer, Long> edits : pendingEdits.values()) {
+                count += edits.size();
+            }
+
+            return count;
+        }
+
+        public synchronized void resolve(Report report, ParserDataDefinition<?> definition, int versionNumber, long time) {
+            NavigableMap<Integer, Long> edits = pendingEdits.get(definition);
+            if (edits == null) {
+                return;
+            }
+
+            NavigableMap<Integer, Long> resolved = edits.headMap(versionNumber, true);
+            for (Long editTime : resolved.values()) {
+                report.addLatency(definition, time - editTime);
+            }
+
+            if (!resolved.isEmpty()) {
+                report.addResult(definition);
+            }
+
+            resolved.clear();
+        }
+    }
+
+    public static final class Report {
+        private final Map<String, List<Long>> latencies = new TreeMap<>();
+        private final Map<String, Integer> results = new TreeMap<>();
+        private int edits;
+        private int caretMoves;
+        private int unresolved;
+        private long elapsedNanos;
+        private long allocatedBytes;
+
+        /**
+         * Gets the latencies from an edit until fresh data was available, in nanoseconds, keyed by data definition
+         * name.
+         */
+        public synchronized Map<String, List<Long>> getLatencies() {
+            Map<String, List<Long>> result = new TreeMap<>();
+            for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+                result.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+            }
+
+            return result;
+        }
+
+        public int getEdits() {
+            return edits;
+        }
+
+        public int getCaretMoves() {
+            return caretMoves;
+        }
+
+        /**
+         * Gets the number of edits for which no fresh data was received before the timeout, counted once per target
+         * definition.
+         */
+        public int getUnresolved() {
+            return unresolved;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Gets the number of bytes allocated during the replay, or -1 if it could not be measured.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        synchronized void addLatency(ParserDataDefinition<?> definition, long nanos) {
+            List<Long> values = latencies.get(definition.getName());
+            if (values == null) {
+                values = new ArrayList<>();
+                latencies.put(definition.getName(), values);
+            }
+
+            values.add(nanos);
+        }
+
+        synchronized void addResult(ParserDataDefinition<?> definition) {
+            Integer count = results.get(definition.getName());
+            results.put(definition.getName(), count != null ? count + 1 : 1);
+        }
+
+        @Override
+        public synchronized String toString() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("Edit session replay: %d edits, %d caret moves, %.2fs, %.1f edits/s, %d unresolved%n",
+                edits, caretMoves, seconds, seconds > 0 ? edits / seconds : 0, unresolved));
+            if (allocatedBytes >= 0) {
+                builder.append(String.format("    allocated %.1fMB, %.1fMB/s%n", allocatedBytes / 1048576.0, seconds > 0 ? allocatedBytes / 1048576.0 / seconds : 0));
+            }
+
+            for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+                List<Long> values = new ArrayList<>(entry.getValue());
+                Collections.sort(values);
+                Integer resultCount = results.get(entry.getKey());
+                int count = resultCount != null ? resultCount : 0;
+                builder.append(String.format("    %s: %d results (%.1f/s), edit latency p50=%.1fms, p90=%.1fms, p99=%.1fms, max=%.1fms%n",
+                    entry.getKey(), count, seconds > 0 ? count / seconds : 0,
+                    getPercentile(values, 50), getPercentile(values, 90), getPercentile(values, 99), getPercentile(values, 100)));
+            }
+
+            return builder.toString();
+        }
+
+        private static double getPercentile(List<Long> sortedValues, double percentile) {
+            if (sortedValues.isEmpty()) {
+                return 0;
+            }
+
+            int index = (int)Math.ceil(sortedValues.size() * percentile / 100.0) - 1;
+            return sortedValues.get(Math.max(0, Math.min(sortedValues.size() - 1, index))) / 1e6;
+        }
+    }
+
+}
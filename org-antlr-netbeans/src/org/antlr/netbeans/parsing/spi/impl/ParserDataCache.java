@@ -0,0 +1,280 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi.impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.antlr.netbeans.editor.text.VersionedDocument;
+import org.antlr.netbeans.parsing.spi.ParserData;
+import org.antlr.netbeans.parsing.spi.ParserDataDefinition;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+
+/**
+ * Bounds the memory retained by cached {@link ParserData} across all documents. Each cached value is held by an
+ * {@link Entry} whose weight is estimated from {@link ParserDataDefinition#getCacheWeight()} and the length of the
+ * snapshot the data was computed from. When the total weight of the strongly held entries exceeds the budget, the
+ * least recently used entries are released: entries for documents which are not open in an editor are demoted to a
+ * {@link SoftReference} so they remain available until the garbage collector needs the memory, and entries for
+ * editor documents are dropped only when no background entries remain to demote.
+ *
+ * <p>Reading a strongly held entry does not lock and only updates the access time of the entry. The least recently
+ * used order is computed from the access times when the cache is trimmed.</p>
+ *
+ * @author Sam Harwell
+ */
+final class ParserDataCache {
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.ParserDataCache.level=FINE
+    private static final Logger LOGGER = Logger.getLogger(ParserDataCache.class.getName());
+
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.ParserDataCache.budget=256
+    private static final String BUDGET_PROPERTY = ParserDataCache.class.getName() + ".budget";
+
+    private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
+    /**
+     * When the budget is exceeded, entries are released until the total weight drops below this fraction of the
+     * budget, so the cache is not trimmed again by the next insertion.
+     */
+    private static final double TRIM_RATIO = 0.9;
+
+    private static final Comparator<Candidate> LEAST_RECENTLY_USED = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+            long difference = o1.lastAccess - o2.lastAccess;
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    };
+
+    private final long budget;
+
+    /**
+     * The strongly held entries. Guarded by {@code this}.
+     */
+    private final Set<Entry> strongEntries = new HashSet<>();
+    /**
+     * The total weight of {@link #strongEntries}. Guarded by {@code this}.
+     */
+    private long totalWeight;
+
+    public ParserDataCache() {
+        this(getConfiguredBudget());
+    }
+
+    public ParserDataCache(long budget) {
+        this.budget = Math.max(0, budget);
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * Creates an entry holding {@code data}. The entry is not counted against the budget until it is passed to
+     * {@link #add}.
+     */
+    @NonNull
+    public Entry createEntry(@NonNull VersionedDocument document, @NonNull ParserData<?> data) {
+        return new Entry(document.getDocument() != null, data);
+    }
+
+    /**
+     * Starts tracking {@code entry}, and releases older entries if the budget is exceeded.
+     */
+    public synchronized void add(@NonNull Entry entry) {
+        if (entry.released) {
+            return;
+        }
+
+        ParserData<?> data = entry.data;
+        if (data != null) {
+            promote(entry, data);
+            trim();
+        }
+    }
+
+    /**
+     * Releases {@code entry} because the data it holds was replaced or invalidated.
+     */
+    public synchronized void remove(@NonNull Entry entry) {
+        if (strongEntries.remove(entry)) {
+            totalWeight -= entry.weight;
+        }
+
+        entry.released = true;
+        entry.data = null;
+        entry.softData = null;
+    }
+
+    /**
+     * Gets the data held by {@code entry}, marking it as the most recently used entry. Demoted data which is still
+     * reachable is held strongly again.
+     */
+    @CheckForNull
+    public ParserData<?> get(@NonNull Entry entry) {
+        ParserData<?> data = entry.data;
+        if (data != null) {
+            entry.lastAccess = System.nanoTime();
+            return data;
+        }
+
+        Reference<ParserData<?>> softData = entry.softData;
+        data = softData != null ? softData.get() : null;
+        if (data == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (entry.softData == softData) {
+                promote(entry, data);
+                trim();
+            }
+        }
+
+        return data;
+    }
+
+    private void promote(Entry entry, ParserData<?> data) {
+        assert Thread.holdsLock(this);
+        entry.data = data;
+        entry.softData = null;
+        entry.lastAccess = System.nanoTime();
+        if (strongEntries.add(entry)) {
+            totalWeight += entry.weight;
+        }
+    }
+
+    private void trim() {
+        assert Thread.holdsLock(this);
+        if (totalWeight <= budget) {
+            return;
+        }
+
+        long target = (long)(budget * TRIM_RATIO);
+        // readers update the access times without locking, so sort a copy of them
+        List<Candidate> candidates = new ArrayList<>(strongEntries.size());
+        for (Entry entry : strongEntries) {
+            candidates.add(new Candidate(entry));
+        }
+
+        Collections.sort(candidates, LEAST_RECENTLY_USED);
+
+        int demoted = 0;
+        int evicted = 0;
+
+        // first demote the least recently used data for documents which are not open in an editor
+        for (Candidate candidate : candidates) {
+            if (totalWeight <= target) {
+                break;
+            }
+
+            Entry entry = candidate.entry;
+            if (entry.editorDocument) {
+                continue;
+            }
+
+            strongEntries.remove(entry);
+            totalWeight -= entry.weight;
+            entry.softData = new SoftReference<ParserData<?>>(entry.data);
+            entry.data = null;
+            demoted++;
+        }
+
+        // then drop the least recently used editor data
+        for (Candidate candidate : candidates) {
+            if (totalWeight <= target) {
+                break;
+            }
+
+            Entry entry = candidate.entry;
+            if (strongEntries.remove(entry)) {
+                totalWeight -= entry.weight;
+                entry.data = null;
+                evicted++;
+            }
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Parser data cache over budget: demoted {0}, evicted {1}, retained {2} bytes in {3} entries.",
+                new Object[] { demoted, evicted, totalWeight, strongEntries.size() });
+        }
+    }
+
+    private static long getConfiguredBudget() {
+        Long megabytes = Long.getLong(BUDGET_PROPERTY);
+        if (megabytes != null) {
+            return megabytes * BYTES_PER_MEGABYTE;
+        }
+
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    private static long estimateWeight(ParserData<?> data) {
+        ParserDataDefinition<?> definition = data.getDefinition();
+        return (long)Math.max(1, data.getSnapshot().length()) * Math.max(0, definition.getCacheWeight());
+    }
+
+    /**
+     * A single cached value. Entries use identity equality so they can be tracked independently of the data they
+     * hold.
+     */
+    public static final class Entry {
+        private final boolean editorDocument;
+        private final long weight;
+        private volatile ParserData<?> data;
+        private volatile Reference<ParserData<?>> softData;
+        private volatile long lastAccess;
+        /** Guarded by the cache. */
+        private boolean released;
+
+        private Entry(boolean editorDocument, ParserData<?> data) {
+            this.editorDocument = editorDocument;
+            this.weight = estimateWeight(data);
+            this.data = data;
+            this.lastAccess = System.nanoTime();
+        }
+
+        /**
+         * Gets the data without affecting the least-recently-used order.
+         */
+        @CheckForNull
+        public ParserData<?> peek() {
+            ParserData<?> result = data;
+            if (result != null) {
+                return result;
+            }
+
+            Reference<ParserData<?>> reference = softData;
+            return reference != null ? reference.get() : null;
+        }
+    }
+
+    private static final class Candidate {
+        private final Entry entry;
+        private final long lastAccess;
+
+        public Candidate(Entry entry) {
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+
+}
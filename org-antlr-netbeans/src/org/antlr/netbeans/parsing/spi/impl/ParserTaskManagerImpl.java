@@ -8,18 +8,28 @@
  */
 package org.antlr.netbeans.parsing.spi.impl;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledFuture;
@@ -28,11 +38,13 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.JTextComponent;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
 import org.antlr.netbeans.editor.text.VersionedDocument;
+import org.antlr.netbeans.parsing.spi.CancellationToken;
 import org.antlr.netbeans.parsing.spi.ParseContext;
 import org.antlr.netbeans.parsing.spi.ParserData;
 import org.antlr.netbeans.parsing.spi.ParserDataDefinition;
@@ -45,6 +57,7 @@ import org.antlr.netbeans.parsing.spi.ParserTaskDefinition;
 import org.antlr.netbeans.parsing.spi.ParserTaskManager;
 import org.antlr.netbeans.parsing.spi.ParserTaskProvider;
 import org.antlr.netbeans.parsing.spi.ParserTaskScheduler;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.netbeans.api.annotations.common.NonNull;
 import org.netbeans.api.editor.mimelookup.MimeLookup;
 import org.netbeans.lib.editor.util.ListenerList;
@@ -72,6 +85,13 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
     private static final int HIGH_THREAD_PRIORITY_VALUE = Thread.NORM_PRIORITY;
     private static final int LOW_THREAD_PRIORITY_VALUE = Thread.NORM_PRIORITY - 2;
 
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.ParserTaskManagerImpl.foregroundThreads=4
+    private static final String FOREGROUND_THREADS_PROPERTY = ParserTaskManagerImpl.class.getName() + ".foregroundThreads";
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.ParserTaskManagerImpl.backgroundThreads=8
+    private static final String BACKGROUND_THREADS_PROPERTY = ParserTaskManagerImpl.class.getName() + ".backgroundThreads";
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.ParserTaskManagerImpl.workStealing=false
+    private static final String WORK_STEALING_PROPERTY = ParserTaskManagerImpl.class.getName() + ".workStealing";
+
     private final ListenerList<ParserDataListener<Object>> globalListeners = new ListenerList<>();
 
     private final Map<ParserDataDefinition<?>, ListenerList<ParserDataListener<?>>> dataListeners =
@@ -82,19 +102,75 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
 
     private static final String COMPONENT_PROPERTIES_KEY = ParserTaskManagerImpl.class.getName() + "-comp-properties";
     private static final String DOCUMENT_PROPERTIES_KEY = ParserTaskManagerImpl.class.getName() + "-properties";
+    private static final String GENERATIONS_KEY = ParserTaskManagerImpl.class.getName() + "-generations";
+
+    /**
+     * Data updates which are currently executing, keyed by the document, snapshot version, data definition, and
+     * (for component-specific data) the component. Requests for the same data join the existing computation instead
+     * of starting a new one.
+     */
+    private final ConcurrentMap<DataRequestKey, InFlightDataTask<?>> inFlightData = new ConcurrentHashMap<>();
+
+    private final Object generationsLock = new Object();
+    private final Object documentPropertiesLock = new Object();
+
+    /**
+     * Bounds the memory retained by the cached data of all documents.
+     */
+    private final ParserDataCache dataCache = new ParserDataCache();
 
     private final RejectionHandler rejectionHandler;
-    private final ScheduledThreadPoolExecutor highPriorityExecutor;
-    private final ScheduledThreadPoolExecutor lowPriorityExecutor;
+    /**
+     * Executes work for documents which are open in an editor, along with explicit high priority requests.
+     */
+    private final ParserExecutorLane foregroundExecutor;
+    /**
+     * Executes work for documents which are not open in an editor (e.g. indexing), along with explicit low priority
+     * requests.
+     */
+    private final ParserExecutorLane backgroundExecutor;
 
     public ParserTaskManagerImpl() {
+        ParserTaskMetrics.register();
         rejectionHandler = new RejectionHandler();
 
-        int highPriorityPoolSize = 2;
-        highPriorityExecutor = new PriorityInsertionScheduledThreadPoolExecutor(highPriorityPoolSize, new ParserThreadFactory(HIGH_THREAD_PRIORITY_VALUE), rejectionHandler);
+        int processors = Runtime.getRuntime().availableProcessors();
+        int foregroundPoolSize = getForegroundThreadCount();
+        foregroundExecutor = new ParserExecutorLane(foregroundPoolSize, new ParserThreadFactory(HIGH_THREAD_PRIORITY_VALUE), rejectionHandler);
+
+        int backgroundPoolSize = getBackgroundThreadCount();
+        backgroundExecutor = new ParserExecutorLane(backgroundPoolSize, new ParserThreadFactory(LOW_THREAD_PRIORITY_VALUE), rejectionHandler);
+
+        // waiting on queued background work moves it to the foreground lane
+        backgroundExecutor.setPromotionTarget(foregroundExecutor);
+
+        // only the background lane takes work from the other lane, so foreground threads never run background work
+        String workStealing = System.getProperty(WORK_STEALING_PROPERTY);
+        if (workStealing == null || Boolean.parseBoolean(workStealing)) {
+            backgroundExecutor.setStealSource(foregroundExecutor);
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Parser executors: foreground={0}, background={1}, processors={2}", new Object[] { foregroundPoolSize, backgroundPoolSize, processors });
+        }
+    }
 
-        int lowPriorityPoolSize = 2;//Math.max(2, Runtime.getRuntime().availableProcessors());
-        lowPriorityExecutor = new PriorityInsertionScheduledThreadPoolExecutor(lowPriorityPoolSize, new ParserThreadFactory(LOW_THREAD_PRIORITY_VALUE), rejectionHandler);
+    /**
+     * Gets the number of threads of the foreground executor, which is configured with the
+     * {@code foregroundThreads} system property.
+     */
+    public static int getForegroundThreadCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger(FOREGROUND_THREADS_PROPERTY, Math.max(2, processors / 4)));
+    }
+
+    /**
+     * Gets the number of threads of the background executor, which is configured with the
+     * {@code backgroundThreads} system property.
+     */
+    public static int getBackgroundThreadCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger(BACKGROUND_THREADS_PROPERTY, Math.max(2, processors / 2)));
     }
 
     @Override
@@ -150,22 +226,44 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
                 cachedData = null;
             }
 
+            // requests which reach UpdateDataCallable record their lookup in callImpl instead
+            if (definition.isCacheable()) {
+                recordCacheLookup(definition, cachedData != null);
+            }
+
             return new CompletedFuture<>(cachedData, null);
         }
 
         ParseContext context = new ParseContext(ParserTaskScheduler.MANUAL_TASK_SCHEDULER, snapshot, component);
         Callable<ParserData<T>> callable = createCallable(context, definition);
         if (options.contains(ParserDataOptions.SYNCHRONOUS) || isParserThread()) {
+            // the callable joins an in-flight computation of the same data if one exists
             try {
                 return new CompletedFuture<>(callable.call(), null);
+            } catch (ParseCancellationException ex) {
+                // a parser bail-out is a failure, not a cancellation of the request
+                LOGGER.log(Level.WARNING, "An exception occurred while handling a parse request.", ex);
+                return new CompletedFuture<>(null, ex);
+            } catch (CancellationException ex) {
+                LOGGER.log(Level.FINE, "A parse request was cancelled.", ex);
+                return new CompletedFuture<>(null, ex);
             } catch (Exception ex) {
                 LOGGER.log(Level.WARNING, "An exception occurred while handling a parse request.", ex);
                 return new CompletedFuture<>(null, ex);
             }
         }
 
+        InFlightDataTask<T> inFlight = getInFlightData(snapshot, component, definition);
+        if (inFlight != null) {
+            if (definition.isCacheable()) {
+                recordCacheLookup(definition, false);
+            }
+
+            return new JoinedFuture<>(inFlight);
+        }
+
         callable = decorateCallable(callable);
-        return lowPriorityExecutor.schedule(callable, 0, TimeUnit.NANOSECONDS);
+        return getExecutor(context).schedule(callable, 0, TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -174,13 +272,38 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         Parameters.notNull("definitions", definitions);
         Parameters.notNull("options", options);
 
-        throw new UnsupportedOperationException("Not supported yet.");
-//        List<ParserData<?>> data = new ArrayList<ParserData<?>>();
-//        for (ParserDataDefinition<?> definition : definitions) {
-//            data.add(getData(snapshot, definition, options));
-//        }
-//
-//        return data.toArray(new ParserData<?>[0]);
+        List<ParserDataDefinition<?>> requested = new ArrayList<>(definitions);
+        @SuppressWarnings("unchecked")
+        Future<ParserData<?>>[] result = (Future<ParserData<?>>[])new Future<?>[requested.size()];
+        if (options.contains(ParserDataOptions.NO_UPDATE)) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = getWildcardData(snapshot, component, requested.get(i), options);
+            }
+
+            return result;
+        }
+
+        ParseContext context = new ParseContext(ParserTaskScheduler.MANUAL_TASK_SCHEDULER, snapshot, component);
+        ParserDataGraph graph = new ParserDataGraph(this, context, requested);
+        if (options.contains(ParserDataOptions.SYNCHRONOUS) || isParserThread()) {
+            graph.run();
+        } else {
+            graph.schedule(getExecutor(context));
+        }
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = graph.getFuture(requested.get(i));
+        }
+
+        return result;
+    }
+
+    private <T> Future<ParserData<?>> getWildcardData(DocumentSnapshot snapshot, JTextComponent component, ParserDataDefinition<T> definition, Collection<ParserDataOptions> options) {
+        try {
+            return new CompletedFuture<ParserData<?>>(getData(snapshot, component, definition, options).get(), null);
+        } catch (InterruptedException | ExecutionException ex) {
+            return new CompletedFuture<>(null, ex);
+        }
     }
 
     @Override
@@ -224,19 +347,30 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
 
     @Override
     public <T> ScheduledFuture<ParserData<T>> scheduleData(ParseContext context, ParserDataDefinition<T> data) {
-        return scheduleData(context, data, DEFAULT_DELAY, DEFAULT_TIMEUNIT);
+        return scheduleData(context, data, getDefaultDelay(context, data), DEFAULT_TIMEUNIT);
     }
 
     @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
     public Map<ParserDataDefinition<?>, ScheduledFuture<ParserData<?>>> scheduleData(ParseContext context, Collection<? extends ParserDataDefinition<?>> data) {
-        return scheduleData(context, data, DEFAULT_DELAY, DEFAULT_TIMEUNIT);
+        if (data.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<ParserDataDefinition<?>, ScheduledFuture<ParserData<?>>> futures = new HashMap<>();
+        for (ParserDataDefinition dataDefinition : data) {
+            futures.put(dataDefinition, (ScheduledFuture<ParserData<?>>)scheduleData(context, dataDefinition));
+        }
+
+        return futures;
     }
 
     @Override
     public <T> ScheduledFuture<ParserData<T>> scheduleData(ParseContext context, ParserDataDefinition<T> data, long delay, TimeUnit timeUnit) {
+        supersede(context.getDocument(), Collections.<ParserDataDefinition<?>>singleton(data));
         Callable<ParserData<T>> callable = createCallable(context, data);
         callable = decorateCallable(callable);
-        return lowPriorityExecutor.schedule(callable, delay, timeUnit);
+        return getExecutor(context).schedule(callable, delay, timeUnit);
     }
 
     @Override
@@ -256,19 +390,25 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
 
     @Override
     public ScheduledFuture<Collection<? extends ParserData<?>>> scheduleTask(@NonNull ParseContext context, @NonNull ParserTaskProvider provider) {
-        return scheduleTask(context, provider, DEFAULT_DELAY, DEFAULT_TIMEUNIT);
+        return scheduleTask(context, provider, getDefaultDelay(context, provider.getDefinition()), DEFAULT_TIMEUNIT);
     }
 
     @Override
     public Map<ParserTaskProvider, ScheduledFuture<Collection<? extends ParserData<?>>>> scheduleTask(@NonNull ParseContext context, @NonNull Collection<? extends ParserTaskProvider> providers) {
-        return scheduleTask(context, providers, DEFAULT_DELAY, DEFAULT_TIMEUNIT);
+        Map<ParserTaskProvider, ScheduledFuture<Collection<? extends ParserData<?>>>> futures = new HashMap<>();
+        for (ParserTaskProvider provider : providers) {
+            futures.put(provider, scheduleTask(context, provider));
+        }
+
+        return futures;
     }
 
     @Override
     public ScheduledFuture<Collection<? extends ParserData<?>>> scheduleTask(@NonNull ParseContext context, @NonNull ParserTaskProvider provider, long delay, @NonNull TimeUnit timeUnit) {
+        supersede(context.getDocument(), provider.getDefinition().getOutputs());
         Callable<Collection<? extends ParserData<?>>> callable = createCallable(context, provider);
         callable = decorateCallable(callable);
-        return lowPriorityExecutor.schedule(callable, delay, timeUnit);
+        return getExecutor(context).schedule(callable, delay, timeUnit);
     }
 
     @Override
@@ -290,7 +430,7 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         Parameters.notNull("callable", callable);
 
         callable = decorateCallable(callable);
-        return lowPriorityExecutor.schedule(callable, 0, TimeUnit.MILLISECONDS);
+        return backgroundExecutor.schedule(callable, 0, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -298,7 +438,7 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         Parameters.notNull("callable", callable);
 
         callable = decorateCallable(callable);
-        return highPriorityExecutor.schedule(callable, 0, TimeUnit.MILLISECONDS);
+        return foregroundExecutor.schedule(callable, 0, TimeUnit.MILLISECONDS);
     }
 
     protected <T> Callable<T> decorateCallable(@NonNull final Callable<T> callable) {
@@ -372,6 +512,103 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private <T> InFlightDataTask<T> getInFlightData(DocumentSnapshot snapshot, JTextComponent component, ParserDataDefinition<T> definition) {
+        if (!definition.isCacheable()) {
+            return null;
+        }
+
+        DataRequestKey key = new DataRequestKey(snapshot, component, definition);
+        return (InFlightDataTask<T>)inFlightData.get(key);
+    }
+
+    /**
+     * Marks work in progress for {@code definitions} in {@code document} as superseded. Running tasks for an older
+     * snapshot of the document observe this through their {@link CancellationToken}.
+     */
+    private void supersede(VersionedDocument document, Collection<? extends ParserDataDefinition<?>> definitions) {
+        for (ParserDataDefinition<?> definition : definitions) {
+            getGeneration(document, definition).incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private AtomicInteger getGeneration(VersionedDocument document, ParserDataDefinition<?> definition) {
+        ConcurrentMap<ParserDataDefinition<?>, AtomicInteger> generations;
+        synchronized (generationsLock) {
+            generations = (ConcurrentMap<ParserDataDefinition<?>, AtomicInteger>)document.getProperty(GENERATIONS_KEY);
+            if (generations == null) {
+                generations = new ConcurrentHashMap<>();
+                document.putProperty(GENERATIONS_KEY, generations);
+            }
+        }
+
+        AtomicInteger generation = generations.get(definition);
+        if (generation == null) {
+            generation = new AtomicInteger();
+            AtomicInteger existing = generations.putIfAbsent(definition, generation);
+            if (existing != null) {
+                generation = existing;
+            }
+        }
+
+        return generation;
+    }
+
+    /**
+     * Creates a token which is cancelled when any of {@code definitions}, or any input they transitively depend on,
+     * is scheduled again for a version of the document newer than {@code snapshot}.
+     */
+    private CancellationToken createCancellationToken(VersionedDocument document, DocumentSnapshot snapshot, Collection<? extends ParserDataDefinition<?>> definitions) {
+        Set<ParserDataDefinition<?>> closure = new HashSet<>();
+        Deque<ParserDataDefinition<?>> worklist = new ArrayDeque<>(definitions);
+        while (!worklist.isEmpty()) {
+            ParserDataDefinition<?> definition = worklist.remove();
+            if (!closure.add(definition)) {
+                continue;
+            }
+
+            ParserTaskProvider provider = getTaskProvider(document, definition);
+            if (provider != null) {
+                worklist.addAll(provider.getDefinition().getInputs());
+            }
+        }
+
+        List<AtomicInteger> generations = new ArrayList<>(closure.size());
+        for (ParserDataDefinition<?> definition : closure) {
+            generations.add(getGeneration(document, definition));
+        }
+
+        return new SupersededSnapshotToken(document, snapshot.getVersion().getVersionNumber(), generations);
+    }
+
+    private ParserExecutorLane getExecutor(ParseContext context) {
+        if (context.getDocument().getDocument() != null) {
+            return foregroundExecutor;
+        }
+
+        return backgroundExecutor;
+    }
+
+    /**
+     * Raises the priority of {@code runner} to the priority of the current thread, which is about to wait for work
+     * executing on {@code runner}. The runner restores its priority when the work completes.
+     */
+    private static void inheritPriority(Thread runner) {
+        if (runner == null || runner == Thread.currentThread()) {
+            return;
+        }
+
+        int priority = Thread.currentThread().getPriority();
+        if (runner.getPriority() < priority) {
+            try {
+                runner.setPriority(priority);
+            } catch (SecurityException ex) {
+                LOGGER.log(Level.FINE, "Unable to raise the priority of a parser thread.", ex);
+            }
+        }
+    }
+
     private static boolean isParserThread() {
         return Thread.currentThread() instanceof ParserThread;
     }
@@ -381,6 +618,16 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         return callable;
     }
 
+    private <T> FutureTask<ParserData<?>> createDataTask(ParseContext context, ParserDataDefinition<T> data) {
+        final Callable<ParserData<T>> callable = createCallable(context, data);
+        return new FutureTask<>(new Callable<ParserData<?>>() {
+            @Override
+            public ParserData<?> call() throws Exception {
+                return callable.call();
+            }
+        });
+    }
+
     private Callable<Collection<? extends ParserData<?>>> createCallable(ParseContext context, ParserTaskProvider provider) {
         Callable<Collection<? extends ParserData<?>>> callable = new UpdateTaskCallable(this, context, provider);
         return callable;
@@ -438,48 +685,64 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
     }
 
     @SuppressWarnings("unchecked")
-    private synchronized <T> ParserData<T> getCachedData(VersionedDocument versionedDocument, JTextComponent component, ParserDataDefinition<T> definition) {
+    private <T> ParserData<T> getCachedData(VersionedDocument versionedDocument, JTextComponent component, ParserDataDefinition<T> definition) {
         if (!definition.isCacheable()) {
             return null;
         } else if (component == null && definition.isComponentSpecific()) {
             return null;
         }
 
+        ParserDataCache.Entry entry = null;
         if (definition.isComponentSpecific()) {
-            Map<ParserDataDefinition<?>, Map<JTextComponent, ParserData<?>>> documentProperties = (Map<ParserDataDefinition<?>, Map<JTextComponent, ParserData<?>>>)versionedDocument.getProperty(COMPONENT_PROPERTIES_KEY);
+            ComponentPropertiesMap documentProperties = (ComponentPropertiesMap)versionedDocument.getProperty(COMPONENT_PROPERTIES_KEY);
             if (documentProperties != null) {
-                Map<JTextComponent, ParserData<?>> componentProperties = documentProperties.get(definition);
+                ComponentDataMap componentProperties = documentProperties.get(definition);
                 if (componentProperties != null) {
-                    return (ParserData<T>)componentProperties.get(component);
+                    synchronized (componentProperties) {
+                        entry = componentProperties.get(component);
+                    }
                 }
             }
         } else {
-            Map<ParserDataDefinition<?>, ParserData<?>> documentProperties = (Map<ParserDataDefinition<?>, ParserData<?>>)versionedDocument.getProperty(DOCUMENT_PROPERTIES_KEY);
+            DocumentPropertiesMap documentProperties = (DocumentPropertiesMap)versionedDocument.getProperty(DOCUMENT_PROPERTIES_KEY);
             if (documentProperties != null) {
-                return (ParserData<T>)documentProperties.get(definition);
+                entry = documentProperties.get(definition);
             }
         }
 
-        return null;
+        return entry != null ? (ParserData<T>)dataCache.get(entry) : null;
     }
 
-    private synchronized boolean clearCachedData(VersionedDocument versionedDocument, ParserDataDefinition<?> definition) {
+    private boolean clearCachedData(VersionedDocument versionedDocument, ParserDataDefinition<?> definition) {
         if (definition.isComponentSpecific()) {
-            Map<?, ?> componentProperties = (Map<?, ?>)versionedDocument.getProperty(COMPONENT_PROPERTIES_KEY);
+            ComponentPropertiesMap componentProperties = (ComponentPropertiesMap)versionedDocument.getProperty(COMPONENT_PROPERTIES_KEY);
             if (componentProperties != null) {
-                return componentProperties.remove(definition) != null;
+                ComponentDataMap removed = componentProperties.remove(definition);
+                if (removed != null) {
+                    synchronized (removed) {
+                        for (ParserDataCache.Entry entry : removed.values()) {
+                            dataCache.remove(entry);
+                        }
+                    }
+
+                    return true;
+                }
             }
         } else {
-            Map<?, ?> documentProperties = (Map<?, ?>)versionedDocument.getProperty(DOCUMENT_PROPERTIES_KEY);
+            DocumentPropertiesMap documentProperties = (DocumentPropertiesMap)versionedDocument.getProperty(DOCUMENT_PROPERTIES_KEY);
             if (documentProperties != null) {
-                return documentProperties.remove(definition) != null;
+                ParserDataCache.Entry removed = documentProperties.remove(definition);
+                if (removed != null) {
+                    dataCache.remove(removed);
+                    return true;
+                }
             }
         }
 
         return false;
     }
 
-    private synchronized boolean updateCachedData(ParseContext context, ParserDataDefinition<?> definition, ParserData<?> data) {
+    private boolean updateCachedData(ParseContext context, ParserDataDefinition<?> definition, ParserData<?> data) {
         if (data == null) {
             return false;
         } else if (definition.isComponentSpecific() && data.getContext().getComponent() == null) {
@@ -489,47 +752,113 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         VersionedDocument versionedDocument = context.getDocument();
 
         if (definition.isComponentSpecific()) {
-            ComponentPropertiesMap documentProperties = (ComponentPropertiesMap)versionedDocument.getProperty(COMPONENT_PROPERTIES_KEY);
-            if (documentProperties == null) {
-                documentProperties = new ComponentPropertiesMap();
-                versionedDocument.putProperty(COMPONENT_PROPERTIES_KEY, documentProperties);
-            }
-
-            ComponentDataMap componentProperties = (ComponentDataMap)documentProperties.get(definition);
+            ComponentPropertiesMap documentProperties = getComponentProperties(versionedDocument);
+            ComponentDataMap componentProperties = documentProperties.get(definition);
             if (componentProperties == null) {
                 componentProperties = new ComponentDataMap();
+                ComponentDataMap existing = documentProperties.putIfAbsent(definition, componentProperties);
+                if (existing != null) {
+                    componentProperties = existing;
+                }
             }
 
-            ParserData<?> previousData = componentProperties.get(data.getContext().getComponent());
-            //ParserData<?> previousData = previousDataRef != null ? 
-            if (previousData == data || (previousData != null && previousData.equals(data))) {
-                return false;
+            // component data is only updated from the component's own requests, so a lock on the small map is enough
+            ParserDataCache.Entry previousEntry;
+            ParserDataCache.Entry newEntry;
+            synchronized (componentProperties) {
+                previousEntry = componentProperties.get(data.getContext().getComponent());
+                ParserData<?> previousData = previousEntry != null ? previousEntry.peek() : null;
+                if (previousData == data || (previousData != null && previousData.equals(data))) {
+                    return false;
+                }
+                else if (previousData != null && !isCurrentNewer(context, previousData, data)) {
+                    // don't replace new data with old
+                    ParserTaskMetrics.getDefault().recordStaleDiscard(definition);
+                    return false;
+                }
+
+                newEntry = dataCache.createEntry(versionedDocument, data);
+                componentProperties.put(data.getContext().getComponent(), newEntry);
             }
-            else if (previousData != null && !isCurrentNewer(context, previousData, data)) {
-                // don't replace new data with old
-                return false;
+
+            dataCache.add(newEntry);
+            if (previousEntry != null) {
+                dataCache.remove(previousEntry);
             }
 
-            componentProperties.put(data.getContext().getComponent(), data);
             return true;
         } else {
-            DocumentPropertiesMap documentProperties = (DocumentPropertiesMap)versionedDocument.getProperty(DOCUMENT_PROPERTIES_KEY);
-            if (documentProperties == null) {
-                documentProperties = new DocumentPropertiesMap();
-                versionedDocument.putProperty(DOCUMENT_PROPERTIES_KEY, documentProperties);
+            DocumentPropertiesMap documentProperties = getDocumentProperties(versionedDocument);
+            while (true) {
+                ParserDataCache.Entry previousEntry = documentProperties.get(definition);
+                ParserData<?> previousData = previousEntry != null ? previousEntry.peek() : null;
+                if (previousData == data || (previousData != null && previousData.equals(data))) {
+                    return false;
+                }
+                else if (previousData != null && !isCurrentNewer(context, previousData, data)) {
+                    // don't replace new data with old
+                    ParserTaskMetrics.getDefault().recordStaleDiscard(definition);
+                    return false;
+                }
+
+                ParserDataCache.Entry newEntry = dataCache.createEntry(versionedDocument, data);
+                boolean updated = previousEntry == null
+                    ? documentProperties.putIfAbsent(definition, newEntry) == null
+                    : documentProperties.replace(definition, previousEntry, newEntry);
+                if (!updated) {
+                    // another thread updated the data; compare against its result instead
+                    continue;
+                }
+
+                dataCache.add(newEntry);
+                if (previousEntry != null) {
+                    dataCache.remove(previousEntry);
+                }
+
+                return true;
             }
+        }
+    }
 
-            ParserData<?> previousData = documentProperties.get(definition);
-            if (previousData == data || (previousData != null && previousData.equals(data))) {
-                return false;
+    private DocumentPropertiesMap getDocumentProperties(VersionedDocument versionedDocument) {
+        DocumentPropertiesMap properties = (DocumentPropertiesMap)versionedDocument.getProperty(DOCUMENT_PROPERTIES_KEY);
+        if (properties == null) {
+            synchronized (documentPropertiesLock) {
+                properties = (DocumentPropertiesMap)versionedDocument.getProperty(DOCUMENT_PROPERTIES_KEY);
+                if (properties == null) {
+                    properties = new DocumentPropertiesMap();
+                    versionedDocument.putProperty(DOCUMENT_PROPERTIES_KEY, properties);
+                }
             }
-            else if (previousData != null && !isCurrentNewer(context, previousData, data)) {
-                // don't replace new data with old
-                return false;
+        }
+
+        return properties;
+    }
+
+    private ComponentPropertiesMap getComponentProperties(VersionedDocument versionedDocument) {
+        ComponentPropertiesMap properties = (ComponentPropertiesMap)versionedDocument.getProperty(COMPONENT_PROPERTIES_KEY);
+        if (properties == null) {
+            synchronized (documentPropertiesLock) {
+                properties = (ComponentPropertiesMap)versionedDocument.getProperty(COMPONENT_PROPERTIES_KEY);
+                if (properties == null) {
+                    properties = new ComponentPropertiesMap();
+                    versionedDocument.putProperty(COMPONENT_PROPERTIES_KEY, properties);
+                }
             }
+        }
 
-            documentProperties.put(definition, data);
-            return true;
+        return properties;
+    }
+
+    private static long getDefaultDelay(ParseContext context, Object key) {
+        return AdaptiveParseDelayPolicy.getDefault().getDelayMilliseconds(context.getDocument(), key, DEFAULT_DELAY);
+    }
+
+    private static void recordCacheLookup(ParserDataDefinition<?> definition, boolean hit) {
+        if (hit) {
+            ParserTaskMetrics.getDefault().recordCacheHit(definition);
+        } else {
+            ParserTaskMetrics.getDefault().recordCacheMiss(definition);
         }
     }
 
@@ -541,13 +870,16 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         return true;
     }
 
-    private static class ComponentPropertiesMap extends HashMap<ParserDataDefinition<?>, Map<JTextComponent, ParserData<?>>> {
+    private static class ComponentPropertiesMap extends ConcurrentHashMap<ParserDataDefinition<?>, ComponentDataMap> {
     }
 
-    private static class ComponentDataMap extends WeakHashMap<JTextComponent, ParserData<?>> {
+    /**
+     * Maps components to their cached data. Access is guarded by the map itself.
+     */
+    private static class ComponentDataMap extends WeakHashMap<JTextComponent, ParserDataCache.Entry> {
     }
 
-    private static class DocumentPropertiesMap extends HashMap<ParserDataDefinition<?>, ParserData<?>> {
+    private static class DocumentPropertiesMap extends ConcurrentHashMap<ParserDataDefinition<?>, ParserDataCache.Entry> {
     }
 
     private static class RejectionHandler implements RejectedExecutionHandler {
@@ -560,9 +892,21 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
     }
 
     private static class ParserThread extends Thread {
+        private final int basePriority;
 
-        public ParserThread(Runnable target) {
+        public ParserThread(Runnable target, int basePriority) {
             super(target);
+            this.basePriority = basePriority;
+            setPriority(basePriority);
+        }
+
+        /**
+         * Restores the priority of this thread if it was raised for a waiting caller.
+         */
+        public void resetPriority() {
+            if (getPriority() != basePriority) {
+                setPriority(basePriority);
+            }
         }
 
     }
@@ -581,8 +925,7 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
 
         @Override
         public Thread newThread(Runnable r) {
-            Thread thread = new ParserThread(r);
-            thread.setPriority(priority);
+            Thread thread = new ParserThread(r, priority);
 
             String priorityName = priority >= HIGH_THREAD_PRIORITY_VALUE ? "Foreground" : "Background";
             String name = String.format("Parse (%s) #%d", priorityName, ++threadCount);
@@ -596,23 +939,69 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         protected final ParserTaskManagerImpl outer;
         protected final ParseContext context;
 
+        private boolean createCancellationToken;
+        /**
+         * The {@link System#nanoTime} when this update became eligible to run, or 0 if it was not queued.
+         */
+        private volatile long readyTime;
+
         protected UpdateCallable(ParserTaskManagerImpl outer, ParseContext context) {
             this.outer = outer;
             this.context = context;
         }
 
+        @NonNull
+        protected abstract Object getMetricsKey();
+
         @Override
         public final Result call() throws Exception {
+            if (readyTime != 0) {
+                ParserTaskMetrics.getDefault().recordQueueWait(getMetricsKey(), System.nanoTime() - readyTime);
+            }
+
+            CancellationToken previous = CancellationToken.setCurrent(null);
             try {
+                if (previous != null) {
+                    // nested request from another task, whose token already covers the inputs it requests
+                    CancellationToken.setCurrent(previous);
+                } else if (!isParserThread()) {
+                    // a foreground caller is waiting for the result for this specific snapshot
+                    CancellationToken.setCurrent(CancellationToken.NONE);
+                } else {
+                    createCancellationToken = true;
+                }
+
                 return callImpl();
+            } catch (ParseCancellationException ex) {
+                // extends CancellationException, but signals a parser bail-out rather than a cancelled task
+                LOGGER.log(Level.WARNING, Bundle.taskFailedException(), ex);
+                throw ex;
+            } catch (CancellationException ex) {
+                LOGGER.log(Level.FINE, "Task execution was cancelled.", ex);
+                ParserTaskMetrics.getDefault().recordCancellation(getMetricsKey());
+                throw ex;
             } catch (Exception | Error ex) {
                 LOGGER.log(Level.WARNING, Bundle.taskFailedException(), ex);
                 throw ex;
+            } finally {
+                CancellationToken.setCurrent(previous);
             }
         }
 
         protected abstract Result callImpl() throws Exception;
 
+        /**
+         * Installs the cancellation token for this update once the target snapshot is known, and stops the update if
+         * it was already superseded while waiting in the queue.
+         */
+        protected final void installCancellationToken(DocumentSnapshot snapshot, Collection<? extends ParserDataDefinition<?>> definitions) {
+            if (createCancellationToken) {
+                CancellationToken.setCurrent(outer.createCancellationToken(context.getDocument(), snapshot, definitions));
+            }
+
+            CancellationToken.getCurrent().throwIfCancellationRequested();
+        }
+
     }
 
     private static class UpdateDataCallable<T> extends UpdateCallable<ParserData<T>> {
@@ -623,22 +1012,73 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
             this.data = data;
         }
 
+        @Override
+        protected Object getMetricsKey() {
+            return data;
+        }
+
         @Override
         @SuppressWarnings("unchecked")
         protected ParserData<T> callImpl() throws Exception {
-            VersionedDocument document = context.getDocument();
+            final VersionedDocument document = context.getDocument();
             DocumentSnapshot snapshot = context.getSnapshot();
             if (snapshot == null) {
                 snapshot = document.getCurrentSnapshot();
             }
 
-            if (data.isCacheable()) {
-                ParserData<T> cachedData = outer.getCachedData(context.getDocument(), context.getComponent(), data);
-                if (cachedData != null && cachedData.getSnapshot().equals(snapshot)) {
-                    return cachedData;
+            installCancellationToken(snapshot, Collections.<ParserDataDefinition<?>>singleton(data));
+
+            if (!data.isCacheable()) {
+                // the result may depend on more than the snapshot (e.g. the caret position), so it is not shared
+                return updateData(document, snapshot);
+            }
+
+            ParserData<T> cachedData = outer.getCachedData(context.getDocument(), context.getComponent(), data);
+            boolean cacheHit = cachedData != null && cachedData.getSnapshot().equals(snapshot);
+            recordCacheLookup(data, cacheHit);
+            if (cacheHit) {
+                return cachedData;
+            }
+
+            final DocumentSnapshot targetSnapshot = snapshot;
+            DataRequestKey key = new DataRequestKey(snapshot, context.getComponent(), data);
+            InFlightDataTask<T> task = new InFlightDataTask<>(new Callable<ParserData<T>>() {
+                @Override
+                public ParserData<T> call() throws Exception {
+                    return updateData(document, targetSnapshot);
+                }
+            });
+
+            InFlightDataTask<T> existing = (InFlightDataTask<T>)outer.inFlightData.putIfAbsent(key, task);
+            if (existing != null) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "{0}: Joining in-flight update of data \"{1}\" for version {2}", new Object[] { Thread.currentThread().getName(), data.getName(), snapshot.getVersion().getVersionNumber() });
                 }
+
+                try {
+                    return existing.join();
+                } catch (ParseCancellationException ex) {
+                    throw ex;
+                } catch (CancellationException ex) {
+                    if (CancellationToken.getCurrent().isCancellationRequested()) {
+                        throw ex;
+                    }
+
+                    // the shared update was superseded, but this request still needs the result
+                    return updateData(document, snapshot);
+                }
+            }
+
+            try {
+                task.run();
+                return task.join();
+            } finally {
+                outer.inFlightData.remove(key, task);
             }
+        }
 
+        @SuppressWarnings("unchecked")
+        private ParserData<T> updateData(VersionedDocument document, DocumentSnapshot snapshot) throws Exception {
             ParserTaskProvider provider = outer.getTaskProvider(document, data);
             if (provider == null) {
                 LOGGER.log(Level.WARNING, "No provider found for parser data \"{0}\".", data.getName());
@@ -659,7 +1099,12 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
             }
 
             ResultAggregator handler = new ResultAggregator(outer, context);
+            long startTime = System.nanoTime();
             task.parse(outer, context, snapshot, Collections.<ParserDataDefinition<?>>singleton(data), handler);
+            long elapsed = System.nanoTime() - startTime;
+            ParserTaskMetrics.getDefault().recordExecution(data, elapsed);
+            ParserTaskMetrics.getDefault().recordExecution(task.getDefinition(), elapsed);
+            AdaptiveParseDelayPolicy.getDefault().recordExecution(document, data, elapsed);
 
             for (ParserData<?> result : handler.getUpdatedResults()) {
                 outer.fireDataChanged((ParserDataDefinition)result.getDefinition(), result);
@@ -675,6 +1120,435 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
         }
     }
 
+    /**
+     * Evaluates a set of data definitions along with the inputs they require. The graph is built from the inputs and
+     * outputs declared by each {@link ParserTaskDefinition}, and each task is only started after all of the tasks
+     * producing its inputs have completed, so tasks find their inputs in the cache instead of blocking on nested
+     * synchronous requests. Independent tasks run in parallel.
+     */
+    private static final class ParserDataGraph {
+        private final ParserTaskManagerImpl outer;
+        private final ParseContext context;
+        private final Map<ParserDataDefinition<?>, ParserTaskProvider> providers = new HashMap<>();
+        private final Map<ParserTaskProvider, GraphNode> nodes = new LinkedHashMap<>();
+        private final Map<ParserDataDefinition<?>, FutureTask<ParserData<?>>> futures = new HashMap<>();
+        private final Map<ParserDataDefinition<?>, GraphNode> definitionNodes = new HashMap<>();
+        private final List<GraphNode> order;
+
+        public ParserDataGraph(@NonNull ParserTaskManagerImpl outer, @NonNull ParseContext context, @NonNull Collection<? extends ParserDataDefinition<?>> definitions) {
+            this.outer = outer;
+            this.context = context;
+            for (ParserDataDefinition<?> definition : definitions) {
+                visit(definition);
+            }
+
+            this.order = sort();
+        }
+
+        public Future<ParserData<?>> getFuture(ParserDataDefinition<?> definition) {
+            FutureTask<ParserData<?>> future = futures.get(definition);
+            if (future == null) {
+                LOGGER.log(Level.WARNING, "No provider found for parser data \"{0}\".", definition.getName());
+                return new CompletedFuture<>(null, null);
+            }
+
+            return new GraphFuture(this, definitionNodes.get(definition), future);
+        }
+
+        /**
+         * Evaluates the graph in topological order on the current thread.
+         */
+        public void run() {
+            for (GraphNode node : order) {
+                node.runTasks();
+            }
+        }
+
+        /**
+         * Evaluates {@code target} and the nodes it depends on which have not started yet on the current thread, in
+         * topological order. Tasks which are already running on another thread are not run again.
+         */
+        public void runInline(GraphNode target) {
+            Set<GraphNode> required = new HashSet<>();
+            Deque<GraphNode> work = new ArrayDeque<>();
+            work.add(target);
+            while (!work.isEmpty()) {
+                GraphNode node = work.remove();
+                if (required.add(node)) {
+                    work.addAll(node.dependencies);
+                }
+            }
+
+            for (GraphNode node : order) {
+                if (required.contains(node)) {
+                    node.runTasks();
+                }
+            }
+        }
+
+        /**
+         * Evaluates the graph on {@code executor}. Nodes without dependencies are scheduled immediately, and each
+         * remaining node is scheduled when its last dependency completes.
+         */
+        public void schedule(ScheduledThreadPoolExecutor executor) {
+            for (GraphNode node : order) {
+                node.executor = executor;
+            }
+
+            for (GraphNode node : order) {
+                if (node.pending.get() == 0) {
+                    executor.schedule(node, 0, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        private void visit(ParserDataDefinition<?> definition) {
+            if (providers.containsKey(definition)) {
+                return;
+            }
+
+            ParserTaskProvider provider = outer.getTaskProvider(context.getDocument(), definition);
+            providers.put(definition, provider);
+            if (provider == null) {
+                return;
+            }
+
+            GraphNode node = nodes.get(provider);
+            if (node == null) {
+                node = new GraphNode(provider);
+                nodes.put(provider, node);
+            }
+
+            FutureTask<ParserData<?>> task = outer.createDataTask(context, definition);
+            futures.put(definition, task);
+            definitionNodes.put(definition, node);
+            node.tasks.add(task);
+
+            for (ParserDataDefinition<?> input : provider.getDefinition().getInputs()) {
+                visit(input);
+                ParserTaskProvider inputProvider = providers.get(input);
+                if (inputProvider != null && inputProvider != provider) {
+                    node.dependencies.add(nodes.get(inputProvider));
+                }
+            }
+        }
+
+        private List<GraphNode> sort() {
+            List<GraphNode> result = new ArrayList<>(nodes.size());
+            Deque<GraphNode> ready = new ArrayDeque<>();
+            for (GraphNode node : nodes.values()) {
+                node.pending.set(node.dependencies.size());
+                for (GraphNode dependency : node.dependencies) {
+                    dependency.dependents.add(node);
+                }
+            }
+
+            Map<GraphNode, Integer> remaining = new HashMap<>();
+            for (GraphNode node : nodes.values()) {
+                remaining.put(node, node.dependencies.size());
+                if (node.dependencies.isEmpty()) {
+                    ready.add(node);
+                }
+            }
+
+            while (!ready.isEmpty()) {
+                GraphNode node = ready.remove();
+                result.add(node);
+                for (GraphNode dependent : node.dependents) {
+                    int count = remaining.get(dependent) - 1;
+                    remaining.put(dependent, count);
+                    if (count == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+
+            if (result.size() < nodes.size()) {
+                // the declared inputs contain a cycle; the remaining tasks request their inputs on demand
+                LOGGER.log(Level.WARNING, "Cycle detected in the declared inputs of parser tasks for {0}.", context.getDocument().getMimeType());
+                for (GraphNode node : nodes.values()) {
+                    if (!result.contains(node)) {
+                        node.dependencies.clear();
+                        node.pending.set(0);
+                        result.add(node);
+                    }
+                }
+            }
+
+            return result;
+        }
+
+    }
+
+    private static final class GraphNode implements Runnable {
+        private final ParserTaskProvider provider;
+        private final List<FutureTask<ParserData<?>>> tasks = new ArrayList<>();
+        private final Set<GraphNode> dependencies = new LinkedHashSet<>();
+        private final List<GraphNode> dependents = new ArrayList<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private ScheduledThreadPoolExecutor executor;
+
+        public GraphNode(ParserTaskProvider provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runTasks();
+            } finally {
+                for (GraphNode dependent : dependents) {
+                    if (dependent.pending.decrementAndGet() == 0) {
+                        executor.schedule(dependent, 0, TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+        }
+
+        public void runTasks() {
+            // outputs of the same task run sequentially, so later outputs are normally read from the cache
+            for (FutureTask<ParserData<?>> task : tasks) {
+                task.run();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return provider.getDefinition().toString();
+        }
+
+    }
+
+    /**
+     * The result of one definition in a {@link ParserDataGraph}. A thread which waits for the result before the
+     * scheduled graph reaches it evaluates the required part of the graph itself.
+     */
+    private static final class GraphFuture implements Future<ParserData<?>> {
+        private final ParserDataGraph graph;
+        private final GraphNode node;
+        private final FutureTask<ParserData<?>> task;
+
+        public GraphFuture(ParserDataGraph graph, GraphNode node, FutureTask<ParserData<?>> task) {
+            this.graph = graph;
+            this.node = node;
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return task.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public ParserData<?> get() throws InterruptedException, ExecutionException {
+            if (!task.isDone()) {
+                graph.runInline(node);
+            }
+
+            return task.get();
+        }
+
+        @Override
+        public ParserData<?> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return task.get(timeout, unit);
+        }
+
+    }
+
+    private static final class SupersededSnapshotToken extends CancellationToken {
+        private final VersionedDocument document;
+        private final int versionNumber;
+        private final AtomicInteger[] generations;
+        private volatile int checkedGeneration;
+        private volatile boolean cancelled;
+
+        public SupersededSnapshotToken(VersionedDocument document, int versionNumber, List<AtomicInteger> generations) {
+            this.document = document;
+            this.versionNumber = versionNumber;
+            this.generations = generations.toArray(new AtomicInteger[generations.size()]);
+            this.checkedGeneration = getGeneration();
+        }
+
+        @Override
+        public boolean isCancellationRequested() {
+            if (cancelled) {
+                return true;
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                cancelled = true;
+                return true;
+            }
+
+            int generation = getGeneration();
+            if (generation == checkedGeneration) {
+                return false;
+            }
+
+            // work was rescheduled; it only supersedes this task if the document has changed since the snapshot
+            checkedGeneration = generation;
+            if (document.getCurrentSnapshot().getVersion().getVersionNumber() > versionNumber) {
+                cancelled = true;
+            }
+
+            return cancelled;
+        }
+
+        private int getGeneration() {
+            int generation = 0;
+            for (AtomicInteger value : generations) {
+                generation += value.get();
+            }
+
+            return generation;
+        }
+    }
+
+    private static final class DataRequestKey {
+        private final VersionedDocument document;
+        private final int versionNumber;
+        private final ParserDataDefinition<?> definition;
+        private final JTextComponent component;
+
+        public DataRequestKey(@NonNull DocumentSnapshot snapshot, JTextComponent component, @NonNull ParserDataDefinition<?> definition) {
+            this.document = snapshot.getVersionedDocument();
+            this.versionNumber = snapshot.getVersion().getVersionNumber();
+            this.definition = definition;
+            this.component = definition.isComponentSpecific() ? component : null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+
+            if (!(obj instanceof DataRequestKey)) {
+                return false;
+            }
+
+            DataRequestKey other = (DataRequestKey)obj;
+            return this.versionNumber == other.versionNumber
+                && this.document.equals(other.document)
+                && this.definition.equals(other.definition)
+                && this.component == other.component;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + this.document.hashCode();
+            hash = 31 * hash + this.versionNumber;
+            hash = 31 * hash + this.definition.hashCode();
+            hash = 31 * hash + (this.component != null ? this.component.hashCode() : 0);
+            return hash;
+        }
+    }
+
+    private static class InFlightDataTask<T> extends FutureTask<ParserData<T>> {
+        private volatile Thread runner;
+
+        public InFlightDataTask(Callable<ParserData<T>> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            int originalPriority = thread.getPriority();
+            runner = thread;
+            try {
+                super.run();
+            } finally {
+                runner = null;
+                if (thread.getPriority() != originalPriority) {
+                    thread.setPriority(originalPriority);
+                }
+            }
+        }
+
+        @Override
+        public ParserData<T> get() throws InterruptedException, ExecutionException {
+            if (!isDone()) {
+                inheritPriority(runner);
+            }
+
+            return super.get();
+        }
+
+        @Override
+        public ParserData<T> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!isDone()) {
+                inheritPriority(runner);
+            }
+
+            return super.get(timeout, unit);
+        }
+
+        public ParserData<T> join() throws Exception {
+            try {
+                return get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+
+                throw ex;
+            }
+        }
+
+    }
+
+    /**
+     * A view of an in-flight computation which is shared with other requests, so cancelling it is not allowed.
+     */
+    private static class JoinedFuture<T> implements Future<T> {
+        private final Future<T> future;
+
+        public JoinedFuture(@NonNull Future<T> future) {
+            this.future = future;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return future.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return future.get(timeout, unit);
+        }
+
+    }
+
     private static class UpdateTaskCallable extends UpdateCallable<Collection<? extends ParserData<?>>> {
         private final ParserTaskProvider provider;
 
@@ -683,6 +1557,11 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
             this.provider = provider;
         }
 
+        @Override
+        protected Object getMetricsKey() {
+            return provider.getDefinition();
+        }
+
         @Override
         @SuppressWarnings("unchecked")
         protected Collection<? extends ParserData<?>> callImpl() throws Exception {
@@ -693,6 +1572,8 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
                 snapshot = document.getCurrentSnapshot();
             }
 
+            installCancellationToken(snapshot, provider.getDefinition().getOutputs());
+
             if (LOGGER.isLoggable(Level.FINE)) {
                 String messageFormat = "{0}: Updating task \"{1}\" for {2}#{3}";
                 FileObject fileObject = document.getFileObject();
@@ -708,7 +1589,11 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
             }
 
             ResultAggregator handler = new ResultAggregator(outer, context);
+            long startTime = System.nanoTime();
             task.parse(outer, context, snapshot, provider.getDefinition().getOutputs(), handler);
+            long elapsed = System.nanoTime() - startTime;
+            ParserTaskMetrics.getDefault().recordExecution(provider.getDefinition(), elapsed);
+            AdaptiveParseDelayPolicy.getDefault().recordExecution(document, provider.getDefinition(), elapsed);
 
             for (ParserData<?> result : handler.getUpdatedResults()) {
                 outer.fireDataChanged((ParserDataDefinition)result.getDefinition(), result);
@@ -761,6 +1646,39 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
             super(corePoolSize, threadFactory, handler);
         }
 
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            if (t instanceof ParserThread) {
+                // a waiter may have raised the priority just as the previous task completed
+                ((ParserThread)t).resetPriority();
+            }
+        }
+
+        /**
+         * Gets the executor which should run queued work from this executor when another thread starts waiting for
+         * it, or {@code null} to leave the work in this executor.
+         */
+        public PriorityInsertionScheduledThreadPoolExecutor getPromotionTarget() {
+            return null;
+        }
+
+        /**
+         * Adds a task which was removed from the queue of another executor to the queue of this executor. The task
+         * keeps its priority, and is executed by the threads of this executor like any other queued task.
+         */
+        public void requeue(@NonNull PriorityInsertionRunnableScheduledFuture<?> task) {
+            Parameters.notNull("task", task);
+            if (isShutdown()) {
+                getRejectedExecutionHandler().rejectedExecution(task, this);
+                return;
+            }
+
+            task.setExecutor(this);
+            super.getQueue().add(task);
+            prestartAllCoreThreads();
+        }
+
         @Override
         protected <V> RunnableScheduledFuture<V> decorateTask(Callable<V> callable, RunnableScheduledFuture<V> task) {
             int priority = PRIORITY_INITIAL;
@@ -770,12 +1688,13 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
 
             if (callable instanceof UpdateCallable<?>) {
                 UpdateCallable<?> updateCallable = (UpdateCallable<?>)callable;
+                updateCallable.readyTime = System.nanoTime() + task.getDelay(TimeUnit.NANOSECONDS);
                 if (updateCallable.context.getDocument().getDocument() != null) {
                     priority += PRIORITY_FOREGROUND_OFFSET;
                 }
             }
 
-            return new PriorityInsertionRunnableScheduledFuture<>(task, priority);
+            return new PriorityInsertionRunnableScheduledFuture<>(this, task, priority);
         }
 
         @Override
@@ -792,7 +1711,112 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
                 }
             }
 
-            return new PriorityInsertionRunnableScheduledFuture<>(task, priority);
+            return new PriorityInsertionRunnableScheduledFuture<>(this, task, priority);
+        }
+
+    }
+
+    /**
+     * A priority executor which, when configured with a steal source, moves ready work from the queue of the steal
+     * source to its own queue while all threads of the steal source are busy and this lane has idle threads. The work
+     * is moved with {@link #requeue}, so it runs through the normal execution path of this lane.
+     */
+    private static class ParserExecutorLane extends PriorityInsertionScheduledThreadPoolExecutor {
+        private volatile ParserExecutorLane stealSource;
+        private volatile ParserExecutorLane thief;
+        private volatile ParserExecutorLane promotionTarget;
+
+        public ParserExecutorLane(int corePoolSize, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+            super(corePoolSize, threadFactory, handler);
+        }
+
+        public void setStealSource(ParserExecutorLane stealSource) {
+            ParserExecutorLane previous = this.stealSource;
+            if (previous != null) {
+                previous.thief = null;
+            }
+
+            this.stealSource = stealSource;
+            if (stealSource != null) {
+                stealSource.thief = this;
+            }
+        }
+
+        @Override
+        public PriorityInsertionScheduledThreadPoolExecutor getPromotionTarget() {
+            return promotionTarget;
+        }
+
+        public void setPromotionTarget(ParserExecutorLane promotionTarget) {
+            this.promotionTarget = promotionTarget;
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            ScheduledFuture<V> result = super.schedule(callable, delay, unit);
+            offerToThief(delay);
+            return result;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            ScheduledFuture<?> result = super.schedule(command, delay, unit);
+            offerToThief(delay);
+            return result;
+        }
+
+        /**
+         * When immediate work is scheduled while all threads of this lane are busy, let an idle thief take it.
+         */
+        private void offerToThief(long delay) {
+            ParserExecutorLane currentThief = thief;
+            if (currentThief != null && delay <= 0) {
+                currentThief.stealReadyWork(currentThief.getCorePoolSize() - currentThief.getActiveCount());
+            }
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+
+            // the current thread is still counted as active
+            stealReadyWork(getCorePoolSize() - getActiveCount() + 1);
+        }
+
+        /**
+         * Moves up to {@code idleThreads} ready tasks from the steal source to this lane, as long as the steal source
+         * has no idle threads and this lane has no ready work of its own.
+         */
+        private void stealReadyWork(int idleThreads) {
+            ParserExecutorLane source = stealSource;
+            if (source == null || isShutdown()) {
+                return;
+            }
+
+            for (int i = 0; i < idleThreads; i++) {
+                if (hasReadyWork() || source.getActiveCount() < source.getCorePoolSize()) {
+                    return;
+                }
+
+                Runnable head = source.getQueue().peek();
+                if (!(head instanceof PriorityInsertionRunnableScheduledFuture<?>) || !isReady(head) || !source.remove(head)) {
+                    return;
+                }
+
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    LOGGER.log(Level.FINEST, "{0}: Moving ready work from a busy executor to an idle executor.", Thread.currentThread().getName());
+                }
+
+                requeue((PriorityInsertionRunnableScheduledFuture<?>)head);
+            }
+        }
+
+        private boolean hasReadyWork() {
+            return isReady(getQueue().peek());
+        }
+
+        private static boolean isReady(Runnable task) {
+            return task instanceof Delayed && ((Delayed)task).getDelay(TimeUnit.NANOSECONDS) <= 0;
         }
 
     }
@@ -801,16 +1825,31 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
     private static final int PRIORITY_IMMEDIATE_OFFSET = -1;
     private static final int PRIORITY_FOREGROUND_OFFSET = -2;
 
+    /**
+     * A scheduled task which is ordered by priority within its queue. A thread which waits for the task while it is
+     * queued runs the task itself; a thread which waits with a timeout moves the task to the promotion target of its
+     * executor instead; and a thread which waits for the task while it is running raises the priority of the thread
+     * running it.
+     */
     private static class PriorityInsertionRunnableScheduledFuture<V> implements RunnableScheduledFuture<V> {
+        /** The executor whose queue holds this task, which changes when the task is moved to another executor. */
+        private volatile PriorityInsertionScheduledThreadPoolExecutor executor;
         private final RunnableScheduledFuture<V> wrappedTask;
         private final int priority;
+        private volatile Thread runner;
 
-        public PriorityInsertionRunnableScheduledFuture(@NonNull RunnableScheduledFuture<V> wrappedTask, int priority) {
+        public PriorityInsertionRunnableScheduledFuture(@NonNull PriorityInsertionScheduledThreadPoolExecutor executor, @NonNull RunnableScheduledFuture<V> wrappedTask, int priority) {
+            Parameters.notNull("executor", executor);
             Parameters.notNull("wrappedTask", wrappedTask);
+            this.executor = executor;
             this.wrappedTask = wrappedTask;
             this.priority = priority;
         }
 
+        void setExecutor(@NonNull PriorityInsertionScheduledThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+
         @Override
         public boolean isPeriodic() {
             return wrappedTask.isPeriodic();
@@ -818,7 +1857,17 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
 
         @Override
         public void run() {
-            wrappedTask.run();
+            Thread thread = Thread.currentThread();
+            int originalPriority = thread.getPriority();
+            runner = thread;
+            try {
+                wrappedTask.run();
+            } finally {
+                runner = null;
+                if (thread.getPriority() != originalPriority) {
+                    thread.setPriority(originalPriority);
+                }
+            }
         }
 
         @Override
@@ -838,11 +1887,37 @@ public class ParserTaskManagerImpl implements ParserTaskManager {
 
         @Override
         public V get() throws InterruptedException, ExecutionException {
+            if (!isDone()) {
+                if (!isPeriodic() && executor.remove(this)) {
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.log(Level.FINE, "{0}: Running queued parser work inline for a waiting caller.", Thread.currentThread().getName());
+                    }
+
+                    run();
+                } else {
+                    inheritPriority(runner);
+                }
+            }
+
             return wrappedTask.get();
         }
 
         @Override
         public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!isDone()) {
+                PriorityInsertionScheduledThreadPoolExecutor target = executor.getPromotionTarget();
+                if (target != null && !isPeriodic() && executor.remove(this)) {
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.log(Level.FINE, "{0}: Promoting queued parser work to the foreground for a waiting caller.", Thread.currentThread().getName());
+                    }
+
+                    // move this task instead of submitting it, which would wrap it in a second future
+                    target.requeue(this);
+                } else {
+                    inheritPriority(runner);
+                }
+            }
+
             return wrappedTask.get(timeout, unit);
         }
 
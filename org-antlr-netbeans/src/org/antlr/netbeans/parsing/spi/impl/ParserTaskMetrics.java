@@ -0,0 +1,239 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.netbeans.api.annotations.common.NonNull;
+
+/**
+ * Collects timing and cache statistics for the parser task framework. Latencies are recorded per
+ * {@link org.antlr.netbeans.parsing.spi.ParserDataDefinition} and
+ * {@link org.antlr.netbeans.parsing.spi.ParserTaskDefinition} in histograms with power-of-two buckets, so recording
+ * a sample does not allocate.
+ *
+ * @author Sam Harwell
+ */
+public final class ParserTaskMetrics implements ParserTaskMetricsMBean {
+    // -J-Dorg.antlr.netbeans.parsing.spi.impl.ParserTaskMetrics.level=FINE
+    private static final Logger LOGGER = Logger.getLogger(ParserTaskMetrics.class.getName());
+
+    private static final String OBJECT_NAME = "org.antlr.netbeans.parsing:type=ParserTaskMetrics";
+
+    private static final ParserTaskMetrics DEFAULT = new ParserTaskMetrics();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong cancellations = new AtomicLong();
+    private final AtomicLong staleDiscards = new AtomicLong();
+
+    private ParserTaskMetrics() {
+    }
+
+    @NonNull
+    public static ParserTaskMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. Calling this method more than once has no effect.
+     */
+    static synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(DEFAULT, name);
+            }
+        } catch (JMException | SecurityException ex) {
+            LOGGER.log(Level.FINE, "Unable to register the parser task metrics MBean.", ex);
+        }
+    }
+
+    public void recordQueueWait(@NonNull Object key, long nanos) {
+        getEntry(key).queueWait.record(nanos);
+    }
+
+    public void recordExecution(@NonNull Object key, long nanos) {
+        getEntry(key).execution.record(nanos);
+    }
+
+    public void recordCacheHit(@NonNull Object key) {
+        cacheHits.incrementAndGet();
+        getEntry(key).cacheHits.incrementAndGet();
+    }
+
+    public void recordCacheMiss(@NonNull Object key) {
+        cacheMisses.incrementAndGet();
+        getEntry(key).cacheMisses.incrementAndGet();
+    }
+
+    public void recordCancellation(@NonNull Object key) {
+        cancellations.incrementAndGet();
+        getEntry(key).cancellations.incrementAndGet();
+    }
+
+    public void recordStaleDiscard(@NonNull Object key) {
+        staleDiscards.incrementAndGet();
+        getEntry(key).staleDiscards.incrementAndGet();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public long getCancellations() {
+        return cancellations.get();
+    }
+
+    @Override
+    public long getStaleDiscards() {
+        return staleDiscards.get();
+    }
+
+    @Override
+    public String[] getLatencySummaries() {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            result.add(entry.getKey() + ": " + entry.getValue());
+        }
+
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Parser task metrics: cache hits=%d, cache misses=%d, cancellations=%d, stale discards=%d%n",
+            getCacheHits(), getCacheMisses(), getCancellations(), getStaleDiscards()));
+        for (String summary : getLatencySummaries()) {
+            builder.append("    ").append(summary).append(String.format("%n"));
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public void reset() {
+        entries.clear();
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        cancellations.set(0);
+        staleDiscards.set(0);
+    }
+
+    private Entry getEntry(Object key) {
+        String name = key.toString();
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry();
+            Entry existing = entries.putIfAbsent(name, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+
+        return entry;
+    }
+
+    private static final class Entry {
+        private final Histogram queueWait = new Histogram();
+        private final Histogram execution = new Histogram();
+        private final AtomicLong cacheHits = new AtomicLong();
+        private final AtomicLong cacheMisses = new AtomicLong();
+        private final AtomicLong cancellations = new AtomicLong();
+        private final AtomicLong staleDiscards = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return String.format("wait {%s}, run {%s}, hits=%d, misses=%d, cancelled=%d, stale=%d",
+                queueWait, execution, cacheHits.get(), cacheMisses.get(), cancellations.get(), staleDiscards.get());
+        }
+    }
+
+    /**
+     * A latency histogram where bucket {@code i} counts samples in the range [2<sup>i</sup>, 2<sup>i+1</sup>)
+     * microseconds.
+     */
+    private static final class Histogram {
+        private static final int BUCKET_COUNT = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = micros == 0 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+            buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        /**
+         * Gets an upper bound for the specified percentile, in milliseconds.
+         */
+        public double getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+
+            long threshold = (long)Math.ceil(total * percentile / 100.0);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                cumulative += buckets.get(i);
+                if (cumulative >= threshold) {
+                    return (1L << (i + 1)) / 1000.0;
+                }
+            }
+
+            return maxNanos.get() / 1000000.0;
+        }
+
+        @Override
+        public String toString() {
+            long samples = count.get();
+            double mean = samples > 0 ? totalNanos.get() / 1000000.0 / samples : 0;
+            return String.format("n=%d, mean=%.2fms, p50<%.2fms, p90<%.2fms, p99<%.2fms, max=%.2fms",
+                samples, mean, getPercentile(50), getPercentile(90), getPercentile(99), maxNanos.get() / 1000000.0);
+        }
+    }
+
+}
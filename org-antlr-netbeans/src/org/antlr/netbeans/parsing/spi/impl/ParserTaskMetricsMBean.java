@@ -0,0 +1,35 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.netbeans.parsing.spi.impl;
+
+/**
+ * Management interface for the parser task framework metrics collected by {@link ParserTaskMetrics}.
+ *
+ * @author Sam Harwell
+ */
+public interface ParserTaskMetricsMBean {
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCancellations();
+
+    long getStaleDiscards();
+
+    /**
+     * Gets one line per data definition and task, with the queue wait and execution time distributions.
+     */
+    String[] getLatencySummaries();
+
+    String dump();
+
+    void reset();
+
+}
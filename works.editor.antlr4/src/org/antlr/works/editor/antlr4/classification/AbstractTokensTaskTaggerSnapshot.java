@@ -9,9 +9,13 @@
 package org.antlr.works.editor.antlr4.classification;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.BadLocationException;
@@ -22,17 +26,21 @@ import org.antlr.netbeans.editor.tagging.BaseTaggedPositionRegion;
 import org.antlr.netbeans.editor.tagging.TaggedPositionRegion;
 import org.antlr.netbeans.editor.text.DocumentChange;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
-import org.antlr.netbeans.editor.text.DocumentVersion;
 import org.antlr.netbeans.editor.text.NormalizedDocumentChangeCollection;
 import org.antlr.netbeans.editor.text.NormalizedSnapshotPositionRegionCollection;
 import org.antlr.netbeans.editor.text.OffsetRegion;
 import org.antlr.netbeans.editor.text.SnapshotPositionRegion;
+import org.antlr.netbeans.parsing.spi.ParallelParserPool;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.TokenSource;
 import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Tuple;
+import org.antlr.v4.runtime.misc.Tuple2;
 import org.antlr.works.editor.antlr4.highlighting.TokenSourceWithStateV4;
+import org.netbeans.api.annotations.common.CheckForNull;
 import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
 import org.openide.util.Parameters;
 
 /**
@@ -44,11 +52,24 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
     // -J-Dorg.antlr.works.editor.antlr4.classification.AbstractTokensTaskTaggerSnapshot.level=FINE
     private static final Logger LOGGER = Logger.getLogger(AbstractTokensTaskTaggerSnapshot.class.getName());
 
+    /** Documents with at least this many lines are lexed in parallel by {@link #initialize}. */
+    private static final int PARALLEL_LEXING_MINIMUM_LINES = 10000;
+    /** The number of lines lexed by each task of {@link #lexInParallel}. */
+    private static final int PARALLEL_LEXING_CHUNK_LINES = 2000;
+
     @NonNull
     private final DocumentSnapshot snapshot;
 
     private final Object lock = new Object();
     private final ArrayList<TState> lineStates = new ArrayList<>();
+    /**
+     * The tokens starting on each line, or {@code null} if the line has not been lexed since it last changed. The
+     * entries do not depend on the snapshot, so clean lines are carried forward when the tagger is translated to a
+     * later snapshot.
+     */
+    private final ArrayList<LineTokens<TState>> lineTokens = new ArrayList<>();
+    private Tuple2<? extends TokenSource, CharStream> cachedTokenSource;
+    private DocumentSnapshotTokenFactory cachedTokenFactory;
 
     private Integer firstDirtyLine;
     private Integer lastDirtyLine;
@@ -73,68 +94,72 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
         }
 
         this.snapshot = snapshot;
-        this.lineStates.addAll(reference.lineStates);
-        this.firstDirtyLine = reference.firstDirtyLine;
-        this.lastDirtyLine = reference.lastDirtyLine;
+        synchronized (reference.lock) {
+            this.lineStates.addAll(reference.lineStates);
+            this.lineTokens.addAll(reference.lineTokens);
+            this.firstDirtyLine = reference.firstDirtyLine;
+            this.lastDirtyLine = reference.lastDirtyLine;
+        }
+
         Integer firstChangedLine = null;
         Integer lastChangedLine = null;
 
-        for (DocumentVersion version = reference.snapshot.getVersion(); version != null && version.getVersionNumber() < snapshot.getVersion().getVersionNumber(); version = version.getNext()) {
-            DocumentSnapshot source = version.getSnapshot();
-            DocumentVersion targetVersion = version.getNext();
-            assert targetVersion != null;
-            DocumentSnapshot target = targetVersion.getSnapshot();
-            NormalizedDocumentChangeCollection changes = version.getChanges();
-            assert changes != null;
-            for (int i = changes.size() - 1; i >= 0; i--) {
-                DocumentChange change = changes.get(i);
-                int lineCountDelta = change.getLineCountDelta();
-                int oldOffset = change.getOldOffset();
-                int oldLength = change.getOldLength();
-                int newOffset = change.getNewOffset();
-                int newLength = change.getNewLength();
-
-                /* processChange */
-                int oldStartLine = source.findLineNumber(oldOffset);
-                int oldEndLine = oldLength == 0 ? oldStartLine : source.findLineNumber(oldOffset + oldLength - 1);
-                if (lineCountDelta < 0) {
-                    lineStates.subList(oldStartLine, oldStartLine + Math.abs(lineCountDelta)).clear();
-                } else if (lineCountDelta > 0) {
-                    TState endLineState = lineStates.get(oldStartLine);
-                    ArrayList<TState> insertedElements = new ArrayList<>();
-                    for (int j = 0; j < lineCountDelta; j++) {
-                        insertedElements.add(endLineState);
-                    }
-                    lineStates.addAll(oldStartLine, insertedElements);
+        // translate across the net changes instead of replaying each intermediate version
+        DocumentSnapshot source = reference.snapshot;
+        NormalizedDocumentChangeCollection changes = source.getVersion().getChangesTo(snapshot.getVersion());
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            DocumentChange change = changes.get(i);
+            int lineCountDelta = change.getLineCountDelta();
+            int oldOffset = change.getOldOffset();
+            int oldLength = change.getOldLength();
+            int newOffset = change.getNewOffset();
+            int newLength = change.getNewLength();
+
+            /* processChange */
+            int oldStartLine = source.findLineNumber(oldOffset);
+            int oldEndLine = oldLength == 0 ? oldStartLine : source.findLineNumber(oldOffset + oldLength - 1);
+            invalidateLineTokensBefore(oldStartLine);
+            if (lineCountDelta < 0) {
+                lineStates.subList(oldStartLine, oldStartLine + Math.abs(lineCountDelta)).clear();
+                lineTokens.subList(oldStartLine, oldStartLine + Math.abs(lineCountDelta)).clear();
+            } else if (lineCountDelta > 0) {
+                TState endLineState = lineStates.get(oldStartLine);
+                ArrayList<TState> insertedElements = new ArrayList<>();
+                for (int j = 0; j < lineCountDelta; j++) {
+                    insertedElements.add(endLineState);
                 }
+                lineStates.addAll(oldStartLine, insertedElements);
+                lineTokens.addAll(oldStartLine, Collections.<LineTokens<TState>>nCopies(lineCountDelta, null));
+            }
 
-                if (lastDirtyLine != null && lastDirtyLine > oldStartLine) {
-                    lastDirtyLine += lineCountDelta;
-                }
+            if (lastDirtyLine != null && lastDirtyLine > oldStartLine) {
+                lastDirtyLine += lineCountDelta;
+            }
 
-                if (lastChangedLine != null && lastChangedLine > oldStartLine) {
-                    lastChangedLine += lineCountDelta;
-                }
+            if (lastChangedLine != null && lastChangedLine > oldStartLine) {
+                lastChangedLine += lineCountDelta;
+            }
 
-                for (int j = oldStartLine; j <= oldEndLine + lineCountDelta; j++) {
-                    TState state = lineStates.get(i);
-                    lineStates.set(j, state.createDirtyState());
-                }
+            for (int j = oldStartLine; j <= oldEndLine + lineCountDelta; j++) {
+                TState state = lineStates.get(j);
+                lineStates.set(j, state.createDirtyState());
+                lineTokens.set(j, null);
+            }
 
-                firstChangedLine = firstChangedLine != null ? Math.min(firstChangedLine, oldStartLine) : oldStartLine;
-                lastChangedLine = lastChangedLine != null ? Math.max(lastChangedLine, oldEndLine) : oldEndLine;
+            firstChangedLine = firstChangedLine != null ? Math.min(firstChangedLine, oldStartLine) : oldStartLine;
+            lastChangedLine = lastChangedLine != null ? Math.max(lastChangedLine, oldEndLine) : oldEndLine;
 
-                /* processAfterChange */
-                if (firstChangedLine != null && lastChangedLine != null) {
-                    int startLine = firstChangedLine;
-                    int endLineInclusive = Math.min(lastChangedLine, source.getLineCount() - 1);
+            /* processAfterChange */
+            if (firstChangedLine != null && lastChangedLine != null) {
+                int startLine = firstChangedLine;
+                int endLineInclusive = Math.min(lastChangedLine, source.getLineCount() - 1);
 
-                    firstChangedLine = null;
-                    lastChangedLine = null;
+                firstChangedLine = null;
+                lastChangedLine = null;
 
-                    /* forceRehighlightLines(startRehighlightLine, endRehighlightLine); */
-                    firstDirtyLine = firstDirtyLine != null ? Math.min(firstDirtyLine, startLine) : startLine;
-                    lastDirtyLine = lastDirtyLine != null ? Math.max(lastDirtyLine, endLineInclusive) : endLineInclusive;
+                /* forceRehighlightLines(startRehighlightLine, endRehighlightLine); */
+                firstDirtyLine = firstDirtyLine != null ? Math.min(firstDirtyLine, startLine) : startLine;
+                lastDirtyLine = lastDirtyLine != null ? Math.max(lastDirtyLine, endLineInclusive) : endLineInclusive;
 
 //                    int start = currentSnapshot.findLineFromLineNumber(startLine).getStart().getOffset();
 //                    int end = (endLineInclusive == lineStates.size() - 1) ? currentSnapshot.length() : currentSnapshot.findLineFromLineNumber(endLineInclusive + 1).getStart().getOffset();
@@ -143,7 +168,6 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
 //                    } else {
 //                        fireHighlightsChange(start, end);
 //                    }
-                }
             }
         }
 
@@ -151,6 +175,11 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
         lastDirtyLine = Math.min(lastDirtyLine, snapshot.getLineCount() - 1);
     }
 
+    @NonNull
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     public void initialize() {
         int lineCount = snapshot.getLineCount();
         if (lineStates.size() != lineCount) {
@@ -160,10 +189,239 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
                 lineStates.add(dirtyState);
             }
 
+            lineTokens.ensureCapacity(lineCount);
+            while (lineTokens.size() < lineCount) {
+                lineTokens.add(null);
+            }
+
             forceRehighlightLines(0, lineCount - 1);
+            if (lineCount >= PARALLEL_LEXING_MINIMUM_LINES) {
+                lexInParallel();
+            }
+        }
+    }
+
+    /**
+     * Lexes the entire document by splitting it into chunks of lines which are lexed concurrently. Each chunk is
+     * lexed from the state of the line before it if that state is known, or from the start state otherwise. The
+     * chunks are then validated in order, and the lines following a chunk boundary where the assumed state was wrong
+     * are lexed again until the lexer reaches a later chunk boundary in the state that chunk assumed.
+     *
+     * <p>The line states and cached tokens are updated to match the result of lexing the document from the start
+     * with {@link #getHighlights}. If lexing a chunk fails, the tagger is left unchanged.</p>
+     *
+     * @return {@code true} if the document was lexed, otherwise {@code false}
+     */
+    public boolean lexInParallel() {
+        synchronized (lock) {
+            final int lineCount = snapshot.getLineCount();
+            if (lineTokens.size() != lineCount || lineStates.size() != lineCount) {
+                return false;
+            }
+
+            int chunkCount = (lineCount + PARALLEL_LEXING_CHUNK_LINES - 1) / PARALLEL_LEXING_CHUNK_LINES;
+            List<Callable<LexedLines<TState>>> tasks = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                final int startLine = i * PARALLEL_LEXING_CHUNK_LINES;
+                final int endLine = Math.min(lineCount, startLine + PARALLEL_LEXING_CHUNK_LINES);
+                TState lineState = startLine > 0 ? lineStates.get(startLine - 1) : null;
+                final TState startState = lineState != null && !lineState.getIsDirty() && !lineState.getIsMultiLineToken() ? lineState : getStartState();
+                tasks.add(new Callable<LexedLines<TState>>() {
+                    @Override
+                    public LexedLines<TState> call() {
+                        return lexLines(startLine, startState, endLine, null);
+                    }
+                });
+            }
+
+            LexedLines<TState>[] chunks = createLexedLinesArray(chunkCount);
+            try {
+                List<Future<LexedLines<TState>>> futures = ParallelParserPool.getDefault().invokeAll(tasks);
+                for (int i = 0; i < chunkCount; i++) {
+                    chunks[i] = futures.get(i).get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException ex) {
+                LOGGER.log(Level.WARNING, "An exception occurred while lexing the document.", ex);
+                return false;
+            }
+
+            List<LexedLines<TState>> validated = new ArrayList<>();
+            LexedLines<TState> previous = chunks[0];
+            validated.add(previous);
+            int chunk = 1;
+            while (previous.getEndLine() < lineCount) {
+                if (previous.isFailed()) {
+                    return false;
+                }
+
+                if (chunk < chunkCount && previous.canPrecede(chunks[chunk])) {
+                    previous = chunks[chunk];
+                    chunk++;
+                } else {
+                    previous = lexLines(previous.getRestartLine(), previous.getRestartState(), previous.getEndLine() + 1, chunks);
+                    chunk = previous.getEndLine() / PARALLEL_LEXING_CHUNK_LINES;
+                }
+
+                validated.add(previous);
+            }
+
+            if (previous.isFailed()) {
+                return false;
+            }
+
+            for (LexedLines<TState> lines : validated) {
+                lines.applyTo(lineStates, lineTokens);
+            }
+
+            firstDirtyLine = null;
+            lastDirtyLine = null;
+            for (int i = 0; i < lineCount; i++) {
+                if (lineStates.get(i).getIsDirty()) {
+                    firstDirtyLine = firstDirtyLine != null ? firstDirtyLine : i;
+                    lastDirtyLine = i;
+                }
+            }
+
+            return true;
         }
     }
 
+    /**
+     * Lexes lines starting at {@code startLine}, recording the line states and tokens the way {@link #collectTokens}
+     * does for a request covering the entire document. This method does not modify the tagger, so it may be called
+     * concurrently.
+     *
+     * <p>If {@code chunks} is {@code null}, lexing stops at the first token starting on or after {@code endLine}.
+     * Otherwise, lexing continues past {@code endLine} until a token ends at the start of a chunk whose assumed start
+     * state matches the state of the lexer.</p>
+     */
+    @NonNull
+    private LexedLines<TState> lexLines(int startLine, @NonNull TState startState, int endLine, @NullAllowed LexedLines<TState>[] chunks) {
+        int lineCount = snapshot.getLineCount();
+        int endOffset = chunks == null && endLine < lineCount ? snapshot.getLineStart(endLine) : snapshot.length();
+        LexedLines<TState> result = new LexedLines<>(startLine, startState);
+
+        CharStream input = new DocumentSnapshotCharStream(snapshot);
+        input.seek(snapshot.getLineStart(startLine));
+        TokenSourceWithStateV4<TState> lexer = createLexer(input, startState);
+        lexer.setTokenFactory(new DocumentSnapshotTokenFactory(getEffectiveTokenSource(lexer)));
+
+        Token previousToken = null;
+        boolean previousTokenEndsLine = false;
+        int recordedLine = startLine;
+        List<Token> recordedTokens = new ArrayList<>();
+        int boundaryLine = startLine;
+        TState boundaryState = startState;
+        while (true) {
+            Token token = lexer.nextToken();
+            boolean inBounds = token.getStartIndex() < endOffset
+                || token.getStopIndex() < endOffset;
+
+            int tokenLine = token.getType() == Token.EOF ? lineCount : snapshot.findLineNumber(token.getStartIndex());
+            if (previousToken == null) {
+                result.setFirstTokenLine(tokenLine);
+            }
+
+            while (recordedLine < tokenLine) {
+                if (!result.addLineTokens(LineTokens.create(snapshot, recordedLine, boundaryLine == recordedLine ? boundaryState : null, recordedTokens))) {
+                    return result;
+                }
+
+                recordedLine++;
+                recordedTokens = new ArrayList<>();
+            }
+
+            if (token.getType() != Token.EOF) {
+                recordedTokens.add(token);
+                if (tokenLine == boundaryLine && token.getStartIndex() < endOffset) {
+                    result.setRestart(boundaryLine, boundaryState);
+                }
+            }
+
+            int endLinePrevious;
+            if (previousToken != null)
+                endLinePrevious = snapshot.findLineNumber(previousToken.getStopIndex() + 1);
+            else
+                endLinePrevious = startLine - 1;
+
+            if (tokenLine > endLinePrevious + 1 || (tokenLine == endLinePrevious + 1 && !previousTokenEndsLine))
+            {
+                int firstMultilineLine = endLinePrevious;
+                if (previousToken == null || previousTokenEndsLine)
+                    firstMultilineLine++;
+
+                for (int i = firstMultilineLine; i < tokenLine; i++)
+                {
+                    if (inBounds)
+                        result.setLineState(i, startState.createMultiLineState());
+                }
+            }
+
+            if (token.getType() == Token.EOF) {
+                // if the end of a chunk was not reached, the remainder of the document is lexed again
+                result.setEnd(endOffset == snapshot.length() ? lineCount : endLine, null);
+                return result;
+            }
+
+            if (isMultiLineToken(lexer, token))
+            {
+                int stopLine = snapshot.findLineNumber(token.getStopIndex() + 1);
+                for (int i = tokenLine; i < stopLine; i++)
+                {
+                    if (inBounds)
+                        result.setLineState(i, startState.createMultiLineState());
+                }
+            }
+
+            boolean tokenEndsLine = tokenEndsAtEndOfLine(lexer, token);
+            if (tokenEndsLine && inBounds)
+            {
+                result.setLineState(snapshot.findLineNumber(token.getStopIndex() + 1), lexer.getCurrentState());
+            }
+
+            if (token.getStartIndex() >= endOffset) {
+                boolean endsCleanly = previousToken != null && previousToken.getStopIndex() + 1 == endOffset;
+                result.setEnd(endLine, endsCleanly ? boundaryState : null);
+                return result;
+            }
+
+            previousToken = token;
+            previousTokenEndsLine = tokenEndsLine;
+
+            int nextLine = snapshot.findLineNumber(token.getStopIndex() + 1);
+            if (nextLine > tokenLine && snapshot.getLineStart(nextLine) == token.getStopIndex() + 1) {
+                TState nextLineState = lexer.getCurrentState();
+                if (chunks != null && nextLine >= endLine && nextLine % PARALLEL_LEXING_CHUNK_LINES == 0) {
+                    LexedLines<TState> chunk = chunks[nextLine / PARALLEL_LEXING_CHUNK_LINES];
+                    if (chunk.startsCleanly() && nextLineState.equals(chunk.getStartState())) {
+                        while (recordedLine < nextLine) {
+                            if (!result.addLineTokens(LineTokens.create(snapshot, recordedLine, boundaryLine == recordedLine ? boundaryState : null, recordedTokens))) {
+                                return result;
+                            }
+
+                            recordedLine++;
+                            recordedTokens = new ArrayList<>();
+                        }
+
+                        result.setEnd(nextLine, nextLineState);
+                        return result;
+                    }
+                }
+
+                boundaryLine = nextLine;
+                boundaryState = nextLineState;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <TState extends LineStateInfo<TState>> LexedLines<TState>[] createLexedLinesArray(int length) {
+        return (LexedLines<TState>[])new LexedLines<?>[length];
+    }
+
     @Override
     public Iterable<TaggedPositionRegion<TokenTag<Token>>> getTags(NormalizedSnapshotPositionRegionCollection regions) {
         Parameters.notNull("regions", regions);
@@ -184,6 +442,32 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
 
     public List<TaggedPositionRegion<TokenTag<Token>>> getHighlights(int startOffset, int endOffset) {
         List<TaggedPositionRegion<TokenTag<Token>>> tags = new ArrayList<>();
+        collectTokens(startOffset, endOffset, tags, null);
+        return tags;
+    }
+
+    /**
+     * Gets the tokens between {@code startOffset} and {@code endOffset} as a {@link TokenBuffer}. Unlike
+     * {@link #getHighlights}, tokens served from the line cache are copied to the buffer without creating
+     * {@link Token} or tag instances.
+     */
+    @NonNull
+    public TokenBuffer getTokenBuffer(int startOffset, int endOffset) {
+        TokenBuffer buffer;
+        synchronized (lock) {
+            buffer = new TokenBuffer(snapshot, getCachedTokenSource());
+        }
+
+        collectTokens(startOffset, endOffset, null, buffer);
+        return buffer;
+    }
+
+    /**
+     * Lexes or reads from the line cache the tokens overlapping a span. The tokens are added as tags to
+     * {@code tags}, or if {@code tags} is {@code null}, to {@code buffer}.
+     */
+    private void collectTokens(int startOffset, int endOffset, @NullAllowed List<TaggedPositionRegion<TokenTag<Token>>> tags, @NullAllowed TokenBuffer buffer) {
+        assert (tags == null) != (buffer == null);
         boolean updateOffsets = true;
 
         if (endOffset == Integer.MAX_VALUE) {
@@ -193,7 +477,7 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
         OffsetRegion span = OffsetRegion.fromBounds(startOffset, endOffset);
 
         if (failedTimeout) {
-            return tags;
+            return;
         }
 
         boolean spanExtended = false;
@@ -208,12 +492,78 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
             TState startState = request.getState();
             span = request.getRegion();
 
+            /* Lines before the first dirty line which were lexed by an earlier request are served from the token
+             * cache. Lexing resumes at the last cached line which starts at a token boundary.
+             */
+            boolean recording = lineTokens.size() == snapshot.getLineCount();
+            int parseStartLine = snapshot.findLineNumber(span.getStart());
+            int endLine = snapshot.findLineNumber(span.getEnd());
+            int lexStartLine = parseStartLine;
+            int cachedTailStart = endLine + 1;
+            if (recording) {
+                int cacheLimit = Math.min(endLine + 1, firstDirtyLine != null ? firstDirtyLine : snapshot.getLineCount());
+                int cachedEndLine = parseStartLine;
+                while (cachedEndLine < cacheLimit && lineTokens.get(cachedEndLine) != null) {
+                    cachedEndLine++;
+                }
+
+                if (cachedEndLine > endLine) {
+                    lexStartLine = endLine + 1;
+                } else {
+                    for (int i = cachedEndLine - 1; i > parseStartLine; i--) {
+                        TState cachedState = lineTokens.get(i).getStartState();
+                        if (cachedState != null) {
+                            lexStartLine = i;
+                            startState = cachedState;
+                            break;
+                        }
+                    }
+                }
+
+                if (lexStartLine > parseStartLine) {
+                    // no cached token before lexStartLine extends past its start
+                    int requestedLine = snapshot.findLineNumber(requestedSpan.getStart());
+                    if (requestedLine < lexStartLine) {
+                        int firstTagLine = requestedLine;
+                        for (int i = requestedLine - 1; i >= parseStartLine; i--) {
+                            LineTokens<TState> cached = lineTokens.get(i);
+                            if (!cached.isEmpty()) {
+                                if (i + cached.getExtent() >= requestedLine) {
+                                    firstTagLine = i;
+                                }
+
+                                break;
+                            }
+                        }
+
+                        addCachedTokens(tags, buffer, firstTagLine, lexStartLine, requestedSpan, span);
+                    }
+
+                    if (lexStartLine > endLine) {
+                        return;
+                    }
+
+                    span = OffsetRegion.fromBounds(snapshot.getLineStart(lexStartLine), span.getEnd());
+                }
+
+                int lowestResyncLine = lastDirtyLine != null ? Math.max(lastDirtyLine + 1, lexStartLine + 1) : lexStartLine + 1;
+                while (cachedTailStart > lowestResyncLine && lineTokens.get(cachedTailStart - 1) != null) {
+                    cachedTailStart--;
+                }
+            }
+
+            int recordedLine = lexStartLine;
+            List<Token> recordedTokens = new ArrayList<>();
+            int lineStartStateLine = lexStartLine;
+            TState lineStartState = startState;
+            int resyncLine = -1;
+
             CharStream input;
             try {
                 input = createInputStream(span);
             } catch (BadLocationException ex) {
                 LOGGER.log(Level.WARNING, ex.getMessage(), ex);
-                return tags;
+                return;
             }
 
             TokenSourceWithStateV4<TState> lexer = createLexer(input, startState);
@@ -232,6 +582,19 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
                 // TODO: perform this under a read lock
                 Token token = lexer.nextToken();
 
+                if (recording) {
+                    int tokenLine = token.getType() == Token.EOF ? snapshot.getLineCount() : snapshot.findLineNumber(token.getStartIndex());
+                    while (recording && recordedLine < tokenLine) {
+                        recording = recordLineTokens(recordedLine, lineStartStateLine == recordedLine ? lineStartState : null, recordedTokens);
+                        recordedLine++;
+                        recordedTokens = new ArrayList<>();
+                    }
+
+                    if (token.getType() != Token.EOF) {
+                        recordedTokens.add(token);
+                    }
+                }
+
                 // The latter is true for EOF token with span.getEnd() at the end of the document
                 boolean inBounds = token.getStartIndex() < span.getEnd()
                     || token.getStopIndex() < span.getEnd();
@@ -305,7 +668,7 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
                             /* update the span's end position or the line state change won't be reflected
                              * in the editor
                              */
-                            int endPosition = line < snapshot.getLineCount() - 2 ? snapshot.findLineFromLineNumber(line + 2).getStart().getOffset() : snapshot.length();
+                            int endPosition = line < snapshot.getLineCount() - 2 ? snapshot.getLineStart(line + 2) : snapshot.length();
                             if (endPosition > extendedSpan.getEnd())
                             {
                                 spanExtended = true;
@@ -322,23 +685,55 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
                 previousToken = token;
                 previousTokenEndsLine = tokenEndsLine;
 
-                if (token.getStopIndex() < requestedSpan.getStart()) {
-                    continue;
-                }
+                if (token.getStopIndex() >= requestedSpan.getStart()) {
+                    if (tags != null) {
+                        Collection<TaggedPositionRegion<TokenTag<Token>>> tokenClassificationSpans = getTagsForToken(token);
+                        if (tokenClassificationSpans != null) {
+                            tags.addAll(tokenClassificationSpans);
+                        }
+                    } else {
+                        buffer.add(token);
+                    }
 
-                Collection<TaggedPositionRegion<TokenTag<Token>>> tokenClassificationSpans = getTagsForToken(token);
-                if (tokenClassificationSpans != null) {
-                    tags.addAll(tokenClassificationSpans);
+                    if (!inBounds) {
+                        break;
+                    }
                 }
 
-                if (!inBounds) {
-                    break;
+                if (recording) {
+                    int nextLine = snapshot.findLineNumber(token.getStopIndex() + 1);
+                    if (nextLine > recordedLine && snapshot.getLineStart(nextLine) == token.getStopIndex() + 1) {
+                        TState nextLineState = lexer.getCurrentState();
+
+                        /* once every dirty line is behind the lexer, the cached tokens of the following lines are
+                         * reused if the lexer reached them in the state they were lexed from
+                         */
+                        if (nextLine >= cachedTailStart && nextLine <= endLine && nextLineState.equals(lineTokens.get(nextLine).getStartState())) {
+                            while (recording && recordedLine < nextLine) {
+                                recording = recordLineTokens(recordedLine, lineStartStateLine == recordedLine ? lineStartState : null, recordedTokens);
+                                recordedLine++;
+                                recordedTokens = new ArrayList<>();
+                            }
+
+                            if (recording) {
+                                resyncLine = nextLine;
+                                break;
+                            }
+                        }
+
+                        lineStartStateLine = nextLine;
+                        lineStartState = nextLineState;
+                    }
                 }
             }
+
+            if (resyncLine >= 0) {
+                addCachedTokens(tags, buffer, resyncLine, endLine + 1, requestedSpan, span);
+            }
         }
 
         if (updateOffsets && extendMultiLineSpanToLine > 0) {
-            int endPosition = extendMultiLineSpanToLine < snapshot.getLineCount() - 1 ? snapshot.findLineFromLineNumber(extendMultiLineSpanToLine + 1).getStart().getOffset() : snapshot.length();
+            int endPosition = extendMultiLineSpanToLine < snapshot.getLineCount() - 1 ? snapshot.getLineStart(extendMultiLineSpanToLine + 1) : snapshot.length();
             if (endPosition > extendedSpan.getEnd()) {
                 spanExtended = true;
                 extendedSpan = OffsetRegion.fromBounds(extendedSpan.getStart(), endPosition);
@@ -355,8 +750,103 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
             // when considering the last line of a document, span and extendedSpan may end on the same line
             forceRehighlightLines(firstLine, Math.max(firstLine, lastLine));
         }
+    }
 
-        return tags;
+    /**
+     * Stores the tokens which start on {@code line}. Only the packed {@link LineTokens} form is kept, so the token
+     * instances are not retained after the request which created them. If a token cannot be cached, the cache is
+     * cleared and this method returns {@code false}.
+     */
+    private boolean recordLineTokens(int line, @NullAllowed TState startState, @NonNull List<Token> tokens) {
+        if (startState != null && startState.getIsDirty()) {
+            startState = null;
+        }
+
+        LineTokens<TState> cached = LineTokens.create(snapshot, line, startState, tokens);
+        if (cached == null) {
+            Collections.fill(lineTokens, null);
+            return false;
+        }
+
+        lineTokens.set(line, cached);
+        return true;
+    }
+
+    /**
+     * Adds the cached tokens which start on lines {@code startLine} (inclusive) through {@code endLine} (exclusive),
+     * skipping tokens outside of the requested span. The tokens are added as tags to {@code tags}, or if {@code tags}
+     * is {@code null}, to {@code buffer}. Token instances for the tags are created from the packed line data for each
+     * request and are not stored by this tagger.
+     */
+    private void addCachedTokens(@NullAllowed List<TaggedPositionRegion<TokenTag<Token>>> tags, @NullAllowed TokenBuffer buffer, int startLine, int endLine, @NonNull OffsetRegion requestedSpan, @NonNull OffsetRegion span) {
+        if (tags == null) {
+            for (int line = startLine; line < endLine; line++) {
+                if (!lineTokens.get(line).appendTo(buffer, line, requestedSpan.getStart(), span.getEnd())) {
+                    return;
+                }
+            }
+
+            return;
+        }
+
+        if (cachedTokenFactory == null) {
+            cachedTokenFactory = new DocumentSnapshotTokenFactory(getCachedTokenSource());
+        }
+
+        for (int line = startLine; line < endLine; line++) {
+            List<Token> tokens = lineTokens.get(line).createTokens(snapshot, line, cachedTokenFactory);
+            for (Token token : tokens) {
+                if (token.getStartIndex() >= span.getEnd()) {
+                    return;
+                }
+
+                if (token.getStopIndex() < requestedSpan.getStart()) {
+                    continue;
+                }
+
+                Collection<TaggedPositionRegion<TokenTag<Token>>> tokenClassificationSpans = getTagsForToken(token);
+                if (tokenClassificationSpans != null) {
+                    tags.addAll(tokenClassificationSpans);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the token source and input stream assigned to tokens which are created from the line cache.
+     */
+    @NonNull
+    private Tuple2<? extends TokenSource, CharStream> getCachedTokenSource() {
+        if (cachedTokenSource == null) {
+            CharStream input = new DocumentSnapshotCharStream(snapshot);
+            TokenSource tokenSource = getEffectiveTokenSource(createLexer(input, getStartState()));
+            cachedTokenSource = Tuple.create(tokenSource, tokenSource.getInputStream());
+        }
+
+        return cachedTokenSource;
+    }
+
+    /**
+     * Discards the cached tokens which could be affected by a change to {@code line}: the tokens of the previous
+     * line, whose lexing may have looked ahead into the changed line, and the tokens of earlier lines which extend
+     * into it.
+     */
+    private void invalidateLineTokensBefore(int line) {
+        for (int i = Math.min(line, lineTokens.size()) - 1; i >= 0; i--) {
+            LineTokens<TState> cached = lineTokens.get(i);
+            if (cached == null) {
+                break;
+            }
+
+            if (i < line - 1 && !cached.isEmpty() && i + cached.getExtent() < line) {
+                break;
+            }
+
+            lineTokens.set(i, null);
+            if (!cached.isEmpty()) {
+                break;
+            }
+        }
     }
 
     protected void setLineState(int line, TState state) {
@@ -384,7 +874,7 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
         int end = span.getEnd();
 
         if (firstDirtyLine != null) {
-            int firstDirtyLineOffset = snapshot.findLineFromLineNumber(firstDirtyLine).getStart().getOffset();
+            int firstDirtyLineOffset = snapshot.getLineStart(firstDirtyLine);
             start = Math.min(start, firstDirtyLineOffset);
         }
 
@@ -404,7 +894,7 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
             state = getStartState();
         }
 
-        start = snapshot.findLineFromLineNumber(startLine).getStart().getOffset();
+        start = snapshot.getLineStart(startLine);
         int length = end - start;
         ParseRequest<TState> request = new ParseRequest<>(new OffsetRegion(start, length), state);
         return request;
@@ -523,6 +1013,250 @@ public abstract class AbstractTokensTaskTaggerSnapshot<TState extends LineStateI
 
     protected abstract AbstractTokensTaskTaggerSnapshot<TState> translateToImpl(@NonNull DocumentSnapshot targetSnapshot);
 
+    /**
+     * The tokens which start on a single line. The offsets are stored relative to the start of the line in a
+     * primitive array, so an instance remains valid in later snapshots as long as the text of the line and the lines
+     * its tokens extend into does not change.
+     */
+    private static final class LineTokens<TState> {
+        private static final int FIELD_COUNT = 4;
+        private static final int[] EMPTY_DATA = new int[0];
+
+        /** The type, channel, start, and stop of each token, with offsets relative to the start of the line. */
+        @NonNull
+        private final int[] data;
+        /** The text explicitly assigned to each token, or {@code null} if no token has explicit text. */
+        private final String[] text;
+        /** The lexer state at the start of the line, or {@code null} if a token from a previous line extends into it. */
+        private final TState startState;
+        /** The number of following lines reached by the tokens, including the character following the last token. */
+        private final int extent;
+
+        private LineTokens(@NonNull int[] data, String[] text, TState startState, int extent) {
+            this.data = data;
+            this.text = text;
+            this.startState = startState;
+            this.extent = extent;
+        }
+
+        @CheckForNull
+        public static <TState> LineTokens<TState> create(@NonNull DocumentSnapshot snapshot, int line, @NullAllowed TState startState, @NonNull List<Token> tokens) {
+            if (tokens.isEmpty()) {
+                return new LineTokens<>(EMPTY_DATA, null, startState, 0);
+            }
+
+            int lineStart = snapshot.getLineStart(line);
+            int[] data = new int[tokens.size() * FIELD_COUNT];
+            String[] text = null;
+            int maxEnd = 0;
+            for (int i = 0; i < tokens.size(); i++) {
+                Token token = tokens.get(i);
+                if (!(token instanceof DocumentSnapshotToken)) {
+                    return null;
+                }
+
+                data[i * FIELD_COUNT] = token.getType();
+                data[i * FIELD_COUNT + 1] = token.getChannel();
+                data[i * FIELD_COUNT + 2] = token.getStartIndex() - lineStart;
+                data[i * FIELD_COUNT + 3] = token.getStopIndex() - lineStart;
+                maxEnd = Math.max(maxEnd, token.getStopIndex() + 1);
+
+                String explicitText = ((DocumentSnapshotToken)token).getExplicitText();
+                if (explicitText != null) {
+                    if (text == null) {
+                        text = new String[tokens.size()];
+                    }
+
+                    text[i] = explicitText;
+                }
+            }
+
+            int extent = snapshot.findLineNumber(Math.min(maxEnd, snapshot.length())) - line;
+            return new LineTokens<>(data, text, startState, extent);
+        }
+
+        public boolean isEmpty() {
+            return data.length == 0;
+        }
+
+        @CheckForNull
+        public TState getStartState() {
+            return startState;
+        }
+
+        public int getExtent() {
+            return extent;
+        }
+
+        /**
+         * Adds the tokens which end at or after {@code minimumStop} and start before {@code maximumStart} to
+         * {@code buffer}. Returns {@code false} if a token starting at or after {@code maximumStart} was reached.
+         */
+        public boolean appendTo(@NonNull TokenBuffer buffer, int line, int minimumStop, int maximumStart) {
+            if (data.length == 0) {
+                return true;
+            }
+
+            int lineStart = buffer.getSnapshot().getLineStart(line);
+            for (int i = 0; i < data.length / FIELD_COUNT; i++) {
+                int start = lineStart + data[i * FIELD_COUNT + 2];
+                int stop = lineStart + data[i * FIELD_COUNT + 3];
+                if (start >= maximumStart) {
+                    return false;
+                }
+
+                if (stop < minimumStop) {
+                    continue;
+                }
+
+                String tokenText = text != null ? text[i] : null;
+                buffer.add(data[i * FIELD_COUNT], data[i * FIELD_COUNT + 1], start, stop, tokenText);
+            }
+
+            return true;
+        }
+
+        @NonNull
+        public List<Token> createTokens(@NonNull DocumentSnapshot snapshot, int line, @NonNull DocumentSnapshotTokenFactory factory) {
+            if (data.length == 0) {
+                return Collections.emptyList();
+            }
+
+            int lineStart = snapshot.getLineStart(line);
+            Token[] tokens = new Token[data.length / FIELD_COUNT];
+            for (int i = 0; i < tokens.length; i++) {
+                int start = lineStart + data[i * FIELD_COUNT + 2];
+                int stop = lineStart + data[i * FIELD_COUNT + 3];
+                String tokenText = text != null ? text[i] : null;
+                tokens[i] = factory.create(null, data[i * FIELD_COUNT], tokenText, data[i * FIELD_COUNT + 1], start, stop, line + 1, start - lineStart);
+            }
+
+            return Arrays.asList(tokens);
+        }
+    }
+
+    /**
+     * The line states and tokens produced by lexing a range of lines with {@link #lexLines}.
+     */
+    private static final class LexedLines<TState extends LineStateInfo<TState>> {
+        private final int startLine;
+        @NonNull
+        private final TState startState;
+        private final List<LineTokens<TState>> lineTokens = new ArrayList<>();
+        /** The states assigned to lines, offset by {@link #startLine}, or {@code null} for lines without a state. */
+        private final List<TState> lineStates = new ArrayList<>();
+
+        private int firstTokenLine = -1;
+        private int restartLine;
+        private TState restartState;
+        private int endLine = -1;
+        private TState endState;
+        private boolean failed;
+
+        public LexedLines(int startLine, @NonNull TState startState) {
+            this.startLine = startLine;
+            this.startState = startState;
+            this.restartLine = startLine;
+            this.restartState = startState;
+        }
+
+        @NonNull
+        public TState getStartState() {
+            return startState;
+        }
+
+        /**
+         * Determines if the first token of these lines starts on the first line. If the previous token ends at the
+         * start of the first line, the lines are then processed exactly as they would be when lexing the document
+         * from its start.
+         */
+        public boolean startsCleanly() {
+            return firstTokenLine == startLine;
+        }
+
+        public void setFirstTokenLine(int firstTokenLine) {
+            this.firstTokenLine = firstTokenLine;
+        }
+
+        /**
+         * Gets the last line where the previous token ends at the start of the line and the next token starts on
+         * the line, so lexing may restart from it with {@link #getRestartState}.
+         */
+        public int getRestartLine() {
+            return restartLine;
+        }
+
+        @NonNull
+        public TState getRestartState() {
+            return restartState;
+        }
+
+        public void setRestart(int line, @NonNull TState state) {
+            this.restartLine = line;
+            this.restartState = state;
+        }
+
+        public int getEndLine() {
+            return endLine;
+        }
+
+        /**
+         * Sets the line where lexing stopped, along with the state of the lexer at the start of that line if a token
+         * ended exactly at the start of the line.
+         */
+        public void setEnd(int endLine, @NullAllowed TState endState) {
+            this.endLine = endLine;
+            this.endState = endState;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * Determines if {@code next} can be used as lexed following these lines, because it starts where these lines
+         * end and it was lexed from the correct start state.
+         */
+        public boolean canPrecede(@NonNull LexedLines<TState> next) {
+            return endState != null
+                && endLine == next.startLine
+                && next.startsCleanly()
+                && endState.equals(next.startState);
+        }
+
+        public boolean addLineTokens(@NullAllowed LineTokens<TState> tokens) {
+            if (tokens == null) {
+                failed = true;
+                return false;
+            }
+
+            lineTokens.add(tokens);
+            return true;
+        }
+
+        public void setLineState(int line, @NonNull TState state) {
+            int index = line - startLine;
+            while (lineStates.size() <= index) {
+                lineStates.add(null);
+            }
+
+            lineStates.set(index, state);
+        }
+
+        public void applyTo(@NonNull List<TState> targetLineStates, @NonNull List<LineTokens<TState>> targetLineTokens) {
+            for (int i = 0; i < lineStates.size(); i++) {
+                TState state = lineStates.get(i);
+                if (state != null && startLine + i < targetLineStates.size()) {
+                    targetLineStates.set(startLine + i, state);
+                }
+            }
+
+            for (int i = 0; i < lineTokens.size(); i++) {
+                targetLineTokens.set(startLine + i, lineTokens.get(i));
+            }
+        }
+    }
+
     public static class ParseRequest<TState> {
         private final OffsetRegion region;
         private final TState state;
@@ -9,7 +9,6 @@
 package org.antlr.works.editor.antlr4.classification;
 
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
-import org.antlr.netbeans.editor.text.DocumentSnapshotLine;
 import org.antlr.netbeans.editor.text.OffsetRegion;
 import org.antlr.netbeans.editor.text.SnapshotPositionRegion;
 import org.antlr.v4.runtime.CharStream;
@@ -22,6 +21,11 @@ import org.openide.util.Parameters;
  */
 public class DocumentSnapshotCharStream implements CharStream {
 
+    /** The number of characters read from the snapshot at a time. */
+    private static final int BUFFER_SIZE = 4096;
+    /** The number of characters before the current index kept when the buffer is refilled. */
+    private static final int LOOKBEHIND = 64;
+
     // input info
     private final DocumentSnapshot snapshot;
     private final int count;
@@ -34,8 +38,9 @@ public class DocumentSnapshotCharStream implements CharStream {
 
     // cache info
     private boolean explicitCache;
-    private int currentSnapshotLineStartIndex;
-    private String currentSnapshotLine;
+    private char[] buffer;
+    private int bufferStartIndex;
+    private int bufferLength;
 
     public DocumentSnapshotCharStream(DocumentSnapshot snapshot) {
         Parameters.notNull("snapshot", snapshot);
@@ -54,8 +59,10 @@ public class DocumentSnapshotCharStream implements CharStream {
         this.snapshot = cachedSpan.getSnapshot();
         this.count = getSnapshot().length();
         this.explicitCache = true;
-        this.currentSnapshotLineStartIndex = cachedSpan.getStart().getOffset();
-        this.currentSnapshotLine = cachedSpan.getText();
+        this.bufferStartIndex = cachedSpan.getStart().getOffset();
+        this.bufferLength = cachedSpan.getLength();
+        this.buffer = new char[bufferLength];
+        this.snapshot.getChars(bufferStartIndex, bufferStartIndex + bufferLength, buffer, 0);
     }
 
     public final DocumentSnapshot getSnapshot() {
@@ -110,17 +117,21 @@ public class DocumentSnapshotCharStream implements CharStream {
     public String getText(Interval interval) {
         int start = interval.a;
         int stop = interval.b;
-        if (currentSnapshotLine != null) {
-            if (start >= currentSnapshotLineStartIndex && stop < currentSnapshotLineStartIndex + currentSnapshotLine.length()) {
-                return currentSnapshotLine.substring(start - currentSnapshotLineStartIndex, stop + 1 - currentSnapshotLineStartIndex);
-            }
-        }
 
         // HACK: special handling due to Lexer passing invalid indexes.
         if (stop >= size()) {
             stop = size() - 1;
         }
 
+        if (!explicitCache && start >= 0 && start <= stop && stop - start + 1 <= BUFFER_SIZE && (start < bufferStartIndex || stop >= bufferStartIndex + bufferLength)) {
+            // token text is usually requested in document order, so read ahead from the start of the token
+            fillBuffer(start);
+        }
+
+        if (start >= bufferStartIndex && stop < bufferStartIndex + bufferLength) {
+            return new String(buffer, start - bufferStartIndex, stop + 1 - start);
+        }
+
         return getSnapshot().subSequence(start, stop + 1).toString();
     }
 
@@ -166,12 +177,9 @@ public class DocumentSnapshotCharStream implements CharStream {
 
         int actualIndex = currentIndex + i - 1;
 
-        String currentLine = currentSnapshotLine;
-        int currentLineStartIndex = currentSnapshotLineStartIndex;
-        if (currentLine != null
-            && actualIndex >= currentLineStartIndex
-            && actualIndex < currentLineStartIndex + currentLine.length()) {
-            return currentLine.charAt(actualIndex - currentLineStartIndex);
+        int bufferIndex = actualIndex - bufferStartIndex;
+        if (bufferIndex >= 0 && bufferIndex < bufferLength) {
+            return buffer[bufferIndex];
         }
 
         return getSnapshot().charAt(actualIndex);
@@ -196,9 +204,9 @@ public class DocumentSnapshotCharStream implements CharStream {
         }
 
         setIndex(index);
-        DocumentSnapshotLine currentLine = getSnapshot().findLineFromOffset(index());
-        setLine(currentLine.getLineNumber());
-        setCharPositionInLine(index() - currentLine.getStart().getOffset());
+        int lineNumber = getSnapshot().findLineNumber(index());
+        setLine(lineNumber);
+        setCharPositionInLine(index() - getSnapshot().getLineStart(lineNumber));
         updateCachedLine();
     }
 
@@ -207,18 +215,25 @@ public class DocumentSnapshotCharStream implements CharStream {
             return;
         }
 
-        if (currentSnapshotLine == null
-            || index() < currentSnapshotLineStartIndex
-            || index() >= currentSnapshotLineStartIndex + currentSnapshotLine.length()) {
+        if (index() < bufferStartIndex || index() >= bufferStartIndex + bufferLength) {
             if (index() >= 0 && index() < size()) {
-                DocumentSnapshotLine currentLine = getSnapshot().findLineFromOffset(index());
-                currentSnapshotLineStartIndex = currentLine.getStart().getOffset();
-                currentSnapshotLine = currentLine.getTextIncludingLineBreak();
+                fillBuffer(Math.max(0, index() - LOOKBEHIND));
             } else {
-                currentSnapshotLine = null;
-                currentSnapshotLineStartIndex = 0;
+                bufferStartIndex = 0;
+                bufferLength = 0;
             }
         }
     }
 
+    private void fillBuffer(int startIndex) {
+        assert !explicitCache;
+        if (buffer == null) {
+            buffer = new char[BUFFER_SIZE];
+        }
+
+        bufferStartIndex = startIndex;
+        bufferLength = Math.min(BUFFER_SIZE, size() - startIndex);
+        getSnapshot().getChars(startIndex, startIndex + bufferLength, buffer, 0);
+    }
+
 }
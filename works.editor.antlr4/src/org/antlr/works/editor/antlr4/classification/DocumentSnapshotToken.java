@@ -9,11 +9,11 @@
 package org.antlr.works.editor.antlr4.classification;
 
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
-import org.antlr.netbeans.editor.text.DocumentSnapshotLine;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonToken;
 import org.antlr.v4.runtime.TokenSource;
 import org.antlr.v4.runtime.misc.Tuple2;
+import org.netbeans.api.annotations.common.CheckForNull;
 
 /**
  *
@@ -21,6 +21,7 @@ import org.antlr.v4.runtime.misc.Tuple2;
  */
 public class DocumentSnapshotToken extends CommonToken {
     private final DocumentSnapshot snapshot;
+    private String explicitText;
 
     public DocumentSnapshotToken(Tuple2<? extends TokenSource, CharStream> source, int type, int channel, int start, int stop) {
         super(source, type, channel, start, stop);
@@ -42,6 +43,21 @@ public class DocumentSnapshotToken extends CommonToken {
         return snapshot;
     }
 
+    /**
+     * Gets the text assigned to this token with {@link #setText}, or {@code null} if the text of the token is read
+     * from its input stream.
+     */
+    @CheckForNull
+    public String getExplicitText() {
+        return explicitText;
+    }
+
+    @Override
+    public void setText(String text) {
+        super.setText(text);
+        this.explicitText = text;
+    }
+
     @Override
     public int getLine() {
         if (snapshot != null) {
@@ -54,8 +70,7 @@ public class DocumentSnapshotToken extends CommonToken {
     @Override
     public int getCharPositionInLine() {
         if (snapshot != null) {
-            DocumentSnapshotLine snapshotLine = snapshot.findLineFromOffset(getStartIndex());
-            return getStartIndex() - snapshotLine.getStart().getOffset();
+            return getStartIndex() - snapshot.getLineStart(snapshot.findLineNumber(getStartIndex()));
         }
 
         return super.getCharPositionInLine();
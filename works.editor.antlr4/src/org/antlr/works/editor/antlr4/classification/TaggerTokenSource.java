@@ -13,9 +13,9 @@ import org.antlr.netbeans.editor.classification.TokenTag;
 import org.antlr.netbeans.editor.tagging.TaggedPositionRegion;
 import org.antlr.netbeans.editor.tagging.Tagger;
 import org.antlr.netbeans.editor.text.DocumentSnapshot;
-import org.antlr.netbeans.editor.text.DocumentSnapshotLine;
 import org.antlr.netbeans.editor.text.NormalizedSnapshotPositionRegionCollection;
 import org.antlr.netbeans.editor.text.SnapshotPositionRegion;
+import org.antlr.netbeans.parsing.spi.CancellationToken;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenFactory;
 import org.antlr.v4.runtime.Token;
@@ -28,6 +28,9 @@ import org.openide.filesystems.FileObject;
 import org.openide.util.Parameters;
 
 /**
+ * A token source which returns the tokens of a {@link Tagger}. If the tagger is an
+ * {@link AbstractTokensTaskTaggerSnapshot}, the tokens are read from a {@link TokenBuffer} and returned as
+ * {@link TokenBuffer.BufferedToken} views instead of creating tags for them.
  *
  * @author Sam Harwell
  */
@@ -35,14 +38,16 @@ public class TaggerTokenSource implements TokenSource {
     private final DocumentSnapshot snapshot;
     private final Tagger<TokenTag<Token>> tagger;
     private final SnapshotPositionRegion region;
-    private final Iterable<TaggedPositionRegion<TokenTag<Token>>> tags;
+    private final TokenBuffer tokenBuffer;
     private final Iterator<TaggedPositionRegion<TokenTag<Token>>> tagIterator;
-    private TokenTag<Token> previousTag;
+    private int tokenBufferIndex;
+    private Token previousToken;
     private CharStream input;
     private Tuple2<? extends TokenSource, CharStream> tokenFactorySourcePair;
     private int line = -1;
     private int charPositionInLine = -1;
     private TokenFactory tokenFactory = CommonTokenFactory.DEFAULT;
+    private final CancellationToken cancellationToken = CancellationToken.getCurrent();
 
     public TaggerTokenSource(@NonNull Tagger<TokenTag<Token>> tagger, DocumentSnapshot snapshot) {
         this(tagger, new SnapshotPositionRegion(snapshot, 0, snapshot.length()));
@@ -52,32 +57,41 @@ public class TaggerTokenSource implements TokenSource {
         this.snapshot = region.getSnapshot();
         this.tagger = tagger;
         this.region = region;
-        this.tags = this.tagger.getTags(new NormalizedSnapshotPositionRegionCollection(region));
-        this.tagIterator = this.tags.iterator();
+        if (tagger instanceof AbstractTokensTaskTaggerSnapshot<?> && ((AbstractTokensTaskTaggerSnapshot<?>)tagger).getSnapshot().equals(snapshot)) {
+            AbstractTokensTaskTaggerSnapshot<?> taggerSnapshot = (AbstractTokensTaskTaggerSnapshot<?>)tagger;
+            this.tokenBuffer = taggerSnapshot.getTokenBuffer(region.getStart().getOffset(), region.getEnd().getOffset());
+            this.tagIterator = null;
+        } else {
+            this.tokenBuffer = null;
+            this.tagIterator = this.tagger.getTags(new NormalizedSnapshotPositionRegionCollection(region)).iterator();
+        }
     }
 
     @Override
     public Token nextToken() {
-        if (previousTag != null && previousTag.getToken().getType() == Token.EOF) {
-            return previousTag.getToken();
+        cancellationToken.throwIfCancellationRequested();
+
+        if (previousToken != null && previousToken.getType() == Token.EOF) {
+            return previousToken;
         }
 
-        if (tagIterator.hasNext()) {
-            previousTag = tagIterator.next().getTag();
+        if (tokenBuffer != null && tokenBufferIndex < tokenBuffer.size()) {
+            previousToken = tokenBuffer.get(tokenBufferIndex++);
+        } else if (tagIterator != null && tagIterator.hasNext()) {
+            previousToken = tagIterator.next().getTag().getToken();
         } else {
-            TokenSource source = this;
             String text = null;
             int channel = Token.DEFAULT_CHANNEL;
             int start = snapshot.length();
             int stop = start - 1;
             int lineCount = snapshot.getLineCount();
-            int lineLength = snapshot.findLineFromLineNumber(lineCount - 1).getLength();
-            previousTag = new TokenTag<>(tokenFactory.create(getTokenFactorySourcePair(), Token.EOF, text, channel, start, stop, lineCount, lineLength));
+            int lineLength = snapshot.getLineEnd(lineCount - 1) - snapshot.getLineStart(lineCount - 1);
+            previousToken = tokenFactory.create(getTokenFactorySourcePair(), Token.EOF, text, channel, start, stop, lineCount, lineLength);
         }
 
         line = -1;
         charPositionInLine = -1;
-        return previousTag.getToken();
+        return previousToken;
     }
 
     @Override
@@ -94,23 +108,23 @@ public class TaggerTokenSource implements TokenSource {
 
     private void updateLineInformation() {
         if (line == -1) {
-            if (previousTag == null) {
+            if (previousToken == null) {
                 if (region.getStart().getOffset() == 0) {
                     line = 1;
                     charPositionInLine = 0;
                 } else {
-                    DocumentSnapshotLine snapshotLine = snapshot.findLineFromOffset(region.getStart().getOffset() + 1);
-                    line = snapshotLine.getLineNumber() + 1;
-                    charPositionInLine = region.getStart().getOffset() - snapshotLine.getStart().getOffset();
+                    int lineNumber = snapshot.findLineNumber(region.getStart().getOffset() + 1);
+                    line = lineNumber + 1;
+                    charPositionInLine = region.getStart().getOffset() - snapshot.getLineStart(lineNumber);
                 }
-            } else if (previousTag.getToken().getType() == Token.EOF) {
-                DocumentSnapshotLine snapshotLine = snapshot.findLineFromLineNumber(snapshot.getLineCount() - 1);
-                line = snapshotLine.getLineNumber() + 1;
-                charPositionInLine = snapshotLine.getLength();
+            } else if (previousToken.getType() == Token.EOF) {
+                int lineNumber = snapshot.getLineCount() - 1;
+                line = lineNumber + 1;
+                charPositionInLine = snapshot.getLineEnd(lineNumber) - snapshot.getLineStart(lineNumber);
             } else {
-                DocumentSnapshotLine snapshotLine = snapshot.findLineFromOffset(previousTag.getToken().getStopIndex() + 1);
-                line = snapshotLine.getLineNumber() + 1;
-                charPositionInLine = previousTag.getToken().getStopIndex() + 1 - snapshotLine.getStart().getOffset();
+                int lineNumber = snapshot.findLineNumber(previousToken.getStopIndex() + 1);
+                line = lineNumber + 1;
+                charPositionInLine = previousToken.getStopIndex() + 1 - snapshot.getLineStart(lineNumber);
             }
         }
     }
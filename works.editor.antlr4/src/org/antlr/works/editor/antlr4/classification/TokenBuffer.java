@@ -0,0 +1,320 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.works.editor.antlr4.classification;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import org.antlr.netbeans.editor.text.DocumentSnapshot;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Tuple2;
+import org.netbeans.api.annotations.common.CheckForNull;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.openide.util.Parameters;
+
+/**
+ * A compact list of the tokens in a {@link DocumentSnapshot}. The type, channel, and bounds of each token are stored
+ * in parallel primitive arrays, and {@link Token} instances are only created as lightweight views when they are
+ * requested with {@link #get}.
+ *
+ * @author Sam Harwell
+ */
+public final class TokenBuffer {
+    private static final int INITIAL_CAPACITY = 64;
+
+    @NonNull
+    private final DocumentSnapshot snapshot;
+    @CheckForNull
+    private final Tuple2<? extends TokenSource, CharStream> source;
+
+    private int[] types;
+    private int[] channels;
+    private int[] starts;
+    private int[] stops;
+    /** The text explicitly assigned to each token, or {@code null} if no token has explicit text. */
+    private String[] texts;
+    private int size;
+
+    public TokenBuffer(@NonNull DocumentSnapshot snapshot, @NullAllowed Tuple2<? extends TokenSource, CharStream> source) {
+        this(snapshot, source, INITIAL_CAPACITY);
+    }
+
+    public TokenBuffer(@NonNull DocumentSnapshot snapshot, @NullAllowed Tuple2<? extends TokenSource, CharStream> source, int initialCapacity) {
+        Parameters.notNull("snapshot", snapshot);
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity cannot be negative.");
+        }
+
+        this.snapshot = snapshot;
+        this.source = source;
+        this.types = new int[initialCapacity];
+        this.channels = new int[initialCapacity];
+        this.starts = new int[initialCapacity];
+        this.stops = new int[initialCapacity];
+    }
+
+    @NonNull
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void add(int type, int channel, int start, int stop, @NullAllowed String text) {
+        if (size == types.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, types.length + (types.length >> 1));
+            types = Arrays.copyOf(types, capacity);
+            channels = Arrays.copyOf(channels, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            stops = Arrays.copyOf(stops, capacity);
+            if (texts != null) {
+                texts = Arrays.copyOf(texts, capacity);
+            }
+        }
+
+        types[size] = type;
+        channels[size] = channel;
+        starts[size] = start;
+        stops[size] = stop;
+        if (text != null) {
+            if (texts == null) {
+                texts = new String[types.length];
+            }
+
+            texts[size] = text;
+        }
+
+        size++;
+    }
+
+    /**
+     * Adds the data of a token to the buffer. The text of a {@link DocumentSnapshotToken} is only stored if it was
+     * explicitly assigned; for other tokens the text is always stored.
+     */
+    public void add(@NonNull Token token) {
+        Parameters.notNull("token", token);
+        String text;
+        if (token instanceof DocumentSnapshotToken) {
+            text = ((DocumentSnapshotToken)token).getExplicitText();
+        } else {
+            text = token.getText();
+        }
+
+        add(token.getType(), token.getChannel(), token.getStartIndex(), token.getStopIndex(), text);
+    }
+
+    public void trimToSize() {
+        if (size < types.length) {
+            types = Arrays.copyOf(types, size);
+            channels = Arrays.copyOf(channels, size);
+            starts = Arrays.copyOf(starts, size);
+            stops = Arrays.copyOf(stops, size);
+            if (texts != null) {
+                texts = Arrays.copyOf(texts, size);
+            }
+        }
+    }
+
+    public int getType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    public int getChannel(int index) {
+        checkIndex(index);
+        return channels[index];
+    }
+
+    public int getStartIndex(int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    public int getStopIndex(int index) {
+        checkIndex(index);
+        return stops[index];
+    }
+
+    /**
+     * Gets the text of a token, which is read from the snapshot unless it was explicitly assigned.
+     */
+    public String getText(int index) {
+        checkIndex(index);
+        if (texts != null && texts[index] != null) {
+            return texts[index];
+        }
+
+        int start = starts[index];
+        int stop = stops[index];
+        int length = snapshot.length();
+        if (start < length && stop < length) {
+            return snapshot.subSequence(start, stop + 1).toString();
+        }
+
+        return "<EOF>";
+    }
+
+    public int getLine(int index) {
+        checkIndex(index);
+        return snapshot.findLineNumber(starts[index]) + 1;
+    }
+
+    public int getCharPositionInLine(int index) {
+        checkIndex(index);
+        int start = starts[index];
+        return start - snapshot.getLineStart(snapshot.findLineNumber(start));
+    }
+
+    /**
+     * Gets a view of the token at {@code index}. The token index of the view is its index in this buffer.
+     */
+    @NonNull
+    public BufferedToken get(int index) {
+        checkIndex(index);
+        return new BufferedToken(this, index);
+    }
+
+    /**
+     * Gets a read-only list view of the tokens in this buffer.
+     */
+    @NonNull
+    public List<Token> asList() {
+        return new TokenList();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * A view of a single token in a {@link TokenBuffer}.
+     */
+    public static final class BufferedToken implements Token {
+        @NonNull
+        private final TokenBuffer buffer;
+        private final int index;
+
+        private BufferedToken(@NonNull TokenBuffer buffer, int index) {
+            this.buffer = buffer;
+            this.index = index;
+        }
+
+        @NonNull
+        public DocumentSnapshot getSnapshot() {
+            return buffer.snapshot;
+        }
+
+        @Override
+        public String getText() {
+            return buffer.getText(index);
+        }
+
+        @Override
+        public int getType() {
+            return buffer.types[index];
+        }
+
+        @Override
+        public int getLine() {
+            return buffer.getLine(index);
+        }
+
+        @Override
+        public int getCharPositionInLine() {
+            return buffer.getCharPositionInLine(index);
+        }
+
+        @Override
+        public int getChannel() {
+            return buffer.channels[index];
+        }
+
+        @Override
+        public int getTokenIndex() {
+            return index;
+        }
+
+        @Override
+        public int getStartIndex() {
+            return buffer.starts[index];
+        }
+
+        @Override
+        public int getStopIndex() {
+            return buffer.stops[index];
+        }
+
+        @Override
+        public TokenSource getTokenSource() {
+            return buffer.source != null ? buffer.source.getItem1() : null;
+        }
+
+        @Override
+        public CharStream getInputStream() {
+            return buffer.source != null ? buffer.source.getItem2() : null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+
+            if (!(obj instanceof BufferedToken)) {
+                return false;
+            }
+
+            BufferedToken other = (BufferedToken)obj;
+            return this.buffer == other.buffer
+                && this.index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(buffer) + index;
+        }
+
+        @Override
+        public String toString() {
+            String txt = getText();
+            if (txt != null) {
+                txt = txt.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+            }
+
+            String channelTxt = getChannel() > 0 ? ",channel=" + getChannel() : "";
+            return "[@" + getTokenIndex() + "," + getStartIndex() + ":" + getStopIndex() + "='" + txt + "',<" + getType() + ">" + channelTxt + "," + getLine() + ":" + getCharPositionInLine() + "]";
+        }
+    }
+
+    private final class TokenList extends AbstractList<Token> implements RandomAccess {
+
+        @Override
+        public Token get(int index) {
+            return TokenBuffer.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+    }
+}
@@ -8,6 +8,7 @@
  */
 package org.antlr.works.editor.antlr4.highlighting;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -15,6 +16,9 @@ import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.event.DocumentEvent;
@@ -22,22 +26,39 @@ import javax.swing.event.DocumentListener;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.StyledDocument;
+import org.antlr.netbeans.editor.classification.TokenTag;
 import org.antlr.netbeans.editor.highlighting.Highlight;
 import org.antlr.netbeans.editor.highlighting.HighlightsList;
 import org.antlr.netbeans.editor.highlighting.LineStateInfo;
 import org.antlr.netbeans.editor.highlighting.ParseRequest;
 import org.antlr.netbeans.editor.highlighting.SingleHighlightSequence;
+import org.antlr.netbeans.editor.tagging.TaggedPositionRegion;
+import org.antlr.netbeans.editor.tagging.Tagger;
+import org.antlr.netbeans.editor.text.DocumentSnapshot;
+import org.antlr.netbeans.editor.text.NormalizedSnapshotPositionRegionCollection;
 import org.antlr.netbeans.editor.text.OffsetRegion;
+import org.antlr.netbeans.editor.text.SnapshotPositionRegion;
+import org.antlr.netbeans.editor.text.VersionedDocument;
+import org.antlr.netbeans.editor.text.VersionedDocumentUtilities;
+import org.antlr.netbeans.parsing.spi.ParserData;
+import org.antlr.netbeans.parsing.spi.ParserDataDefinition;
+import org.antlr.netbeans.parsing.spi.ParserDataEvent;
+import org.antlr.netbeans.parsing.spi.ParserDataListener;
+import org.antlr.netbeans.parsing.spi.ParserTaskManager;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.IntegerList;
 import org.antlr.v4.runtime.misc.Interval;
 import org.antlr.v4.runtime.misc.Utils;
+import org.antlr.works.editor.antlr4.classification.AbstractTokensTaskTaggerSnapshot;
+import org.antlr.works.editor.antlr4.classification.TokenBuffer;
 import org.netbeans.api.annotations.common.CheckForNull;
 import org.netbeans.api.annotations.common.NonNull;
 import org.netbeans.api.annotations.common.NullAllowed;
 import org.netbeans.spi.editor.highlighting.HighlightsSequence;
 import org.netbeans.spi.editor.highlighting.support.AbstractHighlightsContainer;
 import org.openide.text.NbDocument;
+import org.openide.util.Lookup;
 import org.openide.util.Parameters;
 
 /**
@@ -67,6 +88,17 @@ public abstract class ANTLRHighlighterBaseV4<TState extends LineStateInfo<TState
 
     private boolean failedTimeout;
 
+    /**
+     * {@code true} if highlights are read from the tokens computed by the parser task manager instead of lexing the
+     * document in {@link #getHighlights(int, int)}.
+     */
+    private boolean snapshotHighlighting;
+    private VersionedDocument versionedDocument;
+    /** Holds the target of the weak listener registered with the parser task manager. */
+    private TokensDataListener tokensDataListener;
+    /** The highlights for the most recent tokens snapshot, or {@code null} if no tokens are available yet. */
+    private volatile SnapshotHighlights snapshotHighlights;
+
     public ANTLRHighlighterBaseV4(@NonNull StyledDocument document) {
         this(document, true);
     }
@@ -84,6 +116,12 @@ public abstract class ANTLRHighlighterBaseV4<TState extends LineStateInfo<TState
     }
 
     public void initialize() {
+        ParserDataDefinition<Tagger<TokenTag<Token>>> tokensDataDefinition = getTokensDataDefinition();
+        if (tokensDataDefinition != null && useSnapshotHighlighting()) {
+            initializeSnapshotHighlighting(tokensDataDefinition);
+            return;
+        }
+
         TState dirtyState = getStartState().createDirtyState();
         int lineCount = NbDocument.findLineRootElement(this.document).getElementCount();
         this.lineStates.ensureCapacity(lineCount);
@@ -97,8 +135,137 @@ public abstract class ANTLRHighlighterBaseV4<TState extends LineStateInfo<TState
         forceRehighlightLines(0, lineStates.size() - 1);
     }
 
+    /**
+     * Gets the definition of the lexer tokens produced for this document by the parser task manager. When this
+     * returns a value and {@link #useSnapshotHighlighting} returns {@code true}, highlights are computed from those
+     * tokens on a parser thread, and painting only reads the resulting highlights. The default implementation returns
+     * {@code null}, so the highlighter lexes the document itself.
+     */
+    @CheckForNull
+    protected ParserDataDefinition<Tagger<TokenTag<Token>>> getTokensDataDefinition() {
+        return null;
+    }
+
+    /**
+     * Determines whether highlights are computed from the tokens described by {@link #getTokensDataDefinition}. This
+     * method is called once from {@link #initialize}.
+     */
+    protected boolean useSnapshotHighlighting() {
+        return true;
+    }
+
+    protected final boolean isSnapshotHighlighting() {
+        return snapshotHighlighting;
+    }
+
+    private void initializeSnapshotHighlighting(@NonNull final ParserDataDefinition<Tagger<TokenTag<Token>>> tokensDataDefinition) {
+        snapshotHighlighting = true;
+        versionedDocument = VersionedDocumentUtilities.getVersionedDocument(document);
+
+        final ParserTaskManager taskManager = Lookup.getDefault().lookup(ParserTaskManager.class);
+        tokensDataListener = new TokensDataListener(taskManager);
+        taskManager.addDataListener(tokensDataDefinition, new WeakTokensDataListener(tokensDataDefinition, tokensDataListener));
+
+        // the tokens are otherwise only updated after the document changes
+        final DocumentSnapshot snapshot = versionedDocument.getCurrentSnapshot();
+        taskManager.scheduleHighPriority(new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    Future<ParserData<Tagger<TokenTag<Token>>>> futureTokensData = taskManager.getData(snapshot, tokensDataDefinition);
+                    ParserData<Tagger<TokenTag<Token>>> tokensData = futureTokensData != null ? futureTokensData.get() : null;
+                    if (tokensData != null) {
+                        updateSnapshotHighlights(tokensData);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    LOGGER.log(Level.WARNING, "An exception occurred while getting the lexer tokens.", ex);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Computes the highlights for the tokens in {@code tokensData} and makes them visible, unless highlights for the
+     * same or a later snapshot are already available. This method is called on a parser thread.
+     */
+    private void updateSnapshotHighlights(@NonNull ParserData<? extends Tagger<TokenTag<Token>>> tokensData) {
+        DocumentSnapshot snapshot = tokensData.getSnapshot();
+        Tagger<TokenTag<Token>> tagger = tokensData.getData();
+        if (tagger == null || !isNewerThanSnapshotHighlights(snapshot)) {
+            return;
+        }
+
+        SnapshotHighlights highlights = createSnapshotHighlights(snapshot, tagger);
+        synchronized (lock) {
+            if (!isNewerThanSnapshotHighlights(snapshot)) {
+                return;
+            }
+
+            snapshotHighlights = highlights;
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Updated {0} snapshot highlights for version {1}.", new Object[] { highlights.size(), snapshot.getVersion().getVersionNumber() });
+        }
+
+        fireHighlightsChange(0, document.getLength());
+    }
+
+    private boolean isNewerThanSnapshotHighlights(@NonNull DocumentSnapshot snapshot) {
+        SnapshotHighlights current = snapshotHighlights;
+        return current == null
+            || current.getSnapshot().getVersion().getVersionNumber() < snapshot.getVersion().getVersionNumber();
+    }
+
+    @NonNull
+    private SnapshotHighlights createSnapshotHighlights(@NonNull DocumentSnapshot snapshot, @NonNull Tagger<TokenTag<Token>> tagger) {
+        IntegerList starts = new IntegerList();
+        IntegerList ends = new IntegerList();
+        List<AttributeSet> attributes = new ArrayList<>();
+        if (tagger instanceof AbstractTokensTaskTaggerSnapshot<?> && ((AbstractTokensTaskTaggerSnapshot<?>)tagger).getSnapshot().equals(snapshot)) {
+            // cached lines are copied to the buffer without creating tokens or tags
+            TokenBuffer buffer = ((AbstractTokensTaskTaggerSnapshot<?>)tagger).getTokenBuffer(0, snapshot.length());
+            for (int i = 0; i < buffer.size(); i++) {
+                addSnapshotHighlight(buffer.get(i), starts, ends, attributes);
+            }
+        } else {
+            SnapshotPositionRegion region = new SnapshotPositionRegion(snapshot, 0, snapshot.length());
+            for (TaggedPositionRegion<TokenTag<Token>> tag : tagger.getTags(new NormalizedSnapshotPositionRegionCollection(region))) {
+                addSnapshotHighlight(tag.getTag().getToken(), starts, ends, attributes);
+            }
+        }
+
+        return new SnapshotHighlights(snapshot, starts.toArray(), ends.toArray(), attributes.toArray(new AttributeSet[attributes.size()]));
+    }
+
+    private void addSnapshotHighlight(@NonNull Token token, @NonNull IntegerList starts, @NonNull IntegerList ends, @NonNull List<AttributeSet> attributes) {
+        if (token.getType() == Token.EOF || token.getStopIndex() < token.getStartIndex()) {
+            return;
+        }
+
+        AttributeSet tokenAttributes = highlightSnapshotToken(token);
+        if (tokenAttributes == null || tokenAttributes.getAttributeCount() == 0) {
+            return;
+        }
+
+        starts.add(token.getStartIndex());
+        ends.add(token.getStopIndex() + 1);
+        attributes.add(tokenAttributes);
+    }
+
     @Override
     public HighlightsSequence getHighlights(int startOffset, int endOffset) {
+        if (snapshotHighlighting) {
+            SnapshotHighlights highlights = snapshotHighlights;
+            if (highlights == null) {
+                return HighlightsSequence.EMPTY;
+            }
+
+            return highlights.getHighlights(versionedDocument.getCurrentSnapshot(), startOffset, Math.min(document.getLength(), endOffset));
+        }
+
         Iterable<Highlight> highlights = getHighlightsIncremental(startOffset, endOffset, true);
         return new HighlightsList(highlights);
     }
@@ -109,6 +276,16 @@ public abstract class ANTLRHighlighterBaseV4<TState extends LineStateInfo<TState
             return Collections.emptyList();
         }
 
+        if (snapshotHighlighting) {
+            List<Highlight> highlights = new ArrayList<>();
+            HighlightsSequence sequence = getHighlights(startOffset, endOffset);
+            while (sequence.moveNext()) {
+                highlights.add(new Highlight(sequence.getStartOffset(), sequence.getEndOffset(), sequence.getAttributes()));
+            }
+
+            return highlights;
+        }
+
         final int adjustedEndOffset = Math.min(document.getLength(), endOffset);
         return new Iterable<Highlight>() {
 
@@ -322,12 +499,12 @@ public abstract class ANTLRHighlighterBaseV4<TState extends LineStateInfo<TState
      * @param updateOffsets
      * @param propagate
      * @return Returns the affected line range, which may extend beyond lines containing {@code startOffset} and {@code endOffset} when multi-line tokens are encountered and/or {@code propagate} is {@code true}.
-     *      Returns {@code null} if no information is requested ({@code highlights} and {@code tokens} are {@code null} and {@code propagate} is {@code false}); if a previous call to {@code getHighlights} timed-out;
+     *      Returns {@code null} if no information is requested ({@code highlights} and {@code tokens} are {@code null} and {@code propagate} is {@code false}); if a previous call to {@code getHighlights} timed-out; if this highlighter uses snapshot highlighting;
      *      or if the call to {@link #createInputStream(OffsetRegion)} throws a {@link BadLocationException}.
      */
     @CheckForNull
     public Interval getHighlights(final int startOffset, int endOffset, @NullAllowed List<Highlight> highlights, @NullAllowed List<Token> tokens, boolean updateOffsets, boolean propagate) {
-        if (highlights == null && tokens == null && !propagate) {
+        if ((highlights == null && tokens == null && !propagate) || snapshotHighlighting) {
             return null;
         }
 
@@ -727,11 +904,27 @@ public abstract class ANTLRHighlighterBaseV4<TState extends LineStateInfo<TState
         return null;
     }
 
+    /**
+     * Gets the attributes for a token produced by the lexer of {@link #getTokensDataDefinition}. The default
+     * implementation calls {@link #highlightToken}, which is only correct if both lexers use the same token types.
+     */
+    protected AttributeSet highlightSnapshotToken(Token token) {
+        return highlightToken(token);
+    }
+
     public void forceRehighlightLines(int startLine, int endLineInclusive) {
         forceRehighlightLines(startLine, endLineInclusive, true);
     }
 
     protected void forceRehighlightLines(int startLine, int endLineInclusive, boolean setDirtyLines) {
+        if (snapshotHighlighting) {
+            int lineCount = NbDocument.findLineRootElement(document).getElementCount();
+            int start = NbDocument.findLineOffset(document, startLine);
+            int end = endLineInclusive >= lineCount - 1 ? document.getLength() : NbDocument.findLineOffset(document, endLineInclusive + 1);
+            fireHighlightsChange(start, end);
+            return;
+        }
+
         checkDirtyLineBounds();
 
         if (setDirtyLines) {
@@ -880,4 +1073,53 @@ public abstract class ANTLRHighlighterBaseV4<TState extends LineStateInfo<TState
             }
         }
     }
+
+    private final class TokensDataListener implements ParserDataListener<Tagger<TokenTag<Token>>> {
+        @NonNull
+        private final ParserTaskManager taskManager;
+
+        public TokensDataListener(@NonNull ParserTaskManager taskManager) {
+            this.taskManager = taskManager;
+        }
+
+        @Override
+        public void dataChanged(ParserDataEvent<? extends Tagger<TokenTag<Token>>> event) {
+            final ParserData<? extends Tagger<TokenTag<Token>>> tokensData = event.getData();
+            if (tokensData == null || !versionedDocument.equals(tokensData.getSnapshot().getVersionedDocument())) {
+                return;
+            }
+
+            taskManager.scheduleHighPriority(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    updateSnapshotHighlights(tokensData);
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static final class WeakTokensDataListener implements ParserDataListener<Tagger<TokenTag<Token>>> {
+        @NonNull
+        private final ParserDataDefinition<Tagger<TokenTag<Token>>> dataDefinition;
+        @NonNull
+        private final WeakReference<ParserDataListener<Tagger<TokenTag<Token>>>> listener;
+
+        public WeakTokensDataListener(@NonNull ParserDataDefinition<Tagger<TokenTag<Token>>> dataDefinition, @NonNull ParserDataListener<Tagger<TokenTag<Token>>> listener) {
+            this.dataDefinition = dataDefinition;
+            this.listener = new WeakReference<>(listener);
+        }
+
+        @Override
+        public void dataChanged(ParserDataEvent<? extends Tagger<TokenTag<Token>>> event) {
+            ParserDataListener<Tagger<TokenTag<Token>>> target = listener.get();
+            if (target == null) {
+                ParserTaskManager taskManager = Lookup.getDefault().lookup(ParserTaskManager.class);
+                taskManager.removeDataListener(dataDefinition, this);
+                return;
+            }
+
+            target.dataChanged(event);
+        }
+    }
 }
@@ -16,7 +16,6 @@ import org.antlr.netbeans.editor.text.OffsetRegion;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.misc.Interval;
-import org.openide.text.NbDocument;
 
 /**
  *
@@ -26,11 +25,16 @@ public class DocumentCharStreamV4 implements CharStream {
     // -J-Dorg.antlr.works.editor.antlr4.highlighting.DocumentCharStreamV4.level=FINE
     private static final Logger LOGGER = Logger.getLogger(DocumentCharStreamV4.class.getName());
 
+    /** The number of characters read from the document at a time. */
+    private static final int BUFFER_SIZE = 4096;
+    /** The number of characters before the current index kept when the buffer is refilled. */
+    private static final int LOOKBEHIND = 64;
+
     private boolean explicitCache;
 
-    private int currentSnapshotLineStartIndex;
+    private int cachedTextStartIndex;
 
-    private String currentSnapshotLine;
+    private String cachedText;
 
     private final StyledDocument document;
 
@@ -44,17 +48,17 @@ public class DocumentCharStreamV4 implements CharStream {
     public DocumentCharStreamV4(StyledDocument document, OffsetRegion cachedSpan) throws BadLocationException {
         this.document = document;
         this.explicitCache = true;
-        this.currentSnapshotLineStartIndex = cachedSpan.getStart();
-        this.currentSnapshotLine = document.getText(cachedSpan.getStart(), cachedSpan.getLength()).toString();
+        this.cachedTextStartIndex = cachedSpan.getStart();
+        this.cachedText = document.getText(cachedSpan.getStart(), cachedSpan.getLength()).toString();
     }
 
     @Override
     public String getText(Interval interval) {
         int startIndex = interval.a;
         int endIndexInclusive = interval.b;
-        if (currentSnapshotLine != null) {
-            if (startIndex >= currentSnapshotLineStartIndex && (endIndexInclusive + 1) <= currentSnapshotLineStartIndex + currentSnapshotLine.length()) {
-                return currentSnapshotLine.substring(startIndex - currentSnapshotLineStartIndex, endIndexInclusive - currentSnapshotLineStartIndex + 1);
+        if (cachedText != null) {
+            if (startIndex >= cachedTextStartIndex && (endIndexInclusive + 1) <= cachedTextStartIndex + cachedText.length()) {
+                return cachedText.substring(startIndex - cachedTextStartIndex, endIndexInclusive - cachedTextStartIndex + 1);
             }
         }
         try {
@@ -96,11 +100,20 @@ public class DocumentCharStreamV4 implements CharStream {
         }
 
         int actualIndex = index() + i - 1;
-        if (currentSnapshotLine != null
-            && actualIndex >= currentSnapshotLineStartIndex
-            && actualIndex < currentSnapshotLineStartIndex + currentSnapshotLine.length()) {
-            return currentSnapshotLine.charAt(actualIndex - currentSnapshotLineStartIndex);
+        if (cachedText != null
+            && actualIndex >= cachedTextStartIndex
+            && actualIndex < cachedTextStartIndex + cachedText.length()) {
+            return cachedText.charAt(actualIndex - cachedTextStartIndex);
+        }
+
+        if (!explicitCache && actualIndex >= index() && actualIndex - index() < BUFFER_SIZE - LOOKBEHIND) {
+            // lookahead past the end of the buffer
+            readBuffer(index());
+            if (cachedText != null && actualIndex < cachedTextStartIndex + cachedText.length()) {
+                return cachedText.charAt(actualIndex - cachedTextStartIndex);
+            }
         }
+
         try {
             return document.getText(actualIndex, 1).charAt(0);
         } catch (BadLocationException ex) {
@@ -147,23 +160,32 @@ public class DocumentCharStreamV4 implements CharStream {
         if (explicitCache)
             return;
 
-        if (currentSnapshotLine == null
-            || index() < currentSnapshotLineStartIndex
-            || index() >= currentSnapshotLineStartIndex + currentSnapshotLine.length()) {
+        if (cachedText == null
+            || index() < cachedTextStartIndex
+            || index() >= cachedTextStartIndex + cachedText.length()) {
             if (index() >= 0 && index() < size()) {
-                int currentLine = NbDocument.findLineNumber(document, index());
-                currentSnapshotLineStartIndex = NbDocument.findLineOffset(document, currentLine);
-                int endIndex = (currentLine < NbDocument.findLineRootElement(document).getElementCount() - 1) ? NbDocument.findLineOffset(document, currentLine + 1) : document.getLength();
-                try {
-                    currentSnapshotLine = document.getText(currentSnapshotLineStartIndex, endIndex - currentSnapshotLineStartIndex).toString();
-                } catch (BadLocationException ex) {
-                    LOGGER.log(Level.WARNING, ex.getMessage(), ex);
-                }
+                readBuffer(Math.max(0, index() - LOOKBEHIND));
             } else {
-                currentSnapshotLine = null;
-                currentSnapshotLineStartIndex = 0;
+                cachedText = null;
+                cachedTextStartIndex = 0;
             }
 
         }
     }
+
+    /**
+     * Reads a block of the document starting at {@code startIndex}, rather than a single line, so lexing reads the
+     * document text in large pieces.
+     */
+    private void readBuffer(int startIndex) {
+        int length = Math.min(BUFFER_SIZE, size() - startIndex);
+        try {
+            cachedText = document.getText(startIndex, length);
+            cachedTextStartIndex = startIndex;
+        } catch (BadLocationException ex) {
+            LOGGER.log(Level.WARNING, ex.getMessage(), ex);
+            cachedText = null;
+            cachedTextStartIndex = 0;
+        }
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2012 Sam Harwell, Tunnel Vision Laboratories LLC
+ *  All rights reserved.
+ *
+ *  The source code of this document is proprietary work, and is not licensed for
+ *  distribution. For information about licensing, contact Sam Harwell at:
+ *      sam@tunnelvisionlabs.com
+ */
+package org.antlr.works.editor.antlr4.highlighting;
+
+import javax.swing.text.AttributeSet;
+import org.antlr.netbeans.editor.text.DocumentSnapshot;
+import org.antlr.netbeans.editor.text.SnapshotPositionTranslator;
+import org.antlr.netbeans.editor.text.TrackingPosition;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.annotations.common.NullAllowed;
+import org.netbeans.spi.editor.highlighting.HighlightsSequence;
+import org.openide.util.Parameters;
+
+/**
+ * An immutable array of highlights computed from the tokens of a {@link DocumentSnapshot}. The highlights are sorted
+ * and do not overlap, so the highlights for a view are located with a binary search. When the document has changed
+ * since the snapshot was lexed, the offsets are translated to the current snapshot as they are read.
+ *
+ * @author Sam Harwell
+ */
+final class SnapshotHighlights {
+
+    @NonNull
+    private final DocumentSnapshot snapshot;
+    @NonNull
+    private final int[] starts;
+    @NonNull
+    private final int[] ends;
+    @NonNull
+    private final AttributeSet[] attributes;
+
+    public SnapshotHighlights(@NonNull DocumentSnapshot snapshot, @NonNull int[] starts, @NonNull int[] ends, @NonNull AttributeSet[] attributes) {
+        Parameters.notNull("snapshot", snapshot);
+        Parameters.notNull("starts", starts);
+        Parameters.notNull("ends", ends);
+        Parameters.notNull("attributes", attributes);
+        if (starts.length != ends.length || starts.length != attributes.length) {
+            throw new IllegalArgumentException("The highlight arrays must have the same length.");
+        }
+
+        this.snapshot = snapshot;
+        this.starts = starts;
+        this.ends = ends;
+        this.attributes = attributes;
+    }
+
+    @NonNull
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Gets the highlights which overlap {@code [startOffset, endOffset)} in {@code targetSnapshot}, which must not be
+     * older than the snapshot of these highlights.
+     */
+    @NonNull
+    public HighlightsSequence getHighlights(@NonNull DocumentSnapshot targetSnapshot, int startOffset, int endOffset) {
+        Parameters.notNull("targetSnapshot", targetSnapshot);
+        if (targetSnapshot.getVersion().getVersionNumber() < snapshot.getVersion().getVersionNumber()) {
+            return HighlightsSequence.EMPTY;
+        }
+
+        SnapshotPositionTranslator translator = null;
+        if (!targetSnapshot.equals(snapshot)) {
+            translator = new SnapshotPositionTranslator(snapshot, targetSnapshot);
+        }
+
+        return new Sequence(translator, findFirstIndex(translator, startOffset), endOffset);
+    }
+
+    /**
+     * Gets the index of the first highlight which ends after {@code offset}. The translated offsets are in the same
+     * order as the original offsets, so the search is performed on the original arrays.
+     */
+    private int findFirstIndex(@NullAllowed SnapshotPositionTranslator translator, int offset) {
+        int low = 0;
+        int high = ends.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (translateEnd(translator, mid) <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private int translateStart(@NullAllowed SnapshotPositionTranslator translator, int index) {
+        if (translator == null) {
+            return starts[index];
+        }
+
+        return translator.translate(starts[index], TrackingPosition.Bias.Forward);
+    }
+
+    private int translateEnd(@NullAllowed SnapshotPositionTranslator translator, int index) {
+        if (translator == null) {
+            return ends[index];
+        }
+
+        // the end is translated after the start so the translator continues its forward sweep
+        int start = translateStart(translator, index);
+        return Math.max(start, translator.translate(ends[index], TrackingPosition.Bias.Backward));
+    }
+
+    private final class Sequence implements HighlightsSequence {
+        @NullAllowed
+        private final SnapshotPositionTranslator translator;
+        private final int endOffset;
+
+        private int index;
+        private int currentStart = -1;
+        private int currentEnd = -1;
+        private AttributeSet currentAttributes;
+
+        public Sequence(@NullAllowed SnapshotPositionTranslator translator, int firstIndex, int endOffset) {
+            this.translator = translator;
+            this.index = firstIndex;
+            this.endOffset = endOffset;
+        }
+
+        @Override
+        public boolean moveNext() {
+            while (index < starts.length) {
+                int start = translateStart(translator, index);
+                if (start >= endOffset) {
+                    break;
+                }
+
+                int end = translateEnd(translator, index);
+                AttributeSet current = attributes[index];
+                index++;
+                if (end <= start) {
+                    // the text of the token was removed
+                    continue;
+                }
+
+                currentStart = start;
+                currentEnd = end;
+                currentAttributes = current;
+                return true;
+            }
+
+            index = starts.length;
+            currentStart = -1;
+            currentEnd = -1;
+            currentAttributes = null;
+            return false;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return currentStart;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return currentEnd;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return currentAttributes;
+        }
+
+    }
+}